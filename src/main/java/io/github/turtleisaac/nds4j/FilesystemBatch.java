@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A batch of changes to a filesystem (a root <code>Fnt.Folder</code> and the file table it describes): renaming,
+ * moving, adding and removing files and folders.
+ * <p>Changes are checked and recorded as they are made, but nothing is modified until <code>commit()</code> is
+ * called, so a batch which fails part of the way through (or is never committed) leaves the filesystem unchanged.
+ * Committing renumbers all files once: the files of each folder are given consecutive file IDs again, in the order
+ * of the folders' original first IDs (with new folders last), and the file table is rebuilt in a single pass. Only the
+ * folders which were changed are modified, so the others are saved without being serialized again when they were
+ * loaded compactly.</p>
+ * <p>The filesystem must not be modified by other means while a batch is being made.</p>
+ */
+public class FilesystemBatch
+{
+    private final Fnt.Folder root;
+    private final List<byte[]> files;
+    private final BiConsumer<int[], ArrayList<byte[]>> onCommit;
+    private final StagedFolder stagedRoot;
+    private boolean committed;
+
+    /**
+     * Creates a batch of changes to the given filesystem
+     * @param root the root <code>Fnt.Folder</code>
+     * @param files the file table, indexed by file ID
+     * @param onCommit called with the mapping of old file IDs to new ones (<code>-1</code> for removed files) and the
+     *                 new file table once the folders have been updated
+     */
+    FilesystemBatch(Fnt.Folder root, List<byte[]> files, BiConsumer<int[], ArrayList<byte[]>> onCommit)
+    {
+        this.root = root;
+        this.files = files;
+        this.onCommit = onCommit;
+        this.stagedRoot = new StagedFolder(root, root.name);
+    }
+
+    /**
+     * Renames a file or folder
+     * @param path a <code>String</code> containing the path of the file or folder
+     * @param newName a <code>String</code> containing its new name
+     * @return this <code>FilesystemBatch</code>
+     * @exception RuntimeException if the file or folder doesn't exist, or the new name is invalid or already taken
+     */
+    public FilesystemBatch rename(String path, String newName)
+    {
+        checkName(newName);
+        String[] parts = split(path);
+        StagedFolder parent = findFolder(Arrays.copyOf(parts, parts.length - 1), false, path);
+        String name = parts[parts.length - 1];
+        StagedFile file = parent.findFile(name);
+        StagedFolder folder = file == null ? parent.folders.get(name) : null;
+        if (file == null && folder == null)
+            throw new RuntimeException("Cannot find \"" + path + "\"");
+        if (name.equals(newName))
+            return this;
+        checkAvailable(parent, newName);
+
+        if (file != null)
+        {
+            file.name = newName;
+        }
+        else
+        {
+            // keep the order of the subfolders
+            LinkedHashMap<String, StagedFolder> folders = new LinkedHashMap<>();
+            for (Map.Entry<String, StagedFolder> entry : parent.folders.entrySet())
+                folders.put(entry.getKey().equals(name) ? newName : entry.getKey(), entry.getValue());
+            parent.folders = folders;
+            folder.name = newName;
+        }
+        parent.changed = true;
+        return this;
+    }
+
+    /**
+     * Moves a file or folder into another folder, keeping its name
+     * @param path a <code>String</code> containing the path of the file or folder
+     * @param destination a <code>String</code> containing the path of the folder to move it to (empty for the root)
+     * @return this <code>FilesystemBatch</code>
+     * @exception RuntimeException if the file or folder or the destination don't exist, the destination already
+     * contains something with the same name, or a folder would be moved into itself
+     */
+    public FilesystemBatch move(String path, String destination)
+    {
+        String[] parts = split(path);
+        String[] destinationParts = splitFolder(destination);
+        StagedFolder parent = findFolder(Arrays.copyOf(parts, parts.length - 1), false, path);
+        StagedFolder target = findFolder(destinationParts, false, destination);
+        String name = parts[parts.length - 1];
+        StagedFile file = parent.findFile(name);
+        StagedFolder folder = file == null ? parent.folders.get(name) : null;
+        if (file == null && folder == null)
+            throw new RuntimeException("Cannot find \"" + path + "\"");
+        if (parent == target)
+            return this;
+
+        if (file != null)
+        {
+            checkAvailable(target, name);
+            parent.files.remove(file);
+            target.files.add(file);
+        }
+        else
+        {
+            if (destinationParts.length >= parts.length && Arrays.equals(Arrays.copyOf(destinationParts, parts.length), parts))
+                throw new RuntimeException("Cannot move \"" + path + "\" into itself");
+            checkAvailable(target, name);
+            parent.folders.remove(name);
+            target.folders.put(name, folder);
+        }
+        parent.changed = true;
+        target.changed = true;
+        return this;
+    }
+
+    /**
+     * Adds a file, creating any folders on its path which don't exist yet
+     * @param path a <code>String</code> containing the path of the new file
+     * @param data a <code>byte[]</code> containing the contents of the new file
+     * @return this <code>FilesystemBatch</code>
+     * @exception RuntimeException if the path is invalid or already taken
+     */
+    public FilesystemBatch add(String path, byte[] data)
+    {
+        String[] parts = split(path);
+        for (String part : parts)
+            checkName(part);
+        StagedFolder parent = findFolder(Arrays.copyOf(parts, parts.length - 1), true, path);
+        String name = parts[parts.length - 1];
+        checkAvailable(parent, name);
+        parent.files.add(new StagedFile(name, -1, data));
+        parent.changed = true;
+        return this;
+    }
+
+    /**
+     * Removes a file, or a folder and everything within it
+     * @param path a <code>String</code> containing the path of the file or folder
+     * @return this <code>FilesystemBatch</code>
+     * @exception RuntimeException if the file or folder doesn't exist
+     */
+    public FilesystemBatch remove(String path)
+    {
+        String[] parts = split(path);
+        StagedFolder parent = findFolder(Arrays.copyOf(parts, parts.length - 1), false, path);
+        String name = parts[parts.length - 1];
+
+        StagedFile file = parent.findFile(name);
+        if (file != null)
+            parent.files.remove(file);
+        else if (parent.folders.remove(name) == null)
+            throw new RuntimeException("Cannot find \"" + path + "\"");
+        parent.changed = true;
+        return this;
+    }
+
+    /**
+     * Applies all changes in this batch: the file IDs of all files are reassigned, the file table is rebuilt
+     * accordingly, and the folders which were changed are updated.
+     * @return an <code>int[]</code> mapping each old file ID to its new one, or to <code>-1</code> if the file was
+     * removed
+     * @exception RuntimeException if this batch has already been committed
+     */
+    public int[] commit()
+    {
+        if (committed)
+            throw new RuntimeException("This batch has already been committed");
+
+        // the files of the original tree occupy a range of file IDs; anything before it (such as overlays) is kept
+        BitSet originalIds = new BitSet(files.size());
+        markFiles(root, originalIds);
+        int base = originalIds.isEmpty() ? files.size() : originalIds.nextSetBit(0);
+
+        // the folders of the new tree, in the order their files will be numbered in
+        ArrayList<Plan> plans = new ArrayList<>();
+        collectPlans(stagedRoot, null, plans);
+        plans.sort(Comparator.comparingInt(plan -> plan.order));
+
+        int[] remap = new int[files.size()];
+        Arrays.fill(remap, -1);
+        ArrayList<byte[]> newFiles = new ArrayList<>(files.size());
+        for (int id = 0; id < base; id++)
+        {
+            remap[id] = id;
+            newFiles.add(files.get(id));
+        }
+
+        for (Plan plan : plans)
+        {
+            plan.newFirstId = newFiles.size();
+            if (plan.staged != null && plan.staged.expanded)
+            {
+                for (StagedFile file : plan.staged.files)
+                {
+                    if (file.oldId != -1)
+                        remap[file.oldId] = newFiles.size();
+                    newFiles.add(file.oldId == -1 ? file.data : files.get(file.oldId));
+                }
+            }
+            else
+            {
+                int numFiles = Fnt.getNumFilesIn(plan.folder);
+                for (int i = 0; i < numFiles; i++)
+                {
+                    remap[plan.folder.firstId + i] = newFiles.size();
+                    newFiles.add(files.get(plan.folder.firstId + i));
+                }
+            }
+        }
+
+        // files which aren't in the tree keep their order after it
+        for (int id = base; id < files.size(); id++)
+        {
+            if (!originalIds.get(id))
+            {
+                remap[id] = newFiles.size();
+                newFiles.add(files.get(id));
+            }
+        }
+
+        // nothing has been modified until now
+        for (Plan plan : plans)
+        {
+            StagedFolder staged = plan.staged;
+            if (staged != null && staged.changed)
+            {
+                ArrayList<String> folderFiles = plan.folder.getFiles();
+                folderFiles.clear();
+                for (StagedFile file : staged.files)
+                    folderFiles.add(file.name);
+
+                Map<String, Fnt.Folder> subfolders = plan.folder.getFolders();
+                subfolders.clear();
+                for (Map.Entry<String, StagedFolder> entry : staged.folders.entrySet())
+                    subfolders.put(entry.getKey(), entry.getValue().target);
+            }
+            if (staged != null)
+                plan.folder.name = staged.name;
+            if (plan.folder.firstId != plan.newFirstId)
+                plan.folder.setFirstId(plan.newFirstId);
+        }
+
+        committed = true;
+        onCommit.accept(remap, newFiles);
+        return remap;
+    }
+
+    /**
+     * The position of a folder in the new tree
+     */
+    private static class Plan
+    {
+        private final Fnt.Folder folder;
+        private final StagedFolder staged; // null for folders within an unchanged folder
+        private final int order;
+        private int newFirstId;
+
+        private Plan(Fnt.Folder folder, StagedFolder staged, int order)
+        {
+            this.folder = folder;
+            this.staged = staged;
+            this.order = order;
+        }
+    }
+
+    private void collectPlans(StagedFolder staged, Fnt.Folder folder, ArrayList<Plan> plans)
+    {
+        if (staged != null)
+        {
+            // new folders go after all existing ones
+            plans.add(new Plan(staged.target, staged, staged.original == null ? Integer.MAX_VALUE : staged.original.firstId));
+            if (staged.expanded)
+            {
+                for (StagedFolder subfolder : staged.folders.values())
+                    collectPlans(subfolder, null, plans);
+                return;
+            }
+            folder = staged.original;
+        }
+        else
+        {
+            plans.add(new Plan(folder, null, folder.firstId));
+        }
+
+        for (Fnt.Folder subfolder : Fnt.getSubfoldersOf(folder).values())
+            collectPlans(null, subfolder, plans);
+    }
+
+    private static void markFiles(Fnt.Folder folder, BitSet ids)
+    {
+        int numFiles = Fnt.getNumFilesIn(folder);
+        if (numFiles != 0)
+            ids.set(folder.firstId, folder.firstId + numFiles);
+        for (Fnt.Folder subfolder : Fnt.getSubfoldersOf(folder).values())
+            markFiles(subfolder, ids);
+    }
+
+    private StagedFolder findFolder(String[] parts, boolean create, String path)
+    {
+        if (committed)
+            throw new RuntimeException("This batch has already been committed");
+
+        StagedFolder folder = stagedRoot;
+        for (String part : parts)
+        {
+            folder.expand();
+            StagedFolder subfolder = folder.folders.get(part);
+            if (subfolder == null)
+            {
+                if (!create)
+                    throw new RuntimeException("Cannot find \"" + path + "\"");
+                checkAvailable(folder, part);
+                subfolder = new StagedFolder(null, part);
+                folder.folders.put(part, subfolder);
+                folder.changed = true;
+            }
+            folder = subfolder;
+        }
+        folder.expand();
+        return folder;
+    }
+
+    private static void checkAvailable(StagedFolder folder, String name)
+    {
+        if (folder.findFile(name) != null || folder.folders.containsKey(name))
+            throw new RuntimeException("\"" + name + "\" already exists");
+    }
+
+    private static void checkName(String name)
+    {
+        if (name.isEmpty() || name.indexOf('/') != -1)
+            throw new RuntimeException("\"" + name + "\" is not a valid name");
+        if (name.length() > 127)
+            throw new RuntimeException("Name \"" + name + "\" is " + name.length() + " characters long (maximum is 127)!");
+    }
+
+    private static String[] split(String path)
+    {
+        String[] parts = splitFolder(path);
+        if (parts.length == 0)
+            throw new RuntimeException("\"" + path + "\" is not a valid path");
+        return parts;
+    }
+
+    private static String[] splitFolder(String path)
+    {
+        return Arrays.stream(path.split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+    }
+
+    /**
+     * A folder as it will be once the batch is committed. Its contents are only copied from the original folder once
+     * they're needed.
+     */
+    private static class StagedFolder
+    {
+        private final Fnt.Folder original; // null for new folders
+        private final Fnt.Folder target;
+        private String name;
+        private boolean expanded;
+        private boolean changed;
+        private ArrayList<StagedFile> files;
+        private LinkedHashMap<String, StagedFolder> folders;
+
+        private StagedFolder(Fnt.Folder original, String name)
+        {
+            this.original = original;
+            this.target = original != null ? original : new Fnt.Folder(name);
+            this.name = name;
+            if (original == null)
+            {
+                files = new ArrayList<>();
+                folders = new LinkedHashMap<>();
+                expanded = true;
+            }
+        }
+
+        private void expand()
+        {
+            if (expanded)
+                return;
+
+            files = new ArrayList<>();
+            ArrayList<String> names = original.getFiles();
+            for (int i = 0; i < names.size(); i++)
+                files.add(new StagedFile(names.get(i), original.firstId + i, null));
+
+            folders = new LinkedHashMap<>();
+            for (Map.Entry<String, Fnt.Folder> entry : Fnt.getSubfoldersOf(original).entrySet())
+                folders.put(entry.getKey(), new StagedFolder(entry.getValue(), entry.getKey()));
+            expanded = true;
+        }
+
+        private StagedFile findFile(String name)
+        {
+            for (StagedFile file : files)
+            {
+                if (file.name.equals(name))
+                    return file;
+            }
+            return null;
+        }
+    }
+
+    private static class StagedFile
+    {
+        private String name;
+        private final int oldId; // -1 for new files
+        private final byte[] data;
+
+        private StagedFile(String name, int oldId, byte[] data)
+        {
+            this.name = name;
+            this.oldId = oldId;
+            this.data = data;
+        }
+    }
+}
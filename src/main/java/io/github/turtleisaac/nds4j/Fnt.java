@@ -25,8 +25,17 @@ import io.github.turtleisaac.nds4j.framework.MemBuf;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,45 +47,142 @@ public class Fnt
         protected int firstId;
         protected String name;
 
+        private static final AtomicLongFieldUpdater<Folder> MODIFICATIONS = AtomicLongFieldUpdater.newUpdater(Folder.class, "modifications");
+
+        // the folder this folder is in, if known. Subfolders are linked to their folder when it's loaded or indexed.
+        Folder parent;
+        // counts modifications made to any folder in the tree this folder is the root of, so that path indexes know
+        // when they have to be rebuilt
+        private volatile long modifications;
+        private volatile PathIndex pathIndex;
+
         public Folder()
         {
-            this.folders = new HashMap<>();
-            this.files = new ArrayList<>();
+            this.folders = new TrackedMap<>(this::modified);
+            this.files = new TrackedList<>(this::modified);
             this.firstId = 0;
             this.name = "";
         }
 
         public Folder(String name)
         {
-            this.folders = new HashMap<>();
-            this.files = new ArrayList<>();
+            this.folders = new TrackedMap<>(this::modified);
+            this.files = new TrackedList<>(this::modified);
             this.firstId = 0;
             this.name = name;
         }
 
+        /**
+         * Creates a folder whose file and folder collections are only created once it's materialized
+         */
+        Folder(String name, boolean deferred)
+        {
+            if (!deferred)
+                createCollections();
+            this.firstId = 0;
+            this.name = name;
+        }
+
+        void createCollections()
+        {
+            this.folders = new TrackedMap<>(this::modified);
+            this.files = new TrackedList<>(this::modified);
+        }
+
         public Folder(HashMap<String, Folder> folders, ArrayList<String> files, int firstId)
         {
             if (folders != null)
-                this.folders = new HashMap<>(folders);
+            {
+                this.folders = new TrackedMap<>(this::modified, folders);
+                for (Folder folder : folders.values())
+                    folder.parent = this;
+            }
             else
-                this.folders = new HashMap<>();
+                this.folders = new TrackedMap<>(this::modified);
 
             if (files != null)
-                this.files = new ArrayList<>(files);
+                this.files = new TrackedList<>(this::modified, files);
             else
-                this.files = new ArrayList<>();
+                this.files = new TrackedList<>(this::modified);
 
             this.firstId = firstId;
             this.name = "";
         }
 
+        /**
+         * Invalidates the path indexes of all folders in the same tree as this folder. Modifications made to the file
+         * and folder collections of a <code>Folder</code> do this automatically.
+         * <p>A subfolder which hasn't been linked to its folder yet was added after the tree was last indexed, and
+         * adding it already invalidated the indexes, so it's enough for it to count its own modifications until then.</p>
+         */
+        void modified()
+        {
+            MODIFICATIONS.incrementAndGet(getRoot());
+        }
+
+        /**
+         * Returns the root of the tree this folder is in, as far as it's known
+         */
+        Folder getRoot()
+        {
+            Folder root = this;
+            while (root.parent != null)
+                root = root.parent;
+            return root;
+        }
+
+        long getModifications()
+        {
+            return modifications;
+        }
+
+        /**
+         * Makes sure the files and subfolders of this folder have been loaded. Folders loaded lazily from a filename
+         * table only read their entries once they are needed, so code which accesses <code>files</code> or
+         * <code>folders</code> directly needs to call this first.
+         */
+        protected void materialize()
+        {
+        }
+
+        boolean isMaterialized()
+        {
+            return true;
+        }
+
+        void setFirstId(int firstId)
+        {
+            this.firstId = firstId;
+            modified();
+        }
+
+        /**
+         * Returns the index of the paths of all files within this folder, building it if it doesn't exist or if any
+         * folder in its tree has been modified since it was built
+         * @return a <code>PathIndex</code>
+         */
+        PathIndex getPathIndex()
+        {
+            Folder root = getRoot();
+            long version = root.modifications;
+            PathIndex index = pathIndex;
+            if (index == null || index.getRoot() != root || index.getVersion() != version)
+            {
+                index = new PathIndex(this, root, version);
+                pathIndex = index;
+            }
+            return index;
+        }
+
         public ArrayList<String> getFiles()
         {
+            materialize();
             return files;
         }
 
         public HashMap<String, Folder> getFolders()
         {
+            materialize();
             return folders;
         }
 
@@ -93,47 +199,19 @@ public class Fnt
          */
         public int getIdOf(String name)
         {
-            Stream<String> pathStream = Arrays.stream(name.split("/")).filter(s -> !s.equals(""));
-            return findFilenameInFolder(pathStream.toArray(String[]::new), this);
+            return getIdOf((CharSequence) name);
         }
 
         /**
-         * Attempt to find filename in the given folder.
-         * @param requestedPath the path up through this point, as a <code>String[]</code>.
-         * @param searchFolder the <code>Folder</code> to search in
-         * @return the file ID of the requested file, or <int>-1</int> if not found
+         * Find the file ID for the given filename, or for the given file path (using "/" as the separator) relative to this folder.
+         * <p>Lookups use an index of all paths within this folder, which is built on first use and rebuilt after
+         * folders are modified, and don't allocate any memory.</p>
+         * @param name a <code>CharSequence</code> representing the path to the file
+         * @return an <code>int</code> representing the file ID of the specified file, or <code>-1</code> if not found
          */
-        private int findFilenameInFolder(String[] requestedPath, Folder searchFolder)
+        public int getIdOf(CharSequence name)
         {
-            String pathPart = requestedPath[0];
-            if (requestedPath.length == 1)
-            {
-                // it's hopefully a file in this folder
-                if (searchFolder.files.contains(pathPart))
-                {
-                    return searchFolder.firstId + searchFolder.files.indexOf(pathPart);
-                }
-                else
-                {
-                    //not here
-                    return -1;
-                }
-            }
-
-            // Hopefully we have the requested subfolder...
-            for (String subfolderName : searchFolder.folders.keySet())
-            {
-                if (subfolderName.equals(pathPart))
-                {
-                    Folder subfolder = searchFolder.folders.get(subfolderName);
-                    List<String> subPath = Arrays.stream(requestedPath).collect(Collectors.toList());
-                    subPath.remove(0);
-
-                    return findFilenameInFolder(subPath.toArray(new String[0]), subfolder);
-                }
-            }
-
-            return -1;
+            return getPathIndex().getIdOf(name);
         }
 
 
@@ -159,6 +237,7 @@ public class Fnt
         {
             String pathPart = requestedPath[0];
 
+            searchFolder.materialize();
             for (String subfolderName : searchFolder.folders.keySet())
             {
                 if (subfolderName.equals(pathPart))
@@ -190,56 +269,39 @@ public class Fnt
          */
         public String getFilenameOf(int id)
         {
-            String[] result = findIdInFolder(id, new String[0], this);
-
-            if (result != null)
-                return String.join("/", result);
-            else
-                return null;
+            return getPathIndex().getPathOf(id);
         }
 
         /**
-         * Attempt to find id in the given folder.
-         * @param id an <code>int</code> representing the id to look for
-         * @param pathSoFar the path up through this point, as a <code>String[]</code>.
-         * @param searchFolder the <code>Folder</code> to search in
-         * @return a <code>String[]</code> containing the path to the given file, or <code>null</code> if not found
+         * Returns the paths (separated by "/"s) of all files within this folder, indexed by file ID.
+         * @return a <code>String[]</code>, which contains <code>null</code> for file IDs that aren't within this folder
          */
-        private String[] findIdInFolder(int id, String[] pathSoFar, Folder searchFolder)
+        public String[] paths()
         {
+            return getPathIndex().getPaths();
+        }
 
-            // check if it's in this folder
-            int firstId = searchFolder.firstId;
-            if (firstId <= id && id < firstId + searchFolder.files.size())
-            {
-                // found it
-                String filename = searchFolder.files.get(id-firstId);
-                String[] currentPath = new String[pathSoFar.length + 1];
-                System.arraycopy(pathSoFar, 0, currentPath, 0, pathSoFar.length);
-                currentPath[currentPath.length-1] = filename;
-                return currentPath;
-            }
-
-            // check subfolders
-            for (String subfolderName : searchFolder.folders.keySet())
-            {
-                Folder subfolder = searchFolder.folders.get(subfolderName);
-                String[] currentPath = new String[pathSoFar.length + 1];
-                System.arraycopy(pathSoFar, 0, currentPath, 0, pathSoFar.length);
-                currentPath[currentPath.length-1] = subfolderName;
-                String[] result = findIdInFolder(id, currentPath, subfolder);
-
-                if (result != null)
-                {
-                    // found it in that folder
-                    return result;
-                }
-
-                // otherwise, continue checking other subfolders
-            }
+        /**
+         * Finds all files within this folder whose paths (relative to this folder) match the given glob pattern.
+         * @param pattern a <code>String</code> containing the pattern
+         * @return a <code>Stream</code> of the matching files, in order of increasing file ID
+         * @see Glob
+         */
+        public Stream<Entry> find(String pattern)
+        {
+            return find(Glob.compile(pattern));
+        }
 
-            // didn't find it
-            return null;
+        /**
+         * Finds all files within this folder whose paths (relative to this folder) match the given glob pattern.
+         * <p>The folders are searched when this is called, so the returned stream is backed by a list of the
+         * results, and splits evenly when it's processed in parallel.</p>
+         * @param glob a compiled <code>Glob</code>
+         * @return a <code>Stream</code> of the matching files, in order of increasing file ID
+         */
+        public Stream<Entry> find(Glob glob)
+        {
+            return glob.find(this).stream();
         }
 
         /**
@@ -255,6 +317,7 @@ public class Fnt
 
         private ArrayList<String> toStringListHelper(int indent)
         {
+            materialize();
             ArrayList<String> l = new ArrayList<>();
             StringBuilder sb = new StringBuilder(" ");
             while (sb.length() != indent + 1)
@@ -294,20 +357,54 @@ public class Fnt
             if(this == o) {
                 return true;
             }
-            if(o == null || getClass() != o.getClass()) {
+            if(!(o instanceof Folder)) {
                 return false;
             }
             Folder folder = (Folder) o;
+            materialize();
+            folder.materialize();
             return firstId == folder.firstId && folders.equals(folder.folders) && files.equals(folder.files) && Objects.equals(name, folder.name);
         }
 
         @Override
         public int hashCode()
         {
+            materialize();
             return Objects.hash(folders, files, firstId, name);
         }
     }
 
+    /**
+     * A file within a <code>Folder</code>: its file ID, and its path relative to that folder
+     */
+    public static class Entry
+    {
+        private final int id;
+        private final String path;
+
+        public Entry(int id, String path)
+        {
+            this.id = id;
+            this.path = path;
+        }
+
+        public int getId()
+        {
+            return id;
+        }
+
+        public String getPath()
+        {
+            return path;
+        }
+
+        @Override
+        public String toString()
+        {
+            return id + ": " + path;
+        }
+    }
+
     /**
      * Create a <code>Folder</code> from filename table data. This is the inverse of <code>save()</code>
      * @param fnt byte[] representation of the FNTB
@@ -315,9 +412,39 @@ public class Fnt
      */
     public static Folder load(byte[] fnt)
     {
+        return load(fnt, false);
+    }
+
+    /**
+     * Create a <code>Folder</code> from filename table data. This is the inverse of <code>save()</code>
+     * <p>If <code>lazy</code> is set, the filename table is kept as it is, and the entries of each folder are only read
+     * from it once that folder is first accessed. Looking up a path this way only reads the folders along the path.</p>
+     * @param fnt byte[] representation of the FNTB
+     * @param lazy whether folders should only be read once they're accessed
+     * @return a <code>Folder</code>
+     */
+    public static Folder load(byte[] fnt, boolean lazy)
+    {
+        if (lazy)
+            return new LazyFolder(fnt, 0xF000, "root", null);
         return loadFolder(fnt, 0xF000, "root"); // this is always root folder
     }
 
+    /**
+     * Create a <code>Folder</code> from filename table data, using a compact representation. This is the inverse of
+     * <code>save()</code>
+     * <p>Instead of creating objects for every folder, file and name, the structure of the filename table is stored
+     * in a few arrays which refer to the names inside of it (see <code>FntTable</code>). The returned
+     * <code>Folder</code>s are lightweight views of it, which only create the regular collections of a folder once
+     * they are accessed (for instance to modify the folder). Path and file ID lookups don't need those.</p>
+     * @param fnt byte[] representation of the FNTB
+     * @return a <code>Folder</code>
+     */
+    public static Folder loadCompact(byte[] fnt)
+    {
+        return CompactFolder.createRoot(new FntTable(fnt));
+    }
+
     /**
      * Load the folder with ID `folderId` and return it as a <code>Folder</code>.
      * @param fnt byte[] representation of the FNTB
@@ -326,189 +453,542 @@ public class Fnt
      */
     private static Folder loadFolder(byte[] fnt, int folderId, String name)
     {
-        MemBuf fntBuf = MemBuf.create();
-        fntBuf.writer().write(fnt);
-        MemBuf.MemBufReader reader = fntBuf.reader();
         Folder folder = new Folder(name);
+        folder.firstId = readFirstId(fnt, folderId);
+        readEntries(fnt, folderId, folder, false);
+        return folder;
+    }
 
-        long offset = 8 * (folderId & 0xFFF);
-        reader.setPosition(offset);
-        long entriesTableOffset = reader.readUInt32();
-        int fileId = reader.readUInt16();
+    private static int readFirstId(byte[] fnt, int folderId)
+    {
+        int offset = 8 * (folderId & 0xFFF);
+        return (fnt[offset + 4] & 0xFF) | (fnt[offset + 5] & 0xFF) << 8;
+    }
 
-        folder.firstId = fileId;
+    /**
+     * Read the entries table of the folder with ID `folderId` into the (empty) file and folder collections of the
+     * provided <code>Folder</code>.
+     * @param fnt byte[] representation of the FNTB
+     * @param folderId the ID of the folder to read the entries of
+     * @param folder the <code>Folder</code> to add the files and subfolders to
+     * @param lazy whether the subfolders should be loaded lazily
+     */
+    private static void readEntries(byte[] fnt, int folderId, Folder folder, boolean lazy)
+    {
+        // loading a folder doesn't count as a modification of it
+        TrackedList<String> files = (TrackedList<String>) folder.files;
+        TrackedMap<String, Folder> folders = (TrackedMap<String, Folder>) folder.folders;
 
-        reader.setPosition(entriesTableOffset);
+        int offset = 8 * (folderId & 0xFFF);
+        int position = (fnt[offset] & 0xFF) | (fnt[offset + 1] & 0xFF) << 8 | (fnt[offset + 2] & 0xFF) << 16 | (fnt[offset + 3] & 0xFF) << 24;
 
         int control;
         int length;
-        int isFolder;
-        int subFolderId;
+        String name;
         // Read file and folder entries from the entries table
         while(true)
         {
-            control = reader.readUInt8();
+            control = fnt[position++] & 0xFF;
             if (control == 0)
                 break;
 
             // That first byte is a control byte that includes the length
             // of the upcoming string and if this entry is a folder
             length = control & 0x7F;
-            isFolder = control & 0x80;
+            name = new String(fnt, position, length, StandardCharsets.ISO_8859_1);
+            position += length;
 
-            name = reader.readString(length);
-
-            if (isFolder == 0x80)
+            if ((control & 0x80) == 0x80)
             {
                 // There's an additional 2-byte value with the subfolder ID. Get that and load the folder
-                subFolderId = reader.readUInt16();
-                folder.folders.put(name, loadFolder(fnt, subFolderId, name));
+                int subFolderId = (fnt[position] & 0xFF) | (fnt[position + 1] & 0xFF) << 8;
+                position += 2;
+                Folder subfolder = lazy ? new LazyFolder(fnt, subFolderId, name, ((TableFolder) folder).getTableRoot()) : loadFolder(fnt, subFolderId, name);
+                subfolder.parent = folder;
+                folders.putUntracked(name, subfolder);
             }
             else
             {
-                folder.files.add(name);
+                files.addUntracked(name);
             }
         }
-
-        return folder;
     }
 
-    public interface FileProcessingData
+    /**
+     * A <code>Folder</code> which reads its files and subfolders from a filename table the first time they're needed
+     */
+    private abstract static class TableFolder extends Folder
     {
-        int getFileId();
-        int getParentFolderId();
-        MemBuf getFntEntry();
+        final byte[] fnt;
+        final int index;
+        private final TableFolder tableRoot; // the root folder of the filename table, or null for the root itself
+        volatile boolean materialized;
+
+        TableFolder(byte[] fnt, int index, String name, TableFolder tableRoot)
+        {
+            super(name, true);
+            this.fnt = fnt;
+            this.index = index;
+            this.tableRoot = tableRoot;
+        }
+
+        TableFolder getTableRoot()
+        {
+            return tableRoot == null ? this : tableRoot;
+        }
+
+        @Override
+        protected synchronized void materialize()
+        {
+            if (materialized)
+                return;
+
+            createCollections();
+            readEntries();
+            materialized = true;
+        }
+
+        @Override
+        boolean isMaterialized()
+        {
+            return materialized;
+        }
+
+        /**
+         * Fills in the (empty) file and folder collections of this folder
+         */
+        abstract void readEntries();
+
+        /**
+         * Checks whether no folder of the filename table's tree has been modified since it was loaded, in which case
+         * the table itself still describes this folder
+         */
+        boolean isUnmodified()
+        {
+            TableFolder root = getTableRoot();
+            return root.getRoot() == root && root.getModifications() == 0;
+        }
+
+        /**
+         * Descends along the given path, only reading the folders on it, so that looking up a path never reads any of
+         * the folders next to it. The rest of the path is only looked up in a path index once it reaches a folder
+         * which doesn't come from the filename table.
+         */
+        @Override
+        public int getIdOf(CharSequence name)
+        {
+            Folder folder = this;
+            int start = 0;
+            while (true)
+            {
+                if (folder instanceof CompactFolder && ((CompactFolder) folder).isUnmodified())
+                {
+                    CompactFolder compactFolder = (CompactFolder) folder;
+                    return compactFolder.table.getIdOf(compactFolder.index, name, start);
+                }
+                if (!(folder instanceof TableFolder))
+                    return folder.getPathIndex().getIdOf(start == 0 ? name : name.subSequence(start, name.length()));
+
+                while (start < name.length() && name.charAt(start) == '/')
+                    start++;
+                int end = start;
+                while (end < name.length() && name.charAt(end) != '/')
+                    end++;
+                int next = end;
+                while (next < name.length() && name.charAt(next) == '/')
+                    next++;
+
+                if (start == end)
+                    return -1;
+
+                folder.materialize();
+                String pathPart = name.subSequence(start, end).toString();
+                if (next == name.length())
+                {
+                    // it's hopefully a file in this folder
+                    int index = folder.files.indexOf(pathPart);
+                    return index == -1 ? -1 : folder.firstId + index;
+                }
+
+                folder = folder.folders.get(pathPart);
+                if (folder == null)
+                    return -1;
+                start = next;
+            }
+        }
     }
 
-    public static int nextFolderId;
+    /**
+     * A <code>TableFolder</code> which reads its entries straight from the filename table
+     */
+    private static class LazyFolder extends TableFolder
+    {
+        private LazyFolder(byte[] fnt, int folderId, String name, TableFolder tableRoot)
+        {
+            super(fnt, folderId & 0xFFF, name, tableRoot);
+            this.firstId = readFirstId(fnt, folderId);
+        }
+
+        @Override
+        void readEntries()
+        {
+            Fnt.readEntries(fnt, 0xF000 | index, this, true);
+        }
+    }
 
     /**
-     * Generates a MemBuf representing the root folder as a filename table. This is the inverse of <code>load()</code>
-     * @param root a Folder object for the root folder
-     * @return a MemBuf
+     * A <code>TableFolder</code> which is a view of a folder in an <code>FntTable</code>. As long as no folder has been
+     * modified, lookups are answered from the table without materializing any folders.
      */
-    public static MemBuf save(Folder root)
+    private static class CompactFolder extends TableFolder
     {
-        HashMap<Integer, FileProcessingData> folderEntries = new HashMap<>();
+        private final FntTable table;
+        private final CompactFolder[] views; // shared by all folders of the table, so each folder has a single view
 
-        // nextFolderId allows us to assign folder IDs in sequential order.
-        // The root folder always has ID 0xF000.
-        nextFolderId = 0xF000;
-        // The root folder's parent's ID is the total number of folders.
-        int rootParentId = countFoldersIn(root);
+        private CompactFolder(FntTable table, CompactFolder[] views, int index, String name)
+        {
+            super(table.fnt, index, name, views[0]);
+            this.table = table;
+            this.views = views;
+            this.firstId = table.folderFirstId[index];
+            views[index] = this;
+        }
 
-        // Ensure that the root folder has the proper folder ID.
-        int rootId = parseFolder(root, rootParentId, folderEntries);
-        assert (rootId == 0xF000);
+        private static CompactFolder createRoot(FntTable table)
+        {
+            return new CompactFolder(table, new CompactFolder[table.numFolders], 0, "root");
+        }
 
-        // in theory, (folderEntries.size() * 8) bytes are needed for the folders table at the beginning of the fnt
-        int fntLen = folderEntries.size() * 8;
-        MemBuf fntBuf = MemBuf.create();
-        MemBuf.MemBufWriter fntBufWriter = fntBuf.writer();
+        private CompactFolder getView(int folder)
+        {
+            synchronized (views)
+            {
+                CompactFolder view = views[folder];
+                if (view == null)
+                {
+                    view = new CompactFolder(table, views, folder, table.getFolderName(folder));
+                    view.parent = getView(table.folderParent[folder]);
+                }
+                return view;
+            }
+        }
 
-        // We need to iterate over the folders in order of increasing ID.
-        int storedPosition = folderEntries.size() * 8;
-        for (int currentFolderId : folderEntries.keySet().stream().sorted().collect(Collectors.toList()))
+        @Override
+        void readEntries()
         {
-            FileProcessingData data = folderEntries.get(currentFolderId);
+            // loading a folder doesn't count as a modification of it
+            for (int file = table.folderFileStart[index]; file < table.folderFileStart[index] + table.folderNumFiles[index]; file++)
+            {
+                ((TrackedList<String>) files).addUntracked(table.getFileName(file));
+            }
 
-            //Add the folder entries to the folder table
-            int offsetInFolderTable = 8 * (currentFolderId & 0xFFF);
-            fntBufWriter.setPosition(offsetInFolderTable);
-            fntBufWriter.writeInt(fntLen);
-            fntBufWriter.writeShort((short) data.getFileId());
-            fntBufWriter.writeShort((short) data.getParentFolderId());
+            for (int i = table.folderChildStart[index]; i < table.folderChildStart[index] + table.folderNumChildren[index]; i++)
+            {
+                int child = table.children[i];
+                ((TrackedMap<String, Folder>) folders).putUntracked(table.getFolderName(child), getView(child));
+            }
+        }
 
-            // And tack the folder's entries table onto the end of the file
-            fntBufWriter.setPosition(storedPosition);
-            fntBufWriter.write(data.getFntEntry().reader().getBuffer());
-            fntLen += data.getFntEntry().reader().getBuffer().length;
-            storedPosition = fntBufWriter.getPosition();
+        /**
+         * Checks whether this folder's entries haven't been read yet, in which case they can't have been modified and
+         * its entries table can be taken from the filename table
+         */
+        boolean isUnread()
+        {
+            return !materialized;
         }
 
-        return fntBuf;
+        /**
+         * Returns the subfolders of this folder in the order of its entries table, without reading its entries
+         */
+        int getNumFiles()
+        {
+            return table.folderNumFiles[index];
+        }
+
+        LinkedHashMap<String, Folder> getSubfolderViews()
+        {
+            LinkedHashMap<String, Folder> subfolders = new LinkedHashMap<>();
+            for (int i = table.folderChildStart[index]; i < table.folderChildStart[index] + table.folderNumChildren[index]; i++)
+            {
+                int child = table.children[i];
+                subfolders.put(table.getFolderName(child), getView(child));
+            }
+            return subfolders;
+        }
+
+        /**
+         * Copies this folder's entries table from the filename table, replacing the IDs of its subfolders
+         * @param writer the <code>MemBufWriter</code> to write to
+         * @param subfolderIds the new IDs of the subfolders, in the order of the entries table
+         */
+        void writeEntriesTable(MemBuf.MemBufWriter writer, int[] subfolderIds)
+        {
+            int position = table.folderEntriesOffset[index];
+            for (int i = 0; i < table.folderNumChildren[index]; i++)
+            {
+                int child = table.children[table.folderChildStart[index] + i];
+                int idPosition = table.folderNameOffset[child] + table.folderNameLength[child];
+                writer.write(fnt, position, idPosition - position);
+                writer.writeShort((short) subfolderIds[i]);
+                position = idPosition + 2;
+            }
+            writer.write(fnt, position, table.folderEntriesOffset[index] + table.folderEntriesLength[index] - position);
+        }
+
+        @Override
+        public String getFilenameOf(int id)
+        {
+            if (!isUnmodified())
+                return super.getFilenameOf(id);
+            if (id < 0 || id >= table.fileIndexById.length || table.fileIndexById[id] == -1)
+                return null;
+            return table.getPathOf(index, table.fileIndexById[id]);
+        }
+
+        @Override
+        public String[] paths()
+        {
+            if (!isUnmodified())
+                return super.paths();
+
+            // the file IDs of the folders within this one tell how long the array has to be, so each path is only
+            // built once
+            String[] paths = new String[getMaxId(index) + 1];
+            for (int id = 0; id < paths.length; id++)
+            {
+                if (table.fileIndexById[id] != -1)
+                    paths[id] = table.getPathOf(index, table.fileIndexById[id]);
+            }
+            return paths;
+        }
+
+        /**
+         * Returns the highest file ID within a folder of the table and its subfolders, or <code>-1</code> if they don't
+         * contain any files
+         */
+        private int getMaxId(int folder)
+        {
+            int maxId = table.folderNumFiles[folder] == 0 ? -1 : table.folderFirstId[folder] + table.folderNumFiles[folder] - 1;
+            for (int i = table.folderChildStart[folder]; i < table.folderChildStart[folder] + table.folderNumChildren[folder]; i++)
+            {
+                maxId = Math.max(maxId, getMaxId(table.children[i]));
+            }
+            return maxId;
+        }
+
+        @Override
+        public Folder getSubfolder(String path)
+        {
+            if (!isUnmodified())
+                return super.getSubfolder(path);
+
+            int subfolder = table.getSubfolder(index, path);
+            return subfolder == -1 ? null : getView(subfolder);
+        }
+    }
+
+    private static boolean isUnread(Folder folder)
+    {
+        return folder instanceof CompactFolder && ((CompactFolder) folder).isUnread();
     }
 
     /**
-     * Parse a Folder and add its entries to folderEntries.
+     * Returns the subfolders of a folder. The entries of a compactly loaded folder which haven't been read yet aren't
+     * read, and its subfolders are returned in the order of its entries table.
      * @param folder a <code>Folder</code>
-     * @param parentId an <code>int</code> containing the ID of the parent folder
-     * @param folderEntries a <code>HashMap</code> containing information needed to write the fnt entry for each Folder in the rom
-     * @return the ID number assigned to the parsed folder
+     * @return a <code>Map</code> of the names of the subfolders to the subfolders
      */
-    private static int parseFolder(Folder folder, int parentId, HashMap<Integer, FileProcessingData> folderEntries)
+    static Map<String, Folder> getSubfoldersOf(Folder folder)
     {
-        int folderId = nextFolderId;
-        nextFolderId += 1;
+        if (isUnread(folder))
+            return ((CompactFolder) folder).getSubfolderViews();
+        folder.materialize();
+        return folder.folders;
+    }
 
-        // Create an entries table and add filenames and folders to it
-        MemBuf entriesTable = MemBuf.create();
-        MemBuf.MemBufWriter entriesTableWriter = entriesTable.writer();
-        for (String file : folder.files)
+    /**
+     * Counts the files directly within a folder, without reading the entries of a compactly loaded folder
+     * @param folder a <code>Folder</code>
+     * @return an <code>int</code>
+     */
+    static int getNumFilesIn(Folder folder)
+    {
+        if (isUnread(folder))
+            return ((CompactFolder) folder).getNumFiles();
+        folder.materialize();
+        return folder.files.size();
+    }
+
+    /**
+     * Calculates the length of a filename table, which ends with the last of its entries tables
+     * @param fnt byte[] representation of the FNTB, which may be followed by padding
+     * @return an <code>int</code>
+     */
+    private static int calculateTableLength(byte[] fnt)
+    {
+        int numFolders = (fnt[6] & 0xFF) | (fnt[7] & 0xFF) << 8;
+        int length = numFolders * 8;
+        for (int folder = 0; folder < numFolders; folder++)
         {
-            if (file.length() > 127)
-                throw new RuntimeException("Filename \"" + file + "\" is " + file.length() + " characters long (maximum is 127)!");
-            entriesTableWriter.writeBytes(file.length());
-            entriesTableWriter.writeString(file);
+            int offset = 8 * folder;
+            int position = (fnt[offset] & 0xFF) | (fnt[offset + 1] & 0xFF) << 8 | (fnt[offset + 2] & 0xFF) << 16 | (fnt[offset + 3] & 0xFF) << 24;
+            int control;
+            while ((control = fnt[position++] & 0xFF) != 0)
+            {
+                position += (control & 0x7F) + ((control & 0x80) != 0 ? 2 : 0);
+            }
+            length = Math.max(length, position);
         }
+        return length;
+    }
 
-        for (String folderName : folder.folders.keySet())
+    /**
+     * Generates a MemBuf representing the root folder as a filename table. This is the inverse of <code>load()</code>
+     * <p>The size of the table is calculated beforehand, so it is written to a single buffer of exactly that size.
+     * All state is kept locally, so multiple tables can be generated concurrently. If the root folder was loaded
+     * lazily or compactly and no folders have been modified since, the filename table it was loaded from is copied
+     * instead. Otherwise, the entries tables of compactly loaded folders which were never read are still copied from
+     * it, so only the folders which changed are serialized again.</p>
+     * @param root a Folder object for the root folder
+     * @return a MemBuf
+     */
+    public static MemBuf save(Folder root)
+    {
+        // a filename table which was loaded without being modified afterwards can just be copied
+        if (root instanceof TableFolder && ((TableFolder) root).index == 0 && ((TableFolder) root).isUnmodified())
         {
-            Folder sub = folder.folders.get(folderName);
+            byte[] fnt = ((TableFolder) root).fnt;
+            int length = calculateTableLength(fnt);
+            MemBuf fntBuf = MemBuf.create(length);
+            fntBuf.writer().write(fnt, 0, length);
+            return fntBuf;
+        }
 
-            // First, parse the subfolder and get its ID, so we can save that to the entries table.
-            int otherId = parseFolder(sub, folderId, folderEntries);
+        // Folder IDs are assigned in preorder, starting with the root folder's ID of 0xF000.
+        ArrayList<Folder> folders = new ArrayList<>();
+        ArrayList<Integer> parentIndices = new ArrayList<>();
+        ArrayList<Integer> subtreeSizes = new ArrayList<>();
+        collectFolders(root, -1, folders, parentIndices, subtreeSizes);
 
-            if (folderName.length() > 127)
-                throw new RuntimeException("Folder name \"" + folderName + "\" is " + folderName.length() + " characters long (maximum is 127)!");
+        int numFolders = folders.size();
+        int fntLen = numFolders * 8;
+        for (Folder folder : folders)
+        {
+            fntLen += calculateEntriesTableSize(folder);
+        }
 
-            // Folder name is preceded by a 1-byte length value, OR'ed with 0x80 to mark it as a folder.
-            entriesTableWriter.writeBytes(folderName.length() | 0x80);
-            entriesTableWriter.writeString(folderName);
+        MemBuf fntBuf = MemBuf.create(fntLen);
+        MemBuf.MemBufWriter fntBufWriter = fntBuf.writer();
 
-            // And the ID of the subfolder goes after its name, as a 2-byte value
-            entriesTableWriter.writeShort((short) otherId);
+        // The folder table comes first. The root folder's parent's ID is the total number of folders.
+        int entriesTableOffset = numFolders * 8;
+        for (int i = 0; i < numFolders; i++)
+        {
+            Folder folder = folders.get(i);
+            int parentIndex = parentIndices.get(i);
+            fntBufWriter.writeInt(entriesTableOffset);
+            fntBufWriter.writeShort((short) folder.firstId);
+            fntBufWriter.writeShort((short) (parentIndex == -1 ? numFolders : 0xF000 + parentIndex));
+            entriesTableOffset += calculateEntriesTableSize(folder);
         }
 
-        // entries table needs to end with a null byte to mark its end
-        entriesTableWriter.writeBytes(0);
-        folderEntries.put(folderId, new FileProcessingData()
+        // And then the entries tables of all folders, in order of increasing ID
+        for (int i = 0; i < numFolders; i++)
         {
-            @Override
-            public int getFileId()
+            Folder folder = folders.get(i);
+            if (isUnread(folder))
             {
-                return folder.firstId;
+                // the entries of compactly loaded folders which haven't been read are copied, with new subfolder IDs
+                CompactFolder compactFolder = (CompactFolder) folder;
+                int[] subfolderIds = new int[compactFolder.table.folderNumChildren[compactFolder.index]];
+                int subfolderIndex = i + 1;
+                for (int j = 0; j < subfolderIds.length; j++)
+                {
+                    subfolderIds[j] = 0xF000 + subfolderIndex;
+                    subfolderIndex += subtreeSizes.get(subfolderIndex);
+                }
+                compactFolder.writeEntriesTable(fntBufWriter, subfolderIds);
+                continue;
             }
 
-            @Override
-            public int getParentFolderId()
+            for (String file : folder.files)
             {
-                return parentId;
+                fntBufWriter.writeByte((byte) file.length());
+                fntBufWriter.writeString(file);
             }
 
-            @Override
-            public MemBuf getFntEntry()
+            // the subfolders of this folder were numbered right after it, each followed by its own subfolders
+            int subfolderIndex = i + 1;
+            for (String folderName : folder.folders.keySet())
             {
-                return entriesTable;
+                // Folder name is preceded by a 1-byte length value, OR'ed with 0x80 to mark it as a folder.
+                fntBufWriter.writeByte((byte) (folderName.length() | 0x80));
+                fntBufWriter.writeString(folderName);
+
+                // And the ID of the subfolder goes after its name, as a 2-byte value
+                fntBufWriter.writeShort((short) (0xF000 + subfolderIndex));
+                subfolderIndex += subtreeSizes.get(subfolderIndex);
             }
-        });
 
-        return folderId;
+            // entries table needs to end with a null byte to mark its end
+            fntBufWriter.writeByte((byte) 0);
+        }
+
+        return fntBuf;
     }
 
     /**
-     * Counts the number of folders inside a given folder
-     * @param folder a Folder
-     * @return an int
+     * Adds a folder and all of its subfolders to the provided lists, in preorder
+     * @param folder a <code>Folder</code>
+     * @param parentIndex an <code>int</code> containing the index of the parent folder (or <code>-1</code> for the root)
+     * @param folders the list of folders
+     * @param parentIndices the list of the indices of the parent folders of the folders
+     * @param subtreeSizes the list of the number of folders in each folder, including itself
      */
-    private static int countFoldersIn(Folder folder)
+    private static void collectFolders(Folder folder, int parentIndex, ArrayList<Folder> folders, ArrayList<Integer> parentIndices, ArrayList<Integer> subtreeSizes)
     {
-        int folderCount = 0;
-        for (Folder f : folder.folders.values())
+        int index = folders.size();
+        folders.add(folder);
+        parentIndices.add(parentIndex);
+        subtreeSizes.add(0);
+
+        for (Folder sub : getSubfoldersOf(folder).values())
         {
-            folderCount += countFoldersIn(f);
+            collectFolders(sub, index, folders, parentIndices, subtreeSizes);
         }
-        return folderCount + 1;
+        subtreeSizes.set(index, folders.size() - index);
+    }
+
+    /**
+     * Calculates the size of the entries table of a folder
+     * @param folder a <code>Folder</code>
+     * @return an <code>int</code>
+     * @exception RuntimeException if a file or subfolder name is too long
+     */
+    private static int calculateEntriesTableSize(Folder folder)
+    {
+        if (isUnread(folder))
+        {
+            CompactFolder compactFolder = (CompactFolder) folder;
+            return compactFolder.table.folderEntriesLength[compactFolder.index];
+        }
+
+        int size = 1; // null byte which marks the end of the table
+        for (String file : folder.files)
+        {
+            if (file.length() > 127)
+                throw new RuntimeException("Filename \"" + file + "\" is " + file.length() + " characters long (maximum is 127)!");
+            size += 1 + file.length();
+        }
+
+        for (String folderName : folder.folders.keySet())
+        {
+            if (folderName.length() > 127)
+                throw new RuntimeException("Folder name \"" + folderName + "\" is " + folderName.length() + " characters long (maximum is 127)!");
+            size += 1 + folderName.length() + 2;
+        }
+        return size;
     }
 
     /**
@@ -519,6 +999,18 @@ public class Fnt
      * @throws IOException if the specified file's parent directory does not exist.
      */
     public static void writeFolderToDisk(File dir, Folder folder, ArrayList<byte[]> files) throws IOException
+    {
+        writeFolderToDisk(dir, folder, (List<byte[]>) files);
+    }
+
+    /**
+     * writes the ROM's internal filesystem to disk at the specified path
+     * @param dir a <code>File</code> representation of the write path
+     * @param folder the <code>Folder</code> object to write
+     * @param files a <code>List</code> of <code>byte[]</code>'s containing the file contents of the provided folder
+     * @throws IOException if the specified file's parent directory does not exist.
+     */
+    public static void writeFolderToDisk(File dir, Folder folder, List<byte[]> files) throws IOException
     {
         if (!dir.mkdir())
         {
@@ -545,47 +1037,177 @@ public class Fnt
      *              on disk
      * @return a <code>Folder</code>
      * @exception RuntimeException if the specified path on disk does not exist or is not a directory
+     * @see Fnt#loadFromDisk(File, List)
      */
     public static Folder loadFromDisk(File dir, ArrayList<byte[]> files)
+    {
+        return loadFromDisk(dir, (List<byte[]>) files);
+    }
+
+    /**
+     * Create a <code>Folder</code> from an unpacked filesystem on disk;
+     * This also grabs all the binary data for each file.
+     * <p>The files are given consecutive file IDs, starting at the lowest available one, with the files of each
+     * folder coming before those of its subfolders.</p>
+     * @param dir a <code>File</code> representing the path to the unpacked data dir on disk to process
+     * @param files a <code>List</code> of <code>byte[]</code>'s to fill with the contents of a directory
+     *              on disk
+     * @return a <code>Folder</code>
+     * @exception RuntimeException if the specified path on disk does not exist or is not a directory
+     */
+    public static Folder loadFromDisk(File dir, List<byte[]> files)
+    {
+        int firstId = findLowestAvailableFileId(files);
+        DiskFolder diskFolder = walkDisk(dir, firstId);
+        for (int i = 0; i < diskFolder.files.size(); i++)
+        {
+            if (firstId + i >= files.size())
+                throw new RuntimeException("No available file IDs to allocate.");
+            else if (files.get(firstId + i) != null)
+                throw new RuntimeException("File ID " + (firstId + i) + " is already in use.");
+            files.set(firstId + i, Buffer.readFile(diskFolder.files.get(i)));
+        }
+        return diskFolder.root;
+    }
+
+    /**
+     * An unpacked folder on disk: its structure as a <code>Folder</code>, and the paths of the files within it in
+     * order of file ID
+     */
+    static class DiskFolder
+    {
+        final Folder root;
+        final ArrayList<Path> files;
+
+        private DiskFolder(Folder root, ArrayList<Path> files)
+        {
+            this.root = root;
+            this.files = files;
+        }
+    }
+
+    /**
+     * Reads the structure of an unpacked folder on disk, without reading any files.
+     * <p>This is a single walk of the directory tree, which uses the attributes the walk provides rather than
+     * querying each file separately. Hidden files and folders (such as .DS_Store files) are skipped, and the entries
+     * of each folder are sorted by name.</p>
+     * @param dir a <code>File</code> representing the path to the unpacked dir on disk
+     * @param firstId an <code>int</code> containing the file ID to give to the first file
+     * @return a <code>DiskFolder</code>
+     * @exception RuntimeException if the specified path on disk does not exist or is not a directory, or can't be read
+     */
+    static DiskFolder walkDisk(File dir, int firstId)
     {
         if (!dir.exists())
             throw new RuntimeException("\"" + dir.getAbsolutePath() + "\" does not exist.");
         else if(!dir.isDirectory())
             throw new RuntimeException("\"" + dir.getAbsolutePath() + "\" is not a directory.");
-        return loadFolderFromDisk(dir, files); // this is always root folder
+
+        Path rootPath = dir.toPath();
+        ArrayDeque<DiskNode> stack = new ArrayDeque<>();
+        DiskNode[] root = new DiskNode[1];
+        try
+        {
+            Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attributes)
+                {
+                    DiskNode node = new DiskNode(path.getFileName() == null ? path.toString() : path.getFileName().toString());
+                    if (stack.isEmpty())
+                    {
+                        root[0] = node;
+                    }
+                    else if (isHidden(node.name, attributes))
+                    {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    else
+                    {
+                        stack.peek().folders.put(node.name, node);
+                    }
+                    stack.push(node);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attributes)
+                {
+                    String name = path.getFileName().toString();
+                    if (!isHidden(name, attributes))
+                        stack.peek().files.put(name, path);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path path, IOException exception) throws IOException
+                {
+                    if (exception != null)
+                        throw exception;
+                    stack.pop();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException("Failed to read \"" + dir.getAbsolutePath() + "\": " + e.getMessage(), e);
+        }
+
+        ArrayList<Path> files = new ArrayList<>();
+        Folder folder = root[0].toFolder(dir.getName(), firstId, files);
+        return new DiskFolder(folder, files);
+    }
+
+    // to make sure stray files like .DS_STORE thanks to macOS aren't grabbed
+    private static boolean isHidden(String name, BasicFileAttributes attributes)
+    {
+        return name.startsWith(".") || (attributes instanceof DosFileAttributes && ((DosFileAttributes) attributes).isHidden());
     }
 
     /**
-     * Loads a given folder from disk
-     * @param dir a <code>File</code> representing the path to an unpacked dir on disk to process
-     * @param files an <code>ArrayList</code> of <code>byte[]</code>'s to fill with the contents of a directory
-     *              on disk
-     * @return a <code>Folder</code>
+     * A folder found while walking a directory tree, with its entries sorted by name
      */
-    private static Folder loadFolderFromDisk(File dir, ArrayList<byte[]> files)
+    private static class DiskNode
     {
-        Folder folder = new Folder(dir.getName());
-        folder.firstId = findLowestAvailableFileId(files);
+        private final String name;
+        private final TreeMap<String, DiskNode> folders = new TreeMap<>();
+        private final TreeMap<String, Path> files = new TreeMap<>();
 
-        String name;
-        // Read file and folders entries from the entries table
-        for (File sub : Arrays.stream(Objects.requireNonNull(dir.listFiles())).filter(file -> !file.isHidden()).sorted().collect(Collectors.toList()))
+        private DiskNode(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Creates the <code>Folder</code> for this folder and its subfolders, giving its files consecutive file IDs
+         * followed by those of its subfolders, and adds the paths of all files to <code>paths</code> in that order
+         * @param baseId an <code>int</code> containing the file ID of the first file in <code>paths</code>
+         * @return a <code>Folder</code>
+         */
+        private Folder toFolder(String folderName, int baseId, ArrayList<Path> paths)
         {
-            name = sub.getName();
-            if (sub.isDirectory())
+            Folder folder = new Folder(folderName, false);
+            folder.firstId = baseId + paths.size();
+            for (Map.Entry<String, Path> entry : files.entrySet())
             {
-                folder.folders.put(name, loadFolderFromDisk(sub, files));
+                ((TrackedList<String>) folder.files).addUntracked(entry.getKey());
+                paths.add(entry.getValue());
             }
-            else if (!sub.isHidden()) // to make sure it doesn't grab stray files like .DS_STORE thanks to macOS
+
+            for (DiskNode node : folders.values())
             {
-                folder.files.add(name);
-                files.set(findLowestAvailableFileId(files), Buffer.readFile(sub.getAbsolutePath()));
+                ((TrackedMap<String, Folder>) folder.folders).putUntracked(node.name, node.toFolder(node.name, baseId, paths));
             }
+            return folder;
         }
-        return folder;
     }
 
     protected static int findLowestAvailableFileId(ArrayList<byte[]> files)
+    {
+        return findLowestAvailableFileId((List<byte[]>) files);
+    }
+
+    protected static int findLowestAvailableFileId(List<byte[]> files)
     {
         for (int i = 0; i < files.size(); i++)
         {
@@ -596,16 +1218,13 @@ public class Fnt
         throw new RuntimeException("No available file IDs to allocate.");
     }
 
+    /**
+     * Counts the files within an unpacked folder on disk, including those in its subfolders
+     * @param dir a <code>File</code> representing the path to the unpacked dir on disk
+     * @return an <code>int</code>
+     */
     protected static int calculateNumFiles(File dir)
     {
-        int fileCount = 0;
-        for (File f : Objects.requireNonNull(dir.listFiles()))
-        {
-            if (f.isDirectory())
-                fileCount += calculateNumFiles(f);
-            else if (!f.isHidden())  // to make sure it doesn't grab stray files like .DS_STORE thanks to macOS
-                fileCount += 1;
-        }
-        return fileCount;
+        return walkDisk(dir, 0).files.size();
     }
 }
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A compact, column-oriented representation of a filename table.
+ * <p>Names aren't copied out of the filename table, which serves as the (Latin-1) name pool; folders and files are
+ * described by parallel <code>int</code> arrays of offsets into it. Folders are indexed by their folder ID (minus
+ * <code>0xF000</code>), and files in the order their entries appear in the table.</p>
+ */
+class FntTable
+{
+    final byte[] fnt;
+    final int numFolders;
+
+    final int[] folderParent; // -1 for the root folder
+    final int[] folderFirstId;
+    final int[] folderNameOffset; // the name of a folder is stored in the entries table of its parent
+    final int[] folderNameLength;
+    final int[] folderFileStart;
+    final int[] folderNumFiles;
+    final int[] folderChildStart;
+    final int[] folderNumChildren;
+    final int[] children;
+    final int[] folderEntriesOffset;
+    final int[] folderEntriesLength; // including the null byte which ends the entries table
+
+    final int[] fileFolder;
+    final int[] fileNameOffset;
+    final int[] fileNameLength;
+    final int[] fileIndexById; // -1 for IDs which aren't in the table
+
+    /**
+     * Reads the structure of the given filename table
+     * @param fnt byte[] representation of the FNTB
+     */
+    FntTable(byte[] fnt)
+    {
+        this.fnt = fnt;
+
+        // the root folder's parent ID is the total number of folders
+        numFolders = readUInt16(6);
+        folderParent = new int[numFolders];
+        folderFirstId = new int[numFolders];
+        folderNameOffset = new int[numFolders];
+        folderNameLength = new int[numFolders];
+        folderFileStart = new int[numFolders];
+        folderNumFiles = new int[numFolders];
+        folderChildStart = new int[numFolders];
+        folderNumChildren = new int[numFolders];
+        children = new int[Math.max(numFolders - 1, 0)];
+        folderEntriesOffset = new int[numFolders];
+        folderEntriesLength = new int[numFolders];
+        folderParent[0] = -1;
+
+        // count the entries first, so that every column can be allocated with its exact size
+        int numFiles = 0;
+        for (int folder = 0; folder < numFolders; folder++)
+        {
+            int position = readInt(8 * folder);
+            folderEntriesOffset[folder] = position;
+            int control;
+            while ((control = fnt[position++] & 0xFF) != 0)
+            {
+                position += control & 0x7F;
+                if ((control & 0x80) != 0)
+                    position += 2;
+                else
+                    numFiles++;
+            }
+            folderEntriesLength[folder] = position - folderEntriesOffset[folder];
+        }
+
+        fileFolder = new int[numFiles];
+        fileNameOffset = new int[numFiles];
+        fileNameLength = new int[numFiles];
+
+        int fileIndex = 0;
+        int childIndex = 0;
+        int maxId = -1;
+        for (int folder = 0; folder < numFolders; folder++)
+        {
+            folderFirstId[folder] = readUInt16(8 * folder + 4);
+            folderFileStart[folder] = fileIndex;
+            folderChildStart[folder] = childIndex;
+
+            int position = readInt(8 * folder);
+            int control;
+            while ((control = fnt[position++] & 0xFF) != 0)
+            {
+                int length = control & 0x7F;
+                if ((control & 0x80) != 0)
+                {
+                    int child = readUInt16(position + length) & 0xFFF;
+                    folderParent[child] = folder;
+                    folderNameOffset[child] = position;
+                    folderNameLength[child] = length;
+                    children[childIndex++] = child;
+                    position += length + 2;
+                }
+                else
+                {
+                    fileFolder[fileIndex] = folder;
+                    fileNameOffset[fileIndex] = position;
+                    fileNameLength[fileIndex] = length;
+                    fileIndex++;
+                    position += length;
+                }
+            }
+
+            folderNumFiles[folder] = fileIndex - folderFileStart[folder];
+            folderNumChildren[folder] = childIndex - folderChildStart[folder];
+            if (folderNumFiles[folder] != 0)
+                maxId = Math.max(maxId, folderFirstId[folder] + folderNumFiles[folder] - 1);
+        }
+
+        fileIndexById = new int[maxId + 1];
+        Arrays.fill(fileIndexById, -1);
+        for (int file = 0; file < numFiles; file++)
+        {
+            int id = getFileId(file);
+            if (fileIndexById[id] == -1)
+                fileIndexById[id] = file;
+        }
+    }
+
+    private int readInt(int offset)
+    {
+        return (fnt[offset] & 0xFF) | (fnt[offset + 1] & 0xFF) << 8 | (fnt[offset + 2] & 0xFF) << 16 | (fnt[offset + 3] & 0xFF) << 24;
+    }
+
+    private int readUInt16(int offset)
+    {
+        return (fnt[offset] & 0xFF) | (fnt[offset + 1] & 0xFF) << 8;
+    }
+
+    int getFileId(int file)
+    {
+        int folder = fileFolder[file];
+        return folderFirstId[folder] + file - folderFileStart[folder];
+    }
+
+    String getFileName(int file)
+    {
+        return new String(fnt, fileNameOffset[file], fileNameLength[file], StandardCharsets.ISO_8859_1);
+    }
+
+    String getFolderName(int folder)
+    {
+        return new String(fnt, folderNameOffset[folder], folderNameLength[folder], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Finds the subfolder of a folder with the given name
+     * @return the index of the subfolder, or <code>-1</code> if not found
+     */
+    int findChild(int folder, CharSequence path, int start, int end)
+    {
+        for (int i = folderChildStart[folder]; i < folderChildStart[folder] + folderNumChildren[folder]; i++)
+        {
+            int child = children[i];
+            if (nameEquals(folderNameOffset[child], folderNameLength[child], path, start, end))
+                return child;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the first file in a folder with the given name
+     * @return the index of the file, or <code>-1</code> if not found
+     */
+    int findFile(int folder, CharSequence path, int start, int end)
+    {
+        for (int file = folderFileStart[folder]; file < folderFileStart[folder] + folderNumFiles[folder]; file++)
+        {
+            if (nameEquals(fileNameOffset[file], fileNameLength[file], path, start, end))
+                return file;
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int offset, int length, CharSequence path, int start, int end)
+    {
+        if (length != end - start)
+            return false;
+        for (int i = 0; i < length; i++)
+        {
+            if ((fnt[offset + i] & 0xFF) != path.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the file ID of the file at the given path (starting at <code>start</code>), relative to the given folder
+     * @return an <code>int</code> containing the file ID, or <code>-1</code> if not found
+     */
+    int getIdOf(int folder, CharSequence path, int start)
+    {
+        while (true)
+        {
+            while (start < path.length() && path.charAt(start) == '/')
+                start++;
+            int end = start;
+            while (end < path.length() && path.charAt(end) != '/')
+                end++;
+            int next = end;
+            while (next < path.length() && path.charAt(next) == '/')
+                next++;
+
+            if (start == end)
+                return -1;
+
+            if (next == path.length())
+            {
+                int file = findFile(folder, path, start, end);
+                return file == -1 ? -1 : getFileId(file);
+            }
+
+            folder = findChild(folder, path, start, end);
+            if (folder == -1)
+                return -1;
+            start = next;
+        }
+    }
+
+    /**
+     * Finds the subfolder at the given path, relative to the given folder
+     * @return the index of the subfolder, or <code>-1</code> if not found
+     */
+    int getSubfolder(int folder, CharSequence path)
+    {
+        int start = 0;
+        boolean found = false;
+        while (start < path.length())
+        {
+            if (path.charAt(start) == '/')
+            {
+                start++;
+                continue;
+            }
+            int end = start;
+            while (end < path.length() && path.charAt(end) != '/')
+                end++;
+
+            folder = findChild(folder, path, start, end);
+            if (folder == -1)
+                return -1;
+            found = true;
+            start = end;
+        }
+        return found ? folder : -1;
+    }
+
+    /**
+     * Builds the path of a file, relative to the given folder
+     * @return a <code>String</code>, or <code>null</code> if the file isn't within the given folder
+     */
+    String getPathOf(int folder, int file)
+    {
+        int length = fileNameLength[file];
+        int current = fileFolder[file];
+        while (current != folder)
+        {
+            if (current == 0)
+                return null;
+            length += folderNameLength[current] + 1;
+            current = folderParent[current];
+        }
+
+        char[] path = new char[length];
+        int position = length - fileNameLength[file];
+        copyName(fileNameOffset[file], fileNameLength[file], path, position);
+        current = fileFolder[file];
+        while (current != folder)
+        {
+            path[--position] = '/';
+            position -= folderNameLength[current];
+            copyName(folderNameOffset[current], folderNameLength[current], path, position);
+            current = folderParent[current];
+        }
+        return new String(path);
+    }
+
+    private void copyName(int offset, int length, char[] destination, int position)
+    {
+        for (int i = 0; i < length; i++)
+            destination[position + i] = (char) (fnt[offset + i] & 0xFF);
+    }
+}
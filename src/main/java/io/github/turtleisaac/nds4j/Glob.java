@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * A compiled glob pattern for file paths (using "/" as the separator), such as <code>a/0/1/*</code> or
+ * <code>**&#47;*.narc</code>.
+ * <p>Within a path segment, <code>*</code> matches any number of characters and <code>?</code> matches exactly one.
+ * A segment which is just <code>**</code> matches any number of folders (including none), or any file if it's the
+ * last segment. Leading, trailing and repeated separators are ignored, like everywhere else paths are used.</p>
+ * <p>When matched against a <code>Fnt.Folder</code>, only the subfolders which can still contain matching files are
+ * visited, and subfolders named by a segment without wildcards are looked up directly.</p>
+ */
+public class Glob
+{
+    private static final String ANY_FOLDERS = "**";
+
+    private final String pattern;
+    private final String[] segments;
+    private final boolean[] literal;
+
+    private Glob(String pattern)
+    {
+        this.pattern = pattern;
+        this.segments = Arrays.stream(pattern.split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+        if (segments.length == 0)
+            throw new RuntimeException("Glob pattern \"" + pattern + "\" is empty");
+
+        literal = new boolean[segments.length];
+        for (int i = 0; i < segments.length; i++)
+            literal[i] = segments[i].indexOf('*') == -1 && segments[i].indexOf('?') == -1;
+    }
+
+    /**
+     * Compiles a glob pattern
+     * @param pattern a <code>String</code> containing the pattern
+     * @return a <code>Glob</code>
+     * @exception RuntimeException if the pattern doesn't contain any segments
+     */
+    public static Glob compile(String pattern)
+    {
+        return new Glob(pattern);
+    }
+
+    /**
+     * Checks whether the given path matches this pattern
+     * @param path a <code>CharSequence</code> containing a path using "/" as the separator
+     * @return a <code>boolean</code>
+     */
+    public boolean matches(CharSequence path)
+    {
+        String[] parts = Arrays.stream(path.toString().split("/")).filter(s -> !s.isEmpty()).toArray(String[]::new);
+        if (parts.length == 0)
+            return false;
+
+        BitSet states = start();
+        for (int i = 0; i < parts.length - 1 && !states.isEmpty(); i++)
+            states = enterFolder(states, parts[i]);
+        return matchesFile(states, parts[parts.length - 1]);
+    }
+
+    /**
+     * Finds all files within the given folder (relative to it) which match this pattern
+     * @param folder a <code>Fnt.Folder</code>
+     * @return an <code>ArrayList</code> of the matching files, in order of increasing file ID
+     */
+    ArrayList<Fnt.Entry> find(Fnt.Folder folder)
+    {
+        ArrayList<Fnt.Entry> matches = new ArrayList<>();
+        find(folder, start(), new StringBuilder(), matches);
+        matches.sort(Comparator.comparingInt(Fnt.Entry::getId));
+        return matches;
+    }
+
+    private void find(Fnt.Folder folder, BitSet states, StringBuilder prefix, ArrayList<Fnt.Entry> matches)
+    {
+        folder.materialize();
+        int prefixLength = prefix.length();
+        for (int i = 0; i < folder.files.size(); i++)
+        {
+            String file = folder.files.get(i);
+            if (matchesFile(states, file))
+            {
+                prefix.append(file);
+                matches.add(new Fnt.Entry(folder.firstId + i, prefix.toString()));
+                prefix.setLength(prefixLength);
+            }
+        }
+
+        // when the only way forward is a folder without wildcards, there is no need to look at the other ones
+        int state = states.nextSetBit(0);
+        if (states.cardinality() == 1 && state < segments.length - 1 && literal[state])
+        {
+            Fnt.Folder subfolder = folder.folders.get(segments[state]);
+            if (subfolder != null)
+            {
+                prefix.append(segments[state]).append('/');
+                find(subfolder, enterFolder(states, segments[state]), prefix, matches);
+                prefix.setLength(prefixLength);
+            }
+            return;
+        }
+
+        for (Map.Entry<String, Fnt.Folder> entry : folder.folders.entrySet())
+        {
+            BitSet next = enterFolder(states, entry.getKey());
+            if (next.isEmpty())
+                continue;
+            prefix.append(entry.getKey()).append('/');
+            find(entry.getValue(), next, prefix, matches);
+            prefix.setLength(prefixLength);
+        }
+    }
+
+    /*
+     * Matching is done segment by segment. The state is the set of positions in the pattern which the path so far can
+     * have reached, where a "**" segment can both be skipped and consume any number of folders.
+     */
+
+    private BitSet start()
+    {
+        BitSet states = new BitSet(segments.length + 1);
+        states.set(0);
+        return skipAnyFolders(states);
+    }
+
+    private BitSet skipAnyFolders(BitSet states)
+    {
+        for (int i = states.nextSetBit(0); i >= 0 && i < segments.length; i = states.nextSetBit(i + 1))
+        {
+            if (segments[i].equals(ANY_FOLDERS))
+                states.set(i + 1);
+        }
+        return states;
+    }
+
+    private BitSet enterFolder(BitSet states, String folderName)
+    {
+        BitSet next = new BitSet(segments.length + 1);
+        for (int i = states.nextSetBit(0); i >= 0 && i < segments.length; i = states.nextSetBit(i + 1))
+        {
+            if (segments[i].equals(ANY_FOLDERS))
+                next.set(i);
+            else if (i < segments.length - 1 && matchesSegment(segments[i], folderName))
+                next.set(i + 1);
+        }
+        return skipAnyFolders(next);
+    }
+
+    private boolean matchesFile(BitSet states, String fileName)
+    {
+        int last = segments.length - 1;
+        if (!states.get(last))
+            return false;
+        return segments[last].equals(ANY_FOLDERS) || matchesSegment(segments[last], fileName);
+    }
+
+    /**
+     * Matches a single path segment against a segment of the pattern, backtracking to the most recent <code>*</code>
+     * when the rest doesn't match
+     */
+    private static boolean matchesSegment(String pattern, String name)
+    {
+        int p = 0;
+        int n = 0;
+        int star = -1;
+        int starMatch = 0;
+        while (n < name.length())
+        {
+            if (p < pattern.length() && (pattern.charAt(p) == '?' || pattern.charAt(p) == name.charAt(n)))
+            {
+                p++;
+                n++;
+            }
+            else if (p < pattern.length() && pattern.charAt(p) == '*')
+            {
+                star = p++;
+                starMatch = n;
+            }
+            else if (star != -1)
+            {
+                p = star + 1;
+                n = ++starMatch;
+            }
+            else
+            {
+                return false;
+            }
+        }
+
+        while (p < pattern.length() && pattern.charAt(p) == '*')
+            p++;
+        return p == pattern.length();
+    }
+
+    @Override
+    public String toString()
+    {
+        return pattern;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.framework.MemBuf;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.RandomAccess;
+
+/**
+ * The file contents of a ROM which is mapped into memory.
+ * <p>Each file is only copied out of the mapping the first time it's read, after which the same <code>byte[]</code> is
+ * returned every time, just like with a list of arrays. Files which are replaced or added are kept as they are.</p>
+ */
+class MappedFileList extends AbstractList<byte[]> implements RandomAccess
+{
+    private final MemBuf rom;
+    private final ArrayList<Object> elements; // a byte[], or a Slice of the ROM which may not have been read yet
+
+    MappedFileList(MemBuf rom, int[] starts, int[] ends)
+    {
+        this.rom = rom;
+        elements = new ArrayList<>(starts.length);
+        for (int i = 0; i < starts.length; i++)
+            elements.add(new Slice(starts[i], ends[i]));
+    }
+
+    /**
+     * Returns an object which stands for the current contents of an element without reading them. The same object is
+     * returned until the element is replaced.
+     * @param index an <code>int</code> containing the index of the element
+     * @return an <code>Object</code>
+     */
+    Object getSource(int index)
+    {
+        return elements.get(index);
+    }
+
+    /**
+     * Returns the length of an element without reading it
+     * @param index an <code>int</code> containing the index of the element
+     * @return an <code>int</code>, which is <code>0</code> if the element is <code>null</code>
+     */
+    int getLength(int index)
+    {
+        Object element = elements.get(index);
+        if (element instanceof Slice)
+            return ((Slice) element).end - ((Slice) element).start;
+        return element == null ? 0 : ((byte[]) element).length;
+    }
+
+    /**
+     * Checks whether an element has been copied out of the mapped ROM (or was never in it)
+     * @param index an <code>int</code> containing the index of the element
+     * @return a <code>boolean</code>
+     */
+    boolean isRead(int index)
+    {
+        Object element = elements.get(index);
+        return !(element instanceof Slice) || ((Slice) element).data != null;
+    }
+
+    private byte[] contentsOf(Object element)
+    {
+        return element instanceof Slice ? ((Slice) element).read() : (byte[]) element;
+    }
+
+    @Override
+    public int size()
+    {
+        return elements.size();
+    }
+
+    @Override
+    public byte[] get(int index)
+    {
+        return contentsOf(elements.get(index));
+    }
+
+    @Override
+    public byte[] set(int index, byte[] element)
+    {
+        return contentsOf(elements.set(index, element));
+    }
+
+    @Override
+    public void add(int index, byte[] element)
+    {
+        elements.add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public byte[] remove(int index)
+    {
+        byte[] ret = contentsOf(elements.remove(index));
+        modCount++;
+        return ret;
+    }
+
+    @Override
+    public void clear()
+    {
+        elements.clear();
+        modCount++;
+    }
+
+    private class Slice
+    {
+        private final int start;
+        private final int end;
+        private volatile byte[] data;
+
+        private Slice(int start, int end)
+        {
+            this.start = start;
+            this.end = end;
+        }
+
+        private synchronized byte[] read()
+        {
+            if (data == null)
+            {
+                // every read gets its own reader, so that files can be read from different threads at once
+                MemBuf.MemBufReader reader = rom.newReader();
+                reader.setPosition(start);
+                data = reader.readTo(end);
+            }
+            return data;
+        }
+    }
+}
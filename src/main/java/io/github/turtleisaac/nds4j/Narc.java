@@ -23,10 +23,18 @@ import io.github.turtleisaac.nds4j.framework.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 // smell ya later Narctowl
 
@@ -40,13 +48,29 @@ public class Narc extends GenericNtrFile
     public static final int FNTB_HEADER_SIZE = 8;
 
     Fnt.Folder filenames; // represents the root folder of the filesystem
-    ArrayList<byte[]> files;
+    List<byte[]> files;
+
+    // content hashes of the subfiles, keyed by the identity of their arrays, and the hash of all of them combined
+    private IdentityHashMap<byte[], Integer> fileHashes = new IdentityHashMap<>();
+    private int filesHash;
+    private boolean filesHashValid;
+
+    /**
+     * The default maximum number of bytes of decompressed subfile contents kept in memory
+     */
+    public static final long DEFAULT_DECOMPRESSION_CACHE_SIZE = 16 * 1024 * 1024;
+
+    // decompressed contents of subfiles, keyed by index and ordered from least to most recently used
+    private final LinkedHashMap<Integer, DecompressedFile> decompressedFiles = new LinkedHashMap<>(16, 0.75f, true);
+    private long decompressionCacheSize = DEFAULT_DECOMPRESSION_CACHE_SIZE;
+    private long decompressedBytes;
+    private int numModifiedDecompressed;
 
     public Narc()
     {
         super("NARC");
         filenames = new Fnt.Folder();
-        files = new ArrayList<>();
+        files = new TrackedList<>(this::invalidateFilesHash);
         endiannessOfBeginning = Endianness.EndiannessType.LITTLE;
     }
 
@@ -59,9 +83,7 @@ public class Narc extends GenericNtrFile
         super("NARC");
         filenames = new Fnt.Folder();
 
-        MemBuf buf = MemBuf.create();
-        buf.writer().write(data);
-        MemBuf.MemBufReader reader = buf.reader();
+        MemBuf.MemBufReader reader = MemBuf.wrap(data).reader();
 
         readGenericNtrHeader(reader);
 
@@ -69,7 +91,7 @@ public class Narc extends GenericNtrFile
             throw new RuntimeException("Unsupported NARC version: " + version);
 
         // Read the file allocation block (current position is now 0x10)
-        String fatbMagic = reader.readString(4);
+        String fatbMagic = readBlockMagic(reader);
         long fatbSize = reader.readUInt32();
         long numFiles = reader.readUInt32();
 
@@ -82,7 +104,7 @@ public class Narc extends GenericNtrFile
         // read the file name block
         long fntbOffset = NTR_HEADER_SIZE + fatbSize;
         reader.setPosition(fntbOffset);
-        String fntbMagic = reader.readString(4);
+        String fntbMagic = readBlockMagic(reader);
         long fntbSize = reader.readUInt32();
 
         if (!fntbMagic.equals("BTNF")) {
@@ -92,7 +114,7 @@ public class Narc extends GenericNtrFile
         // get the data from the file data block before continuing
         long fimgOffset = fntbOffset + fntbSize;
         reader.setPosition(fimgOffset);
-        String fimgMagic = reader.readString(4);
+        String fimgMagic = readBlockMagic(reader);
         long fimgSize = reader.readUInt32();
 
         if (!fimgMagic.equals("GMIF")) {
@@ -100,7 +122,7 @@ public class Narc extends GenericNtrFile
         }
 
         int rawDataOffset = reader.getPosition(); // fimgOffset + 8
-        files = new ArrayList<>();
+        files = new TrackedList<>(this::invalidateFilesHash);
 
         // read the files' contents
         long startOffset;
@@ -119,6 +141,25 @@ public class Narc extends GenericNtrFile
         filenames = Fnt.load(reader.readBytes((int) fntbSize));
     }
 
+    /**
+     * Create a NARC from its data, using a member table which was already read from it (see <code>RomIndex</code>).
+     * @param data a <code>byte[]</code> representation of a <code>Narc</code>
+     * @param table the member table of the <code>Narc</code>
+     */
+    Narc(byte[] data, RomIndex.NarcTable table)
+    {
+        super("NARC");
+        readGenericNtrHeader(MemBuf.wrap(data).reader());
+
+        files = new TrackedList<>(this::invalidateFilesHash);
+        for (int i = 0; i < table.starts.length; i++)
+        {
+            files.add(Arrays.copyOfRange(data, table.starts[i], table.ends[i]));
+        }
+
+        filenames = table.getFilenames();
+    }
+
     /**
      * Load a NARC archive from a filesystem file
      * @param file a <code>String</code> containing the path to a NARC file on disk
@@ -165,18 +206,15 @@ public class Narc extends GenericNtrFile
      */
     public static Narc fromUnpacked(File dir, boolean removeFilenames, Endianness.EndiannessType endiannessOfBeginning)
     {
-        Fnt.Folder root;
-        ArrayList<byte[]> files = new ArrayList<>();
-
-        int numFiles = Fnt.calculateNumFiles(dir);
-        for (int i = 0; i < numFiles; i++)
+        Fnt.DiskFolder diskFolder = Fnt.walkDisk(dir, 0);
+        Fnt.Folder root = diskFolder.root;
+        ArrayList<byte[]> files = new ArrayList<>(diskFolder.files.size());
+        for (Path path : diskFolder.files)
         {
-            files.add(null);
+            files.add(Buffer.readFile(path));
         }
 
-        root = Fnt.loadFromDisk(dir, files);
-
-        if (Objects.requireNonNull(dir.listFiles(File::isDirectory)).length == 0 && removeFilenames)
+        if (root.folders.isEmpty() && removeFilenames)
         {
             root = new Fnt.Folder("root");
         }
@@ -202,9 +240,9 @@ public class Narc extends GenericNtrFile
             narc.endiannessOfBeginning = Endianness.EndiannessType.LITTLE;
 
         if (files != null)
-            narc.files = new ArrayList<>(files);
+            narc.files = new TrackedList<>(narc::invalidateFilesHash, files);
         else
-            narc.files = new ArrayList<>();
+            narc.files = new TrackedList<>(narc::invalidateFilesHash);
 
         if (filenames != null)
             narc.filenames = filenames;
@@ -246,6 +284,7 @@ public class Narc extends GenericNtrFile
         if (!dir.mkdir())
             throw new RuntimeException("Failed to create output directory, check write permissions.");
 
+        flushDecompressedFiles();
         for (int i = 0; i < files.size(); i++)
         {
             BinaryWriter.writeFile(Paths.get(dir.getAbsolutePath(), StringFormatter.formatOutputString(i, files.size(), "", "")), files.get(i));
@@ -258,59 +297,111 @@ public class Narc extends GenericNtrFile
      */
     public byte[] save()
     {
-        // Prepare the filedata and file allocation table block
-        MemBuf fimgBuf = MemBuf.create();
-        MemBuf.MemBufWriter fimgWriter = fimgBuf.writer();
+        return save(false);
+    }
 
+    /**
+     * Generate a <code>byte[]</code> representing this NARC.
+     * <p>If <code>deduplicate</code> is set, subfiles with identical contents are only stored once in the FIMG block,
+     * and all of their FATB entries point at that single copy. Loading such a NARC still gives each subfile its own
+     * <code>byte[]</code>, so modifying one of them doesn't affect the others.</p>
+     * @param deduplicate whether subfiles with identical contents should share their data
+     * @return a <code>byte[]</code>
+     */
+    public byte[] save(boolean deduplicate)
+    {
+        flushDecompressedFiles();
 
-        MemBuf fatbBuf = MemBuf.create();
-        MemBuf.MemBufWriter fatbWriter = fatbBuf.writer();
-        fatbWriter.writeString("BTAF");
-        fatbWriter.writeInt(FATB_HEADER_SIZE + 8 * files.size());
-        fatbWriter.writeInt(files.size());
+        // the scratch buffers are reused by later saves on this thread
+        try (MemBufArena arena = MemBufArena.open())
+        {
+            // Prepare the filedata and file allocation table block
+            MemBuf fimgBuf = arena.allocate();
+            MemBuf.MemBufWriter fimgWriter = fimgBuf.writer();
 
-        // Write data into the FIMG and FAT blocks
-        long startOffset;
-        long endOffset;
-        for(byte[] data : files) {
-            startOffset = fimgWriter.getPosition();
-            fimgWriter.write(data);
-            endOffset = fimgWriter.getPosition();
-            fatbWriter.writeUInt32(startOffset).writeUInt32(endOffset);
-            fimgWriter.align(4);
-        }
 
-        byte[] fimg = fimgBuf.reader().getBuffer();
-        fimgBuf = MemBuf.create();
-        fimgWriter = fimgBuf.writer();
-        fimgWriter.writeString("GMIF");
-        fimgWriter.writeUInt32(fimg.length + FIMG_HEADER_SIZE);
-        fimgWriter.write(fimg);
+            MemBuf fatbBuf = arena.allocate(FATB_HEADER_SIZE + 8 * files.size());
+            MemBuf.MemBufWriter fatbWriter = fatbBuf.writer();
+            fatbWriter.writeString("BTAF");
+            fatbWriter.writeInt(FATB_HEADER_SIZE + 8 * files.size());
+            fatbWriter.writeInt(files.size());
+
+            // subfiles which have already been written, grouped by their content hash
+            HashMap<Integer, ArrayList<Integer>> written = null;
+            if (deduplicate)
+            {
+                getFilesHash();
+                written = new HashMap<>();
+            }
+
+            // Write data into the FIMG and FAT blocks
+            long[] startOffsets = new long[files.size()];
+            long[] endOffsets = new long[files.size()];
+            for (int i = 0; i < files.size(); i++)
+            {
+                byte[] data = files.get(i);
+                int copyOf = -1;
+                if (deduplicate)
+                {
+                    ArrayList<Integer> candidates = written.computeIfAbsent(hashOf(data), hash -> new ArrayList<>());
+                    for (int candidate : candidates)
+                    {
+                        if (Arrays.equals(files.get(candidate), data))
+                        {
+                            copyOf = candidate;
+                            break;
+                        }
+                    }
+                    if (copyOf == -1)
+                        candidates.add(i);
+                }
+
+                if (copyOf != -1)
+                {
+                    startOffsets[i] = startOffsets[copyOf];
+                    endOffsets[i] = endOffsets[copyOf];
+                }
+                else
+                {
+                    startOffsets[i] = fimgWriter.getPosition();
+                    fimgWriter.write(data);
+                    endOffsets[i] = fimgWriter.getPosition();
+                    fimgWriter.align(4);
+                }
+                fatbWriter.writeUInt32(startOffsets[i]).writeUInt32(endOffsets[i]);
+            }
+
+            int fimgLength = fimgWriter.getPosition();
+
+            // Assemble the filename table block
+            MemBuf nameTable = Fnt.save(filenames);
+            int nameTableLength = nameTable.writer().getPosition();
+            int nameTablePadding = 4 - nameTableLength % 4;
 
-        // Assemble the filename table block
-        MemBuf nameTable = Fnt.save(filenames);
-        nameTable.writer().align(4, (byte) 0xFF);
-        MemBuf fntbBuf = MemBuf.create();
-        fntbBuf.writer().writeString("BTNF");
-        fntbBuf.writer().writeUInt32(nameTable.reader().getBuffer().length + FNTB_HEADER_SIZE);
-        fntbBuf.writer().write(nameTable.reader().getBuffer());
+            // Put everything together and return.
+            MemBuf narcBuf = arena.allocate(NTR_HEADER_SIZE + fatbWriter.getPosition() + FNTB_HEADER_SIZE + nameTableLength + nameTablePadding + FIMG_HEADER_SIZE + fimgLength);
+            MemBuf.MemBufWriter narcWriter = narcBuf.writer();
 
-        // Put everything together and return.
-        MemBuf narcBuf = MemBuf.create();
-        MemBuf.MemBufWriter narcWriter = narcBuf.writer();
+            narcWriter.skip(NTR_HEADER_SIZE);
+            narcWriter.write(fatbBuf);
 
-        narcWriter.skip(NTR_HEADER_SIZE);
-        narcWriter.write(fatbBuf.reader().getBuffer());
-        narcWriter.write(fntbBuf.reader().getBuffer());
-        narcWriter.write(fimgBuf.reader().getBuffer());
+            narcWriter.writeString("BTNF");
+            narcWriter.writeUInt32(nameTableLength + nameTablePadding + FNTB_HEADER_SIZE);
+            narcWriter.write(nameTable);
+            narcWriter.writeByteNumTimes((byte) 0xFF, nameTablePadding);
 
-        int narcLength = narcWriter.getPosition();
+            narcWriter.writeString("GMIF");
+            narcWriter.writeUInt32(fimgLength + FIMG_HEADER_SIZE);
+            narcWriter.write(fimgBuf);
 
-        narcWriter.setPosition(0);
-        writeGenericNtrHeader(narcWriter, narcLength, 3);
+            int narcLength = narcWriter.getPosition();
 
-        narcWriter.setPosition(narcLength);
-        return narcBuf.reader().getBuffer();
+            narcWriter.setPosition(0);
+            writeGenericNtrHeader(narcWriter, narcLength, 3);
+
+            narcWriter.setPosition(narcLength);
+            return narcBuf.reader().getBuffer();
+        }
     }
 
 
@@ -336,7 +427,7 @@ public class Narc extends GenericNtrFile
         {
             throw new RuntimeException("\"" + file.getAbsolutePath() + "\" is a directory. Save failed.");
         }
-        BinaryWriter.writeFile(file, save());
+        BinaryWriter.writeFileAtomically(file, save());
     }
 
     /**
@@ -352,7 +443,7 @@ public class Narc extends GenericNtrFile
         {
             throw new RuntimeException("Couldn't find file ID of \"" + filename + "\".");
         }
-        return files.get(fid);
+        return getFile(fid);
     }
 
     /**
@@ -368,44 +459,281 @@ public class Narc extends GenericNtrFile
         {
             throw new RuntimeException("Couldn't find file ID of \"" + filename + "\".");
         }
-        files.set(fid, data);
+        setFile(fid, data);
     }
 
+    /**
+     * Returns the subfiles of this <code>Narc</code>.
+     * <p>If the subfiles are kept in a <code>PayloadStore</code>, this is a copy of them, and changes made to it have no
+     * effect on this <code>Narc</code>; use <code>getFileList()</code> for a list which can always be modified.</p>
+     * @return an <code>ArrayList</code> of <code>byte[]</code>'s representing all the subfiles in the NARC
+     */
     public ArrayList<byte[]> getFiles()
     {
+        flushDecompressedFiles();
+        return files instanceof ArrayList ? (ArrayList<byte[]>) files : new ArrayList<>(files);
+    }
+
+    /**
+     * Returns the subfiles of this <code>Narc</code> as a list which modifies them directly, whether or not they are
+     * kept in a <code>PayloadStore</code>
+     * @return a <code>List</code> of <code>byte[]</code>'s representing all the subfiles in the NARC
+     */
+    public List<byte[]> getFileList()
+    {
+        flushDecompressedFiles();
         return files;
     }
 
+    /**
+     * Replaces the subfiles of this <code>Narc</code> with (a copy of) the provided list
+     * @param files an <code>ArrayList</code> of <code>byte[]</code>'s representing all the subfiles in the NARC
+     */
     public void setFiles(ArrayList<byte[]> files)
     {
-        this.files = files;
+        flushDecompressedFiles();
+        if (this.files instanceof PayloadList)
+        {
+            PayloadList old = (PayloadList) this.files;
+            this.files = new PayloadList(old.getStore(), this::invalidateFilesHash, files);
+            old.release();
+        }
+        else
+            this.files = new TrackedList<>(this::invalidateFilesHash, files);
+        invalidateFilesHash();
+    }
+
+    /**
+     * Moves the contents of all subfiles of this <code>Narc</code> into the given store, outside of the Java heap, or
+     * back onto the heap if it is <code>null</code>.
+     * <p>While the subfiles are in a store, every <code>byte[]</code> returned for one of them is a new copy, so
+     * changes made to it have to be saved with <code>setFile()</code>. The store isn't closed by this
+     * <code>Narc</code>, and can be shared with other <code>Narc</code>s and ROMs.</p>
+     * @param store a <code>PayloadStore</code>, or <code>null</code>
+     */
+    public void setPayloadStore(PayloadStore store)
+    {
+        if (store == getPayloadStore())
+            return;
+
+        flushDecompressedFiles();
+        List<byte[]> old = files;
+        if (store == null)
+            files = new TrackedList<>(this::invalidateFilesHash, old);
+        else
+            files = new PayloadList(store, this::invalidateFilesHash, old);
+        if (old instanceof PayloadList)
+            ((PayloadList) old).release();
+        invalidateHashes();
+    }
+
+    /**
+     * Returns the store the contents of this <code>Narc</code>'s subfiles are kept in
+     * @return a <code>PayloadStore</code>, or <code>null</code> if they are on the heap
+     */
+    public PayloadStore getPayloadStore()
+    {
+        return files instanceof PayloadList ? ((PayloadList) files).getStore() : null;
+    }
+
+    /**
+     * Starts a batch of changes to the filesystem of this <code>Narc</code>, such as renaming, moving, adding and
+     * removing files and folders. Nothing is changed until the batch is committed, at which point the indices of all
+     * subfiles are reassigned at once and the subfiles are reordered to match.
+     * @return a <code>FilesystemBatch</code>
+     */
+    public FilesystemBatch editFilesystem()
+    {
+        flushDecompressedFiles();
+        return new FilesystemBatch(filenames, files, (remap, newFiles) -> setFiles(newFiles));
     }
 
     public byte[] getFile(int index)
     {
+        flushDecompressedFiles();
         return files.get(index);
     }
 
+    /**
+     * Returns an object which stands for the current contents of the subfile at the given index, without copying them
+     * out of a <code>PayloadStore</code>. The same object is returned until the subfile is replaced.
+     * @param index an <code>int</code> containing the index of the subfile
+     * @return an <code>Object</code>
+     */
+    Object getFileSource(int index)
+    {
+        flushDecompressedFiles();
+        return getStoredFile(index);
+    }
+
+    private Object getStoredFile(int index)
+    {
+        return files instanceof PayloadList ? ((PayloadList) files).getPayload(index) : files.get(index);
+    }
+
     public void setFile(int index, byte[] file)
     {
+        flushDecompressedFiles();
         files.set(index, file);
     }
 
     public void addFile(byte[] file)
     {
+        flushDecompressedFiles();
         files.add(file);
     }
 
     public void removeFile(byte[] file)
     {
+        flushDecompressedFiles();
         files.remove(file);
     }
 
     public void removeFile(int index)
     {
+        flushDecompressedFiles();
         files.remove(index);
     }
 
+    /**
+     * Returns the format the subfile at the given index is compressed with
+     * @param index an <code>int</code> containing the index of the subfile
+     * @return a <code>Compression.Codec</code>, which is <code>NONE</code> if the subfile isn't compressed
+     */
+    public Compression.Codec getCodec(int index)
+    {
+        return getDecompressedFileEntry(index).codec;
+    }
+
+    /**
+     * Returns the decompressed contents of the subfile at the given index, or its contents as they are if it isn't
+     * compressed.
+     * <p>Decompressed contents are cached (up to the size set with <code>setDecompressionCacheSize()</code>), so
+     * repeated calls return the same <code>byte[]</code> without decompressing the subfile again. If changes are
+     * made to it, pass it to <code>setDecompressedFile()</code> so they get written back to the subfile.</p>
+     * @param index an <code>int</code> containing the index of the subfile
+     * @return a <code>byte[]</code>
+     */
+    public byte[] getDecompressedFile(int index)
+    {
+        return getDecompressedFileEntry(index).data;
+    }
+
+    /**
+     * Replaces the decompressed contents of the subfile at the given index.
+     * <p>The subfile is compressed again with the format it was originally compressed with the next time the subfile
+     * contents of this <code>Narc</code> are needed (such as when it is saved), or when it's evicted from the cache.</p>
+     * @param index an <code>int</code> containing the index of the subfile
+     * @param data a <code>byte[]</code> containing the new decompressed contents of the subfile
+     */
+    public void setDecompressedFile(int index, byte[] data)
+    {
+        DecompressedFile entry = getDecompressedFileEntry(index);
+        if (entry.codec == Compression.Codec.NONE)
+        {
+            decompressedBytes -= entry.getSize();
+            files.set(index, data);
+            entry.source = getStoredFile(index);
+            entry.data = data;
+            decompressedBytes += entry.getSize();
+            evictDecompressedFiles();
+            return;
+        }
+
+        decompressedBytes += data.length - entry.data.length;
+        entry.data = data;
+        if (!entry.modified)
+        {
+            entry.modified = true;
+            numModifiedDecompressed++;
+        }
+        evictDecompressedFiles();
+    }
+
+    /**
+     * Sets the maximum number of bytes of decompressed subfile contents which are kept in memory
+     * @param bytes a <code>long</code>
+     */
+    public void setDecompressionCacheSize(long bytes)
+    {
+        decompressionCacheSize = bytes;
+        evictDecompressedFiles();
+    }
+
+    /**
+     * Compresses all subfiles whose decompressed contents were replaced using <code>setDecompressedFile()</code>, and
+     * writes them back to this <code>Narc</code>.
+     * <p>This is done automatically whenever the (compressed) subfiles are accessed.</p>
+     */
+    public void flushDecompressedFiles()
+    {
+        if (numModifiedDecompressed == 0)
+            return;
+
+        List<Map.Entry<Integer, DecompressedFile>> modified = decompressedFiles.entrySet().stream()
+                .filter(entry -> entry.getValue().modified)
+                .collect(Collectors.toList());
+        List<byte[]> compressed = modified.parallelStream()
+                .map(entry -> Compression.compress(entry.getValue().data, entry.getValue().codec))
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < modified.size(); i++)
+        {
+            writeBackDecompressedFile(modified.get(i).getKey(), modified.get(i).getValue(), compressed.get(i));
+        }
+    }
+
+    private DecompressedFile getDecompressedFileEntry(int index)
+    {
+        // stored subfiles are copied every time they are read, so they are recognized by their payloads instead
+        Object source = getStoredFile(index);
+        DecompressedFile entry = decompressedFiles.get(index);
+        if (entry != null && (entry.modified || entry.source == source))
+            return entry;
+
+        if (entry != null)
+            decompressedBytes -= entry.getSize();
+
+        byte[] contents = source instanceof byte[] ? (byte[]) source : files.get(index);
+        byte[] decompressed = Compression.tryDecompress(contents);
+        if (decompressed == null)
+            entry = new DecompressedFile(Compression.Codec.NONE, source, contents);
+        else
+            entry = new DecompressedFile(Compression.Codec.fromId(contents[0] & 0xFF), source, decompressed);
+
+        decompressedFiles.put(index, entry);
+        decompressedBytes += entry.getSize();
+        evictDecompressedFiles();
+        return entry;
+    }
+
+    /**
+     * Evicts the least recently used decompressed subfiles until the cache fits in its maximum size again. The most
+     * recently used subfile is always kept.
+     */
+    private void evictDecompressedFiles()
+    {
+        Iterator<Map.Entry<Integer, DecompressedFile>> iterator = decompressedFiles.entrySet().iterator();
+        while (decompressedBytes > decompressionCacheSize && decompressedFiles.size() > 1)
+        {
+            Map.Entry<Integer, DecompressedFile> eldest = iterator.next();
+            DecompressedFile entry = eldest.getValue();
+            // don't lose modifications made to subfiles which are being evicted
+            if (entry.modified)
+                writeBackDecompressedFile(eldest.getKey(), entry, Compression.compress(entry.data, entry.codec));
+            decompressedBytes -= entry.getSize();
+            iterator.remove();
+        }
+    }
+
+    private void writeBackDecompressedFile(int index, DecompressedFile entry, byte[] compressed)
+    {
+        files.set(index, compressed);
+        entry.source = getStoredFile(index);
+        entry.modified = false;
+        numModifiedDecompressed--;
+    }
+
     public int getNumFiles()
     {
         return files.size();
@@ -419,6 +747,55 @@ public class Narc extends GenericNtrFile
         return String.format("(%s) NARC", endiannessOfBeginning.symbol);
     }
 
+    /**
+     * Discards the cached content hashes of this <code>Narc</code>'s subfiles.
+     * <p>Replacing, adding or removing subfiles does this automatically, but this needs to be called after modifying
+     * the contents of a subfile's <code>byte[]</code> in place, as that can't be detected.</p>
+     */
+    public void invalidateHashes()
+    {
+        fileHashes = new IdentityHashMap<>();
+        filesHashValid = false;
+    }
+
+    private void invalidateFilesHash()
+    {
+        filesHashValid = false;
+    }
+
+    /**
+     * Computes the combined content hash of all subfiles, reusing the hashes of subfiles which haven't changed.
+     * @return an <code>int</code>
+     */
+    private int getFilesHash()
+    {
+        flushDecompressedFiles();
+        if (filesHashValid)
+            return filesHash;
+
+        IdentityHashMap<byte[], Integer> hashes = new IdentityHashMap<>(files.size());
+        int hash = 1;
+        for (byte[] file : files)
+        {
+            int fileHash = hashOf(file);
+            // stored subfiles are copied every time they are read, so their arrays would only be kept alive for nothing
+            if (!(files instanceof PayloadList))
+                hashes.put(file, fileHash);
+            hash = 31 * hash + fileHash;
+        }
+
+        fileHashes = hashes;
+        filesHash = hash;
+        filesHashValid = true;
+        return hash;
+    }
+
+    private int hashOf(byte[] file)
+    {
+        Integer hash = fileHashes.get(file);
+        return hash != null ? hash : Arrays.hashCode(file);
+    }
+
     @Override
     public boolean equals(Object o)
     {
@@ -431,28 +808,54 @@ public class Narc extends GenericNtrFile
 
         Narc narc = (Narc) o;
 
-        if (files.size() == narc.files.size())
-        {
-            for (int i = 0; i < files.size(); i++)
-            {
-                if (!Arrays.equals(files.get(i), narc.files.get(i)))
-                {
-                    return false;
-                }
-            }
-        }
-        else
-        {
+        if (files.size() != narc.files.size() || endiannessOfBeginning != narc.endiannessOfBeginning)
             return false;
-        }
 
+        if (getFilesHash() != narc.getFilesHash())
+            return false;
+
+        // the combined hashes match, so only the subfiles whose individual hashes also match need to be compared
+        for (int i = 0; i < files.size(); i++)
+        {
+            byte[] file = files.get(i);
+            byte[] other = narc.files.get(i);
+            if (file == other)
+                continue;
+            if (hashOf(file) != narc.hashOf(other) || !Arrays.equals(file, other))
+                return false;
+        }
 
-        return Objects.equals(filenames, narc.filenames) && endiannessOfBeginning == narc.endiannessOfBeginning;
+        return Objects.equals(filenames, narc.filenames);
     }
 
     @Override
     public int hashCode()
     {
-        return Objects.hash(filenames, files, endiannessOfBeginning);
+        // the filenames aren't included, as they can be modified without this Narc knowing about it
+        return 31 * getFilesHash() + (endiannessOfBeginning == null ? 0 : endiannessOfBeginning.ordinal());
+    }
+
+    private static class DecompressedFile
+    {
+        private final Compression.Codec codec;
+        private Object source; // the subfile contents (or their payload) the data was decompressed from (or last compressed to)
+        private byte[] data;
+        private boolean modified;
+
+        private DecompressedFile(Compression.Codec codec, Object source, byte[] data)
+        {
+            this.codec = codec;
+            this.source = source;
+            this.data = data;
+        }
+
+        /**
+         * Uncompressed subfiles on the heap are shared with the <code>Narc</code>, so they don't count towards the size
+         * of the cache
+         */
+        private long getSize()
+        {
+            return data == source ? 0 : data.length;
+        }
     }
 }
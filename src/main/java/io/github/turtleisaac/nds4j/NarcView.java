@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.images.CellBank;
+import io.github.turtleisaac.nds4j.images.IndexedImage;
+import io.github.turtleisaac.nds4j.images.Palette;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A typed view over the subfiles of a <code>Narc</code>.
+ * <p>Subfiles are decoded on first access and kept in a size-bounded LRU cache, so repeated accesses to the same
+ * subfile return the same object instead of decoding it again.</p>
+ * <p>Decoded subfiles which have been modified (see <code>set()</code> and <code>markModified()</code>) are encoded
+ * back into the underlying <code>Narc</code> when <code>flush()</code> is called, or when they are evicted from the cache.</p>
+ * <p>Decoded subfiles are kept by index, so a view has to be flushed before subfiles are added to, removed from or
+ * moved around in the <code>Narc</code>. Modifications to a subfile which was replaced or moved in the meantime are
+ * discarded with a <code>RuntimeException</code> instead of being written to whichever subfile is now at its index.</p>
+ * @param <T> the type the subfiles of the <code>Narc</code> are decoded to
+ */
+public class NarcView<T>
+{
+    private final Narc narc;
+    private final Function<byte[], T> decoder;
+    private final Function<T, byte[]> encoder;
+    private final int capacity;
+    private final LinkedHashMap<Integer, Member<T>> cache;
+
+    /**
+     * Creates a typed view over the subfiles of the provided <code>Narc</code>
+     * @param narc the <code>Narc</code> to view
+     * @param decoder a <code>Function</code> which decodes the <code>byte[]</code> contents of a subfile
+     * @param encoder a <code>Function</code> which encodes a decoded subfile back to a <code>byte[]</code>
+     * @param capacity the maximum number of decoded subfiles to keep in memory
+     * @exception RuntimeException if the capacity is less than 1
+     */
+    public NarcView(Narc narc, Function<byte[], T> decoder, Function<T, byte[]> encoder, int capacity)
+    {
+        if (capacity < 1)
+            throw new RuntimeException("Invalid NarcView capacity: " + capacity);
+
+        this.narc = narc;
+        this.decoder = decoder;
+        this.encoder = encoder;
+        this.capacity = capacity;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Creates a view which decodes the subfiles of the provided <code>Narc</code> as NCLR files
+     * @param narc the <code>Narc</code> to view
+     * @param bitDepth an <code>int</code> containing a bit-depth value to enforce (use <code>0</code> if you don't have one)
+     * @param capacity the maximum number of decoded subfiles to keep in memory
+     * @return a <code>NarcView</code> of <code>Palette</code>s
+     */
+    public static NarcView<Palette> ofPalettes(Narc narc, int bitDepth, int capacity)
+    {
+        return new NarcView<>(narc, data -> new Palette(data, bitDepth), Palette::save, capacity);
+    }
+
+    /**
+     * Creates a view which decodes the subfiles of the provided <code>Narc</code> as NCGR files
+     * @param narc the <code>Narc</code> to view
+     * @param tilesWidth an <code>int</code> containing a tile width value to enforce (use <code>0</code> if you don't have one)
+     * @param bitDepth an <code>int</code> containing a bit-depth value to enforce (use <code>0</code> if you don't have one)
+     * @param colsPerChunk an <code>int</code> containing the number of tiles per row (columns per row) for each chunk. (use <code>0</code> if you don't have one)
+     * @param rowsPerChunk an <code>int</code> containing the number of rows per chunk. (use <code>0</code> if you don't have one)
+     * @param scanFrontToBack a <code>boolean</code> representing whether (only if the images are scanned) the images should be scanned <b>front-to-back</b> or <b>back-to-front</b>
+     * @param capacity the maximum number of decoded subfiles to keep in memory
+     * @return a <code>NarcView</code> of <code>IndexedImage</code>s
+     */
+    public static NarcView<IndexedImage> ofImages(Narc narc, int tilesWidth, int bitDepth, int colsPerChunk, int rowsPerChunk, boolean scanFrontToBack, int capacity)
+    {
+        return new NarcView<>(narc, data -> new IndexedImage(data, tilesWidth, bitDepth, colsPerChunk, rowsPerChunk, scanFrontToBack), IndexedImage::save, capacity);
+    }
+
+    /**
+     * Creates a view which decodes the subfiles of the provided <code>Narc</code> as NCER files
+     * @param narc the <code>Narc</code> to view
+     * @param capacity the maximum number of decoded subfiles to keep in memory
+     * @return a <code>NarcView</code> of <code>CellBank</code>s
+     */
+    public static NarcView<CellBank> ofCellBanks(Narc narc, int capacity)
+    {
+        return new NarcView<>(narc, CellBank::new, CellBank::save, capacity);
+    }
+
+    /**
+     * Returns the decoded contents of the subfile at the given index, decoding it if it isn't already cached
+     * <p>If the subfile's contents were replaced in the <code>Narc</code> since it was decoded, it will be decoded again.</p>
+     * @param index an <code>int</code> containing the index of the subfile
+     * @return the decoded subfile
+     * @exception RuntimeException if the subfile was modified in this view, but replaced or moved in the <code>Narc</code>
+     */
+    public synchronized T get(int index)
+    {
+        // the contents of stored subfiles are copied every time they are read, so they are only read to be decoded
+        Object source = narc.getFileSource(index);
+        Member<T> member = cache.get(index);
+        if (member != null && member.source == source)
+            return member.value;
+        if (member != null && member.modified)
+        {
+            cache.remove(index);
+            throw staleMember(index);
+        }
+
+        member = new Member<>(decoder.apply(narc.getFile(index)), source);
+        cache.put(index, member);
+        evict();
+        return member.value;
+    }
+
+    /**
+     * Replaces the subfile at the given index with the provided object, which will be encoded back into the
+     * <code>Narc</code> on the next <code>flush()</code>
+     * @param index an <code>int</code> containing the index of the subfile
+     * @param value the new decoded contents of the subfile
+     */
+    public synchronized void set(int index, T value)
+    {
+        Member<T> member = new Member<>(value, narc.getFileSource(index));
+        member.modified = true;
+        cache.put(index, member);
+        evict();
+    }
+
+    /**
+     * Marks the decoded subfile at the given index as modified, so that it will be encoded back into the
+     * <code>Narc</code> on the next <code>flush()</code>
+     * @param index an <code>int</code> containing the index of the subfile
+     * @exception RuntimeException if the subfile at the given index has not been decoded
+     */
+    public synchronized void markModified(int index)
+    {
+        Member<T> member = cache.get(index);
+        if (member == null)
+            throw new RuntimeException("Subfile " + index + " has not been decoded");
+        member.modified = true;
+    }
+
+    /**
+     * Discards the decoded subfile at the given index, along with any unflushed modifications made to it
+     * @param index an <code>int</code> containing the index of the subfile
+     */
+    public synchronized void invalidate(int index)
+    {
+        cache.remove(index);
+    }
+
+    /**
+     * Discards all decoded subfiles, along with any unflushed modifications made to them
+     */
+    public synchronized void invalidateAll()
+    {
+        cache.clear();
+    }
+
+    /**
+     * Encodes all modified subfiles back into the underlying <code>Narc</code>.
+     * <p>Encoding of the modified subfiles is done in parallel.</p>
+     * @exception RuntimeException if any modified subfiles were replaced or moved in the <code>Narc</code>, in which
+     * case their modifications are discarded and nothing is written
+     */
+    public synchronized void flush()
+    {
+        List<Integer> indices = new ArrayList<>();
+        List<Member<T>> modified = new ArrayList<>();
+        List<Integer> stale = new ArrayList<>();
+        for (Map.Entry<Integer, Member<T>> entry : cache.entrySet())
+        {
+            if (!entry.getValue().modified)
+                continue;
+            if (isStale(entry.getKey(), entry.getValue()))
+            {
+                stale.add(entry.getKey());
+                continue;
+            }
+            indices.add(entry.getKey());
+            modified.add(entry.getValue());
+        }
+
+        if (!stale.isEmpty())
+        {
+            cache.keySet().removeAll(stale);
+            throw new RuntimeException("Subfiles " + stale + " were replaced or moved in the Narc before their modifications were flushed");
+        }
+
+        List<byte[]> encoded = modified.parallelStream().map(member -> encoder.apply(member.value)).collect(Collectors.toList());
+
+        for (int i = 0; i < indices.size(); i++)
+        {
+            writeBack(indices.get(i), modified.get(i), encoded.get(i));
+        }
+    }
+
+    /**
+     * Evicts the least recently used members until the cache fits in its capacity again
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<Integer, Member<T>>> iterator = cache.entrySet().iterator();
+        while (cache.size() > capacity)
+        {
+            Map.Entry<Integer, Member<T>> eldest = iterator.next();
+            iterator.remove();
+            // don't lose modifications made to members which are being evicted
+            if (eldest.getValue().modified)
+                writeBack(eldest.getKey(), eldest.getValue(), encoder.apply(eldest.getValue().value));
+        }
+    }
+
+    /**
+     * Returns whether the subfile a member was decoded from (or last encoded to) is no longer at its index
+     */
+    private boolean isStale(int index, Member<T> member)
+    {
+        return index >= narc.getNumFiles() || narc.getFileSource(index) != member.source;
+    }
+
+    private static RuntimeException staleMember(int index)
+    {
+        return new RuntimeException("Subfile " + index + " was replaced or moved in the Narc before its modifications were flushed");
+    }
+
+    private void writeBack(int index, Member<T> member, byte[] data)
+    {
+        if (isStale(index, member))
+            throw staleMember(index);
+        narc.setFile(index, data);
+        member.source = narc.getFileSource(index);
+        member.modified = false;
+    }
+
+    /**
+     * Returns the number of decoded subfiles currently held in memory
+     * @return an <code>int</code>
+     */
+    public synchronized int getNumCached()
+    {
+        return cache.size();
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public int getNumFiles()
+    {
+        return narc.getNumFiles();
+    }
+
+    public Narc getNarc()
+    {
+        return narc;
+    }
+
+    private static class Member<T>
+    {
+        private final T value;
+        private Object source; // the subfile contents (or their payload) the value was decoded from (or last encoded to)
+        private boolean modified;
+
+        private Member(T value, Object source)
+        {
+            this.value = value;
+            this.source = source;
+        }
+    }
+}
@@ -21,9 +21,14 @@ package io.github.turtleisaac.nds4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import io.github.turtleisaac.nds4j.binaries.MainCodeFile;
@@ -116,9 +121,12 @@ public class NintendoDsRom
     // Files Stuff
 
     Folder filenames; // represents the root folder of the filesystem
-    ArrayList<byte[]> files;
+    List<byte[]> files;
     ArrayList<Integer> sortedFileIDs;
 
+    RomIndex index;
+    ArrayList<Object> indexedSources; // the file contents (or what stands for them) the index was built from
+
     private static final HashMap<Integer, Integer> ICON_BANNER_LENGTHS = new HashMap<Integer, Integer>() {
         {
             put(0x0001, 0x840);
@@ -148,14 +156,74 @@ public class NintendoDsRom
         return new NintendoDsRom(Buffer.readFile(file.getAbsolutePath()));
     }
 
+    /**
+     * Reads a <code>NintendoDsRom</code> from a ROM file on disk, optionally using a sidecar index file to avoid parsing
+     * its filename table, file allocation table, and NARC tables.
+     * <p>If the index is up to date, the ROM file is mapped into memory instead of being read, and the contents of each
+     * file are only copied out of it the first time that file is accessed, so reopening an unchanged ROM only reads its
+     * header, code binaries and tables. The mapping is kept for as long as the ROM is in use, so the ROM file must not
+     * be modified by anything else in the meantime (and on Windows, it can't be replaced until the mapping is garbage
+     * collected).</p>
+     * <p>If the index doesn't exist or is stale, the ROM is read and parsed normally and the index is (re)built.</p>
+     * @param file a <code>File</code> containing the path to a ROM file on disk
+     * @param useIndex whether to use (and maintain) the sidecar index of the ROM file
+     * @return a <code>NintendoDsRom</code>
+     * @see RomIndex
+     */
+    public static NintendoDsRom fromFile(File file, boolean useIndex)
+    {
+        if (!useIndex)
+            return fromFile(file);
+
+        RomIndex index = RomIndex.load(file);
+        NintendoDsRom rom = null;
+        if (index != null)
+        {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                rom = new NintendoDsRom(MemBuf.map(channel, FileChannel.MapMode.READ_ONLY), index);
+            }
+            catch (IOException | RuntimeException e) {
+                // an index which doesn't describe the ROM after all is treated the same as a stale one
+                index = null;
+            }
+        }
+        if (rom == null)
+            rom = new NintendoDsRom(Buffer.readFile(file.getAbsolutePath()));
+
+        if (index == null)
+        {
+            try {
+                index = RomIndex.of(rom, file);
+                index.save(file);
+            }
+            catch (IOException e) {
+                // the index is only a cache, so failing to write it shouldn't prevent the ROM from being used
+            }
+        }
+
+        rom.index = index;
+        rom.indexedSources = new ArrayList<>(rom.files.size());
+        for (int id = 0; id < rom.files.size(); id++)
+            rom.indexedSources.add(rom.getFileSource(id));
+        return rom;
+    }
+
     /**
      * Creates a <code>NintendoDsRom</code> object from a provided <code>byte[]</code> representing the bytes of a ROM file
      * @param data a <code>byte[]</code>
      */
     public NintendoDsRom(byte[] data)
     {
-        MemBuf romBuf = MemBuf.create();
-        romBuf.writer().write(data);
+        this(MemBuf.wrap(data), null);
+    }
+
+    /**
+     * Creates a <code>NintendoDsRom</code> object from a buffer containing the bytes of a ROM file
+     * @param romBuf a <code>MemBuf</code>, which is kept to read files from if an index is given
+     * @param index an up-to-date <code>RomIndex</code> of the ROM, or <code>null</code> to parse its tables
+     */
+    private NintendoDsRom(MemBuf romBuf, RomIndex index)
+    {
         MemBuf.MemBufReader reader = romBuf.reader();
 
         int fileLength = romBuf.writer().getPosition();
@@ -219,16 +287,34 @@ public class NintendoDsRom
 
         this.arm9PostData = arm9PostData.stream().mapToInt(Integer::intValue).toArray();
 
-        if (fnt.length != 0)
-            filenames = Fnt.load(fnt);
-        else
-            filenames = new Folder();
-
         files = new ArrayList<>();
         sortedFileIDs = new ArrayList<>();
-        if (fat.length != 0)
+
+        if (index != null)
         {
-            processFat(reader);
+            filenames = index.getFilenames();
+            int[] starts = new int[index.getNumFiles()];
+            int[] ends = new int[index.getNumFiles()];
+            for (int i = 0; i < starts.length; i++)
+            {
+                starts[i] = index.getFileStart(i);
+                ends[i] = index.getFileEnd(i);
+            }
+            // the files are only read once they're needed
+            files = new MappedFileList(romBuf, starts, ends);
+            sortedFileIDs = index.getSortedFileIds();
+        }
+        else
+        {
+            if (fnt.length != 0)
+                filenames = Fnt.load(fnt);
+            else
+                filenames = new Folder();
+
+            if (fat.length != 0)
+            {
+                processFat(reader);
+            }
         }
 
         processOverlays();
@@ -376,17 +462,18 @@ public class NintendoDsRom
 
     private void processFat(MemBuf.MemBufReader reader)
     {
-        MemBuf fatBuf = MemBuf.create();
-        fatBuf.writer().write(fat);
+        MemBuf fatBuf = MemBuf.wrap(fat);
         MemBuf.MemBufReader fatBufReader = fatBuf.reader();
         HashMap<Long, Integer> offsetToId = new HashMap<>();
         ArrayList<Long> offsetToIdKeys = new ArrayList<>();
 
+        // each entry is a start offset followed by an end offset
+        int[] entries = fatBufReader.readInts(fat.length / 8 * 2);
         long startOffset, endOffset;
         for (int i = 0; i < fat.length / 8; i++)
         {
-            startOffset = fatBufReader.readUInt32();
-            endOffset = fatBufReader.readUInt32();
+            startOffset = entries[i * 2] & 0xFFFFFFFFL;
+            endOffset = entries[i * 2 + 1] & 0xFFFFFFFFL;
             reader.setPosition(startOffset);
             files.add(reader.readTo(endOffset));
             offsetToId.put(startOffset, i);
@@ -427,10 +514,20 @@ public class NintendoDsRom
      * @return a <code>byte[]</code>
      */
     public byte[] save(boolean updateDeviceCapacity)
+    {
+        return build(updateDeviceCapacity).reader().getBuffer();
+    }
+
+    /**
+     * Builds this ROM in a chunked <code>MemBuf</code>, so that no part of it is copied while it grows
+     * @param updateDeviceCapacity whether the rom capacity code in the header will be changed (boolean)
+     * @return a <code>MemBuf</code> whose reader is positioned at the start of the ROM
+     */
+    private MemBuf build(boolean updateDeviceCapacity)
     {
         HashMap<Integer, Integer> fileOffsets = new HashMap<>();
 
-        MemBuf romBuf = MemBuf.create();
+        MemBuf romBuf = MemBuf.createChunked();
         MemBuf.MemBufWriter writer = romBuf.writer();
 
         // to begin, assume header size of 0x200 (header will be filled in at end)
@@ -464,8 +561,7 @@ public class NintendoDsRom
         }
 
         // write the arm9 overlays
-        MemBuf y9Buf = MemBuf.create();
-        y9Buf.writer().write(y9);
+        MemBuf y9Buf = MemBuf.wrap(y9);
         int fileId;
         for (int i = 0; i < y9.length / 32; i++)
         {
@@ -498,8 +594,7 @@ public class NintendoDsRom
         }
 
         // write the arm7 overlays
-        MemBuf y7Buf = MemBuf.create();
-        y7Buf.writer().write(y7);
+        MemBuf y7Buf = MemBuf.wrap(y7);
         for (int i = 0; i < y7.length / 32; i++)
         {
             y7Buf.reader().setPosition(i * 32 + 0x18);
@@ -527,8 +622,7 @@ public class NintendoDsRom
         int iconBannerOffset;
         if (iconBanner.length > 0)
         {
-            MemBuf iconBannerBuf = MemBuf.create();
-            iconBannerBuf.writer().write(iconBanner);
+            MemBuf iconBannerBuf = MemBuf.wrap(iconBanner);
 
             int version = ( (int) iconBannerBuf.reader().readShort()) & 0xFFFF;
             int iconBannerLength;
@@ -660,7 +754,7 @@ public class NintendoDsRom
         writer.write(padding_088h);
         writer.write(nintendoLogo);
         writer.write(calculateCRC16(nintendoLogo));
-        writer.write(calculateCRC16(romBuf.reader().readBytes(0x15e)));
+        writer.write(calculateCRC16(romBuf.reader().readSlice(0x15e)));
         writer.writeInt(debugRomOffset);
         writer.writeInt(debugRom.length);
         writer.writeInt(debugRomAddress);
@@ -670,7 +764,7 @@ public class NintendoDsRom
 
         writer.setPosition(romSize);
         romBuf.reader().setPosition(0);
-        return romBuf.reader().getBuffer();
+        return romBuf;
     }
 
     /**
@@ -692,7 +786,15 @@ public class NintendoDsRom
      */
     public void saveToFile(File filePath, boolean updateDeviceCapacity) throws IOException
     {
-        BinaryWriter.writeFile(filePath, save(updateDeviceCapacity));
+        MemBuf romBuf = build(updateDeviceCapacity);
+        // the chunks of the ROM are written as they are, without being flattened into a single array first, and the
+        // existing file is only replaced once all of them have been written
+        try (BinaryWriter writer = new BinaryWriter(filePath.toPath(), BinaryWriter.DEFAULT_BUFFER_SIZE, true))
+        {
+            writer.preallocate(romBuf.writer().getPosition());
+            romBuf.reader().writeTo(writer);
+            writer.commit();
+        }
     }
 
     private short calculateCRC16(byte... arr)
@@ -705,6 +807,16 @@ public class NintendoDsRom
         return (short) crc16.getValue();
     }
 
+    private short calculateCRC16(ByteBuffer buffer)
+    {
+        CRC16 crc16 = new CRC16();
+
+        while (buffer.hasRemaining()) {
+            crc16.update(buffer.get());
+        }
+        return (short) crc16.getValue();
+    }
+
     private Integer getNextFile(HashMap<Integer, Integer> fileOffsets)
     {
 
@@ -865,27 +977,31 @@ public class NintendoDsRom
         File overlayDir = Paths.get(dir.getAbsolutePath(), UNPACKED_FILENAMES.OVERLAY.name).toFile();
         File dataDir = Paths.get(dir.getAbsolutePath(), UNPACKED_FILENAMES.DATA.name).toFile();
 
-        Stream<File> overlayStream = Arrays.stream(Objects.requireNonNull(overlayDir.listFiles(File::isFile)));
-        List<File> overlays = overlayStream.sorted(Comparator.comparingInt(o -> Integer.parseInt(o.getName().split("_")[1].replace(".bin", "")))).filter(file -> !file.isHidden()).collect(Collectors.toList());
+        // each of these is read in a single walk, and the data files are numbered after the overlays
+        Fnt.DiskFolder overlayFolder = Fnt.walkDisk(overlayDir, 0);
+        List<Path> overlays = overlayFolder.files.stream().sorted(Comparator.comparingInt(o -> Integer.parseInt(o.getFileName().toString().split("_")[1].replace(".bin", "")))).collect(Collectors.toList());
+        Fnt.DiskFolder dataFolder = Fnt.walkDisk(dataDir, overlays.size());
 
-        int numFiles = Fnt.calculateNumFiles(overlayDir) + Fnt.calculateNumFiles(dataDir);
-        for (int i = 0; i < numFiles; i++)
-        {
-            rom.files.add(null);
-        }
+        int numFiles = overlays.size() + dataFolder.files.size();
+        rom.files = new ArrayList<>(Collections.nCopies(numFiles, null));
 
         // read the overlays
         int fileId;
-        MemBuf y9Buf = MemBuf.create();
-        y9Buf.writer().write(rom.y9);
+        MemBuf y9Buf = MemBuf.wrap(rom.y9);
         for (int i = 0; i < rom.y9Length / 32; i++)
         {
             y9Buf.reader().setPosition(i * 32 + 0x18);
             fileId = y9Buf.reader().readInt();
-            rom.files.set(fileId, Buffer.readFile(overlays.get(i).getAbsolutePath()));
+            rom.files.set(fileId, Buffer.readFile(overlays.get(i)));
         }
 
-        rom.filenames = Fnt.loadFromDisk(dataDir, rom.files);
+        for (int i = 0; i < dataFolder.files.size(); i++)
+        {
+            if (rom.files.get(overlays.size() + i) != null)
+                throw new RuntimeException("File ID " + (overlays.size() + i) + " is already in use.");
+            rom.files.set(overlays.size() + i, Buffer.readFile(dataFolder.files.get(i)));
+        }
+        rom.filenames = dataFolder.root;
 
         if (rom.files.contains(null))
             throw new RuntimeException("Internal file table not properly filled");
@@ -977,7 +1093,7 @@ public class NintendoDsRom
         headerWriter.write(padding_088h);
         headerWriter.write(nintendoLogo);
         headerWriter.write(calculateCRC16(nintendoLogo));
-        headerWriter.write(calculateCRC16(headerBuf.reader().readBytes(0x15e)));
+        headerWriter.write(calculateCRC16(headerBuf.reader().readSlice(0x15e)));
         headerWriter.writeInt(debugRomOffset);
         headerWriter.writeInt(debugRom.length);
         headerWriter.writeInt(debugRomAddress);
@@ -1000,8 +1116,7 @@ public class NintendoDsRom
         }
 
         // write the overlays
-        MemBuf y9Buf = MemBuf.create();
-        y9Buf.writer().write(y9);
+        MemBuf y9Buf = MemBuf.wrap(y9);
         int fileId;
         for (int i = 0; i < y9.length / 32; i++)
         {
@@ -1041,6 +1156,203 @@ public class NintendoDsRom
         files.set(fid, data);
     }
 
+    /**
+     * Finds all files in the ROM whose paths match the given glob pattern, such as <code>a/0/1/*</code> or
+     * <code>**&#47;*.narc</code>.
+     * <p>The filesystem is searched when this is called, and the returned stream is backed by a list of the results,
+     * so it splits evenly when the files are processed in parallel.</p>
+     * @param pattern a <code>String</code> containing the pattern
+     * @return a <code>Stream</code> of the matching files, in order of increasing file ID
+     * @see Glob
+     */
+    public Stream<FileEntry> find(String pattern)
+    {
+        return find(Glob.compile(pattern));
+    }
+
+    /**
+     * Finds all files in the ROM whose paths match the given glob pattern
+     * @param glob a compiled <code>Glob</code>
+     * @return a <code>Stream</code> of the matching files, in order of increasing file ID
+     * @see NintendoDsRom#find(String)
+     */
+    public Stream<FileEntry> find(Glob glob)
+    {
+        BitSet overlayIds = getOverlayIds();
+        ArrayList<FileEntry> entries = new ArrayList<>();
+        filenames.find(glob).forEachOrdered(entry -> entries.add(createEntry(entry.getId(), entry.getPath(), overlayIds)));
+        return entries.stream();
+    }
+
+    /**
+     * Starts a batch of changes to the filesystem of this ROM, such as renaming, moving, adding and removing files and
+     * folders. Nothing is changed until the batch is committed, at which point the file IDs of all files in the
+     * filesystem are reassigned at once and the file table, the overlay tables and the order of the files in the ROM
+     * are updated to match.
+     * @return a <code>FilesystemBatch</code>
+     */
+    public FilesystemBatch editFilesystem()
+    {
+        return new FilesystemBatch(filenames, files, this::applyFilesystemEdit);
+    }
+
+    private void applyFilesystemEdit(int[] remap, ArrayList<byte[]> newFiles)
+    {
+        if (files instanceof PayloadList)
+        {
+            PayloadList old = (PayloadList) files;
+            files = new PayloadList(old.getStore(), null, newFiles);
+            old.release();
+        }
+        else
+            files = newFiles;
+
+        ArrayList<Integer> newSortedFileIds = new ArrayList<>(sortedFileIDs.size());
+        for (int id : sortedFileIDs)
+        {
+            if (id < remap.length && remap[id] != -1)
+                newSortedFileIds.add(remap[id]);
+        }
+        sortedFileIDs = newSortedFileIds;
+
+        // the FAT keeps describing where each file was when the ROM was read, under its new ID. Files which weren't in
+        // the ROM then get entries of -1.
+        byte[] newFat = new byte[newFiles.size() * 8];
+        Arrays.fill(newFat, (byte) 0xFF);
+        for (int id = 0; fat != null && id < remap.length && id < fat.length / 8; id++)
+        {
+            if (remap[id] != -1)
+                System.arraycopy(fat, 8 * id, newFat, 8 * remap[id], 8);
+        }
+        fat = newFat;
+
+        // overlays aren't in the filesystem, but they can still have been renumbered if they came after it
+        for (byte[] table : new byte[][] {y9, y7})
+        {
+            for (int i = 0x18; i + 4 <= table.length; i += 32)
+            {
+                int id = (table[i] & 0xFF) | (table[i + 1] & 0xFF) << 8 | (table[i + 2] & 0xFF) << 16 | (table[i + 3] & 0xFF) << 24;
+                int newId = remap[id];
+                table[i] = (byte) newId;
+                table[i + 1] = (byte) (newId >> 8);
+                table[i + 2] = (byte) (newId >> 16);
+                table[i + 3] = (byte) (newId >> 24);
+            }
+        }
+    }
+
+    /**
+     * Returns every file in the ROM, in order of file ID.
+     * <p>The paths of all files are found in a single pass over the filename table, and everything else is read from
+     * the file allocation table and overlay tables, so no file contents are read or copied until an entry's
+     * <code>getData()</code> is called. The returned stream splits evenly when it's processed in parallel.</p>
+     * @return a <code>Stream</code> of <code>FileEntry</code>s
+     */
+    public Stream<FileEntry> entries()
+    {
+        String[] paths = filenames.paths();
+        BitSet overlayIds = getOverlayIds();
+        return IntStream.range(0, files.size()).mapToObj(id -> createEntry(id, id < paths.length ? paths[id] : null, overlayIds));
+    }
+
+    private FileEntry createEntry(int id, String path, BitSet overlayIds)
+    {
+        // the FAT describes where the files were when the ROM was read
+        int offset = -1;
+        if (fat != null && id < fat.length / 8)
+            offset = (fat[8 * id] & 0xFF) | (fat[8 * id + 1] & 0xFF) << 8 | (fat[8 * id + 2] & 0xFF) << 16 | (fat[8 * id + 3] & 0xFF) << 24;
+        return new FileEntry(id, path, this, getFileSize(id), offset, overlayIds.get(id));
+    }
+
+    /**
+     * Returns the size of a file without copying its contents if they're in a <code>PayloadStore</code> or haven't been
+     * read from a mapped ROM yet
+     */
+    private int getFileSize(int id)
+    {
+        if (files instanceof PayloadList)
+            return ((PayloadList) files).getLength(id);
+        if (files instanceof MappedFileList)
+            return ((MappedFileList) files).getLength(id);
+        byte[] data = files.get(id);
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * Finds the file IDs of all ARM9 and ARM7 overlays
+     * @return a <code>BitSet</code> containing the file IDs
+     */
+    private BitSet getOverlayIds()
+    {
+        BitSet overlayIds = new BitSet(files.size());
+        for (byte[] table : new byte[][] {y9, y7})
+        {
+            // the file ID is at 0x18 in each 32-byte entry of an overlay table
+            for (int i = 0x18; i + 4 <= table.length; i += 32)
+                overlayIds.set((table[i] & 0xFF) | (table[i + 1] & 0xFF) << 8 | (table[i + 2] & 0xFF) << 16 | (table[i + 3] & 0xFF) << 24);
+        }
+        return overlayIds;
+    }
+
+    /**
+     * A file in the ROM: its file ID, its path (<code>null</code> for files without one, such as overlays), its size
+     * and contents, and where it was in the ROM when the ROM was read
+     * <p>The entries of a ROM only read the contents of their file the first time <code>getData()</code> is called.</p>
+     */
+    public static class FileEntry extends Fnt.Entry
+    {
+        private final NintendoDsRom rom;
+        private byte[] data;
+        private final int size;
+        private final int offset;
+        private final boolean overlay;
+
+        public FileEntry(int id, String path, byte[] data, int offset, boolean overlay)
+        {
+            super(id, path);
+            this.rom = null;
+            this.data = data;
+            this.size = data.length;
+            this.offset = offset;
+            this.overlay = overlay;
+        }
+
+        private FileEntry(int id, String path, NintendoDsRom rom, int size, int offset, boolean overlay)
+        {
+            super(id, path);
+            this.rom = rom;
+            this.size = size;
+            this.offset = offset;
+            this.overlay = overlay;
+        }
+
+        public byte[] getData()
+        {
+            if (data == null && rom != null)
+                data = rom.getFile(getId());
+            return data;
+        }
+
+        public int getSize()
+        {
+            return size;
+        }
+
+        /**
+         * @return the offset of the file in the ROM according to its file allocation table, or <code>-1</code> if the
+         * file was added afterwards
+         */
+        public int getOffset()
+        {
+            return offset;
+        }
+
+        public boolean isOverlay()
+        {
+            return overlay;
+        }
+    }
+
     public byte[] getFile(int index)
     {
         return files.get(index);
@@ -1071,11 +1383,102 @@ public class NintendoDsRom
         return files.size();
     }
 
+    /**
+     * Moves the contents of all files in this ROM into the given store, outside of the Java heap, or back onto the
+     * heap if it is <code>null</code>.
+     * <p>While the files are in a store, every <code>byte[]</code> returned for one of them is a new copy, so changes
+     * made to it have to be saved with <code>setFile()</code>. The store isn't closed by this ROM, so it should be
+     * closed once the ROM isn't used anymore (or its files have been moved elsewhere) to release its memory.</p>
+     * <p>The sidecar index recognizes files by the identity of their arrays, so it is no longer used afterwards.</p>
+     * @param store a <code>PayloadStore</code>, or <code>null</code>
+     */
+    public void setPayloadStore(PayloadStore store)
+    {
+        if (store == getPayloadStore())
+            return;
+
+        List<byte[]> old = files;
+        files = store == null ? new ArrayList<>(old) : new PayloadList(store, null, old);
+        if (old instanceof PayloadList)
+            ((PayloadList) old).release();
+        index = null;
+        indexedSources = null;
+    }
+
+    /**
+     * Returns the store the contents of this ROM's files are kept in
+     * @return a <code>PayloadStore</code>, or <code>null</code> if they are on the heap
+     */
+    public PayloadStore getPayloadStore()
+    {
+        return files instanceof PayloadList ? ((PayloadList) files).getStore() : null;
+    }
+
     public String toString()
     {
         return String.format("ROM \"%s\" (%s)", title, gameCode);
     }
 
+    /**
+     * Creates a <code>Narc</code> from the file with the given ID.
+     * <p>If this ROM was read using an index and the file hasn't been replaced since, the NARC's tables are taken
+     * from the index instead of being parsed.</p>
+     * @param fileId an <code>int</code> containing the file ID of a NARC in the ROM
+     * @return a <code>Narc</code>
+     */
+    public Narc loadNarc(int fileId)
+    {
+        byte[] data = files.get(fileId);
+        if (index != null && fileId < indexedSources.size() && indexedSources.get(fileId) == getFileSource(fileId))
+        {
+            RomIndex.NarcTable table = index.getNarcTable(fileId);
+            if (table != null)
+            {
+                try {
+                    return new Narc(data, table);
+                }
+                catch (RuntimeException e) {
+                    // the NARC's tables are parsed instead if its entry in the index is corrupt
+                }
+            }
+        }
+        return new Narc(data);
+    }
+
+    /**
+     * Creates a <code>Narc</code> from the file with the given filename (path).
+     * @param filename a <code>String</code> path to a NARC in the ROM
+     * @return a <code>Narc</code>
+     * @see NintendoDsRom#loadNarc(int)
+     */
+    public Narc loadNarc(String filename)
+    {
+        int fid = filenames.getIdOf(filename);
+        if (fid == -1)
+        {
+            throw new RuntimeException("Cannot find file ID of \"" + filename + "\"");
+        }
+        return loadNarc(fid);
+    }
+
+    /**
+     * Returns an object which stands for the current contents of the file with the given ID, without copying them. The
+     * same object is returned until the file is replaced.
+     */
+    private Object getFileSource(int fileId)
+    {
+        if (files instanceof PayloadList)
+            return ((PayloadList) files).getPayload(fileId);
+        if (files instanceof MappedFileList)
+            return ((MappedFileList) files).getSource(fileId);
+        return files.get(fileId);
+    }
+
+    public RomIndex getIndex()
+    {
+        return index;
+    }
+
     public MainCodeFile loadArm9()
     {
         return new MainCodeFile(arm9, arm9LoadAddress, arm9Autoload);
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.util.Map;
+
+/**
+ * An index of the paths of all files within a <code>Fnt.Folder</code> (relative to it), mapping them to file IDs and
+ * file IDs back to them.
+ * <p>Paths are stored normalized: without leading, trailing or repeated "/" separators. Lookups normalize the
+ * requested path on the fly, so they don't allocate and take time proportional to the length of the path.</p>
+ */
+class PathIndex
+{
+    private final String[] paths;
+    private final int[] ids;
+    private final int mask;
+    private final String[] pathsById;
+    private final Fnt.Folder root;
+    private final long version;
+
+    /**
+     * Indexes all files within the given folder
+     * @param folder the <code>Fnt.Folder</code> to index
+     * @param root the root of the tree the folder is in
+     * @param version the modification count of the tree at the time this index is built
+     */
+    PathIndex(Fnt.Folder folder, Fnt.Folder root, long version)
+    {
+        this.root = root;
+        this.version = version;
+
+        int numFiles = countFiles(folder);
+        int capacity = Integer.highestOneBit(Math.max(numFiles, 1) * 2 - 1) * 2;
+        paths = new String[capacity];
+        ids = new int[capacity];
+        mask = capacity - 1;
+        pathsById = new String[maxId(folder) + 1];
+
+        addFolder(folder, new StringBuilder());
+    }
+
+    Fnt.Folder getRoot()
+    {
+        return root;
+    }
+
+    long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Finds the file ID of the file at the given path
+     * @param path a <code>CharSequence</code> containing a path using "/" as the separator
+     * @return an <code>int</code> containing the file ID, or <code>-1</code> if not found
+     */
+    int getIdOf(CharSequence path)
+    {
+        int hash = 0;
+        boolean pendingSeparator = false;
+        boolean empty = true;
+        for (int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+            if (c == '/')
+            {
+                pendingSeparator = !empty;
+                continue;
+            }
+            if (pendingSeparator)
+            {
+                hash = 31 * hash + '/';
+                pendingSeparator = false;
+            }
+            hash = 31 * hash + c;
+            empty = false;
+        }
+
+        for (int slot = spread(hash) & mask; paths[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (paths[slot].hashCode() == hash && matches(paths[slot], path))
+                return ids[slot];
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the path of the file with the given ID
+     * @param id an <code>int</code> containing the file ID
+     * @return a <code>String</code> containing the path to the file, or <code>null</code> if not found
+     */
+    String getPathOf(int id)
+    {
+        if (id < 0 || id >= pathsById.length)
+            return null;
+        return pathsById[id];
+    }
+
+    /**
+     * Returns the paths of all files, indexed by file ID
+     * @return a <code>String[]</code> which contains <code>null</code> for IDs which aren't in the indexed folder
+     */
+    String[] getPaths()
+    {
+        return pathsById.clone();
+    }
+
+    /**
+     * Checks whether the given path is equal to a normalized path once it's normalized as well
+     */
+    private static boolean matches(String normalized, CharSequence path)
+    {
+        int pos = 0;
+        boolean pendingSeparator = false;
+        for (int i = 0; i < path.length(); i++)
+        {
+            char c = path.charAt(i);
+            if (c == '/')
+            {
+                pendingSeparator = pos != 0;
+                continue;
+            }
+            if (pendingSeparator)
+            {
+                if (pos >= normalized.length() || normalized.charAt(pos++) != '/')
+                    return false;
+                pendingSeparator = false;
+            }
+            if (pos >= normalized.length() || normalized.charAt(pos++) != c)
+                return false;
+        }
+        return pos == normalized.length();
+    }
+
+    private static int spread(int hash)
+    {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int countFiles(Fnt.Folder folder)
+    {
+        folder.materialize();
+        int count = folder.files.size();
+        for (Fnt.Folder subfolder : folder.folders.values())
+            count += countFiles(subfolder);
+        return count;
+    }
+
+    private static int maxId(Fnt.Folder folder)
+    {
+        folder.materialize();
+        int max = folder.files.isEmpty() ? -1 : folder.firstId + folder.files.size() - 1;
+        for (Fnt.Folder subfolder : folder.folders.values())
+            max = Math.max(max, maxId(subfolder));
+        return max;
+    }
+
+    private void addFolder(Fnt.Folder folder, StringBuilder prefix)
+    {
+        folder.materialize();
+        int prefixLength = prefix.length();
+        for (int i = 0; i < folder.files.size(); i++)
+        {
+            prefix.append(folder.files.get(i));
+            add(prefix.toString(), folder.firstId + i);
+            prefix.setLength(prefixLength);
+        }
+
+        for (Map.Entry<String, Fnt.Folder> entry : folder.folders.entrySet())
+        {
+            // subfolders which were added since the tree was last indexed are linked to their folder here
+            entry.getValue().parent = folder;
+            prefix.append(entry.getKey()).append('/');
+            addFolder(entry.getValue(), prefix);
+            prefix.setLength(prefixLength);
+        }
+    }
+
+    private void add(String path, int id)
+    {
+        if (id >= 0 && pathsById[id] == null)
+            pathsById[id] = path;
+
+        int slot = spread(path.hashCode()) & mask;
+        while (paths[slot] != null)
+        {
+            // the first file with a given path is the one which is found, like when searching the folders directly
+            if (paths[slot].equals(path))
+                return;
+            slot = (slot + 1) & mask;
+        }
+        paths[slot] = path;
+        ids[slot] = id;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.framework.PayloadStore;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A list of file contents which are kept in a <code>PayloadStore</code> instead of on the heap.
+ * <p>Every element which is read is a new copy of the stored contents, so modifying it has no effect unless it is
+ * <code>set()</code> back into the list. For the same reason, looking up an array (<code>indexOf()</code>,
+ * <code>contains()</code>, <code>remove(Object)</code>) compares contents rather than identity. Contents which are
+ * replaced or removed are released from the store straight away.</p>
+ */
+class PayloadList extends AbstractList<byte[]> implements RandomAccess
+{
+    private final PayloadStore store;
+    private final Runnable onModified;
+    private final ArrayList<PayloadStore.Payload> payloads;
+
+    PayloadList(PayloadStore store, Runnable onModified, Collection<byte[]> contents)
+    {
+        this.store = store;
+        this.onModified = onModified;
+        payloads = new ArrayList<>(contents.size());
+        for (byte[] data : contents)
+            payloads.add(store(data));
+    }
+
+    PayloadStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * Returns the stored contents of an element. The same <code>Payload</code> is returned until the element is
+     * replaced, so it identifies the contents without copying them.
+     * @param index an <code>int</code> containing the index of the element
+     * @return a <code>Payload</code>, or <code>null</code> if the element is <code>null</code>
+     */
+    PayloadStore.Payload getPayload(int index)
+    {
+        return payloads.get(index);
+    }
+
+    /**
+     * Returns a read-only view of the stored contents of an element, without copying them onto the heap
+     * @param index an <code>int</code> containing the index of the element
+     * @return a <code>ByteBuffer</code>, or <code>null</code> if the element is <code>null</code>
+     */
+    ByteBuffer getBuffer(int index)
+    {
+        PayloadStore.Payload payload = payloads.get(index);
+        return payload == null ? null : payload.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the length of the stored contents of an element, without copying them onto the heap
+     * @param index an <code>int</code> containing the index of the element
+     * @return an <code>int</code>, which is <code>0</code> if the element is <code>null</code>
+     */
+    int getLength(int index)
+    {
+        PayloadStore.Payload payload = payloads.get(index);
+        return payload == null ? 0 : payload.length();
+    }
+
+    /**
+     * Releases the contents of all elements from the store, leaving this list empty without notifying the owner
+     */
+    void release()
+    {
+        for (PayloadStore.Payload payload : payloads)
+            release(payload);
+        payloads.clear();
+        modCount++;
+    }
+
+    private PayloadStore.Payload store(byte[] data)
+    {
+        return data == null ? null : store.put(data);
+    }
+
+    private static void release(PayloadStore.Payload payload)
+    {
+        if (payload != null)
+            payload.release();
+    }
+
+    private void modified()
+    {
+        if (onModified != null)
+            onModified.run();
+    }
+
+    @Override
+    public int size()
+    {
+        return payloads.size();
+    }
+
+    @Override
+    public byte[] get(int index)
+    {
+        PayloadStore.Payload payload = payloads.get(index);
+        return payload == null ? null : payload.get();
+    }
+
+    @Override
+    public byte[] set(int index, byte[] element)
+    {
+        PayloadStore.Payload old = payloads.set(index, store(element));
+        byte[] ret = old == null ? null : old.get();
+        release(old);
+        modified();
+        return ret;
+    }
+
+    @Override
+    public void add(int index, byte[] element)
+    {
+        payloads.add(index, store(element));
+        modCount++;
+        modified();
+    }
+
+    @Override
+    public byte[] remove(int index)
+    {
+        PayloadStore.Payload old = payloads.remove(index);
+        byte[] ret = old == null ? null : old.get();
+        release(old);
+        modCount++;
+        modified();
+        return ret;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        int index = indexOf(o);
+        if (index == -1)
+            return false;
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public void clear()
+    {
+        release();
+        modified();
+    }
+
+    @Override
+    public int indexOf(Object o)
+    {
+        for (int i = 0; i < payloads.size(); i++)
+        {
+            if (matches(payloads.get(i), o))
+                return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o)
+    {
+        for (int i = payloads.size() - 1; i >= 0; i--)
+        {
+            if (matches(payloads.get(i), o))
+                return i;
+        }
+        return -1;
+    }
+
+    private static boolean matches(PayloadStore.Payload payload, Object o)
+    {
+        if (payload == null || o == null)
+            return payload == null && o == null;
+        return o instanceof byte[] && payload.contentEquals((byte[]) o);
+    }
+
+    @Override
+    public boolean contains(Object o)
+    {
+        return indexOf(o) != -1;
+    }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.framework.BinaryWriter;
+import io.github.turtleisaac.nds4j.framework.MemBuf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A persistent index of the filesystem of a ROM file on disk, stored in a sidecar file next to the ROM.
+ * <p>The index contains the parsed filename table, the file allocation table, and the member tables (and filename tables)
+ * of every NARC inside the ROM, so that reopening an unchanged ROM doesn't need to parse any of them again.</p>
+ * <p>An index is keyed by the size, modification time and header CRC of the ROM file it was built from, and is considered
+ * stale (and ignored) if any of those no longer match.</p>
+ * @see NintendoDsRom#fromFile(File, boolean)
+ */
+public class RomIndex
+{
+    public static final String SIDECAR_EXTENSION = ".n4jidx";
+
+    private static final String MAGIC = "N4JX";
+    private static final int VERSION = 1;
+    private static final int HEADER_CRC_OFFSET = 0x15E;
+    private static final int NTR_HEADER_SIZE = 0x10;
+
+    private final long sourceLength;
+    private final long sourceModified;
+    private final int headerCrc;
+
+    private final int[] fileStarts;
+    private final int[] fileEnds;
+    private final int[] sortedFileIds;
+    private final ByteBuffer filenames; // serialized folder tree, see writeFolder()
+    private final HashMap<Integer, NarcTable> narcTables;
+
+    /**
+     * The member table (and filename table) of a NARC contained inside a ROM
+     */
+    static class NarcTable
+    {
+        final int[] starts; // relative to the start of the NARC
+        final int[] ends;
+        final ByteBuffer filenames;
+
+        NarcTable(int[] starts, int[] ends, ByteBuffer filenames)
+        {
+            this.starts = starts;
+            this.ends = ends;
+            this.filenames = filenames;
+        }
+
+        Fnt.Folder getFilenames()
+        {
+            return readFolder(filenames.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+        }
+    }
+
+    private RomIndex(long sourceLength, long sourceModified, int headerCrc, int[] fileStarts, int[] fileEnds, int[] sortedFileIds, ByteBuffer filenames, HashMap<Integer, NarcTable> narcTables)
+    {
+        this.sourceLength = sourceLength;
+        this.sourceModified = sourceModified;
+        this.headerCrc = headerCrc;
+        this.fileStarts = fileStarts;
+        this.fileEnds = fileEnds;
+        this.sortedFileIds = sortedFileIds;
+        this.filenames = filenames;
+        this.narcTables = narcTables;
+    }
+
+    /**
+     * Returns the path of the sidecar index file for the given ROM file
+     * @param romFile a <code>File</code> representing the path to a ROM file on disk
+     * @return a <code>File</code>
+     */
+    public static File getSidecarFile(File romFile)
+    {
+        return new File(romFile.getAbsolutePath() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Builds an index for a ROM which was just read from the given file on disk
+     * @param rom a <code>NintendoDsRom</code> freshly read from <code>romFile</code>
+     * @param romFile a <code>File</code> representing the path to the ROM file on disk
+     * @return a <code>RomIndex</code>
+     * @throws IOException if the attributes of the ROM file can't be read
+     */
+    static RomIndex of(NintendoDsRom rom, File romFile) throws IOException
+    {
+        int numFiles = rom.fat.length / 8;
+        int[] starts = new int[numFiles];
+        int[] ends = new int[numFiles];
+        ByteBuffer fat = ByteBuffer.wrap(rom.fat).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < numFiles; i++)
+        {
+            starts[i] = fat.getInt();
+            ends[i] = fat.getInt();
+        }
+
+        int[] sortedFileIds = rom.sortedFileIDs.stream().mapToInt(Integer::intValue).toArray();
+
+        HashMap<Integer, NarcTable> narcTables = new HashMap<>();
+        for (int i = 0; i < rom.files.size(); i++)
+        {
+            NarcTable table = readNarcTable(rom.files.get(i));
+            if (table != null)
+                narcTables.put(i, table);
+        }
+
+        return new RomIndex(romFile.length(), Files.getLastModifiedTime(romFile.toPath()).toMillis(), readHeaderCrc(romFile),
+                starts, ends, sortedFileIds, serializeFolder(rom.filenames), narcTables);
+    }
+
+    /**
+     * Reads the member table of the provided data, if it is a NARC
+     * @param data a <code>byte[]</code>
+     * @return a <code>NarcTable</code>, or <code>null</code> if the data isn't a valid NARC
+     */
+    private static NarcTable readNarcTable(byte[] data)
+    {
+        if (data.length < 0x1C || data[0] != 'N' || data[1] != 'A' || data[2] != 'R' || data[3] != 'C')
+            return null;
+
+        // only little endian NARCs are indexed
+        if ((data[4] & 0xFF) != 0xFF || (data[5] & 0xFF) != 0xFE)
+            return null;
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            int fatbSize = buf.getInt(NTR_HEADER_SIZE + 4);
+            int numFiles = buf.getInt(NTR_HEADER_SIZE + 8);
+            int fntbOffset = NTR_HEADER_SIZE + fatbSize;
+            int fntbSize = buf.getInt(fntbOffset + 4);
+            int rawDataOffset = fntbOffset + fntbSize + Narc.FIMG_HEADER_SIZE;
+
+            int[] starts = new int[numFiles];
+            int[] ends = new int[numFiles];
+            for (int i = 0; i < numFiles; i++)
+            {
+                starts[i] = rawDataOffset + buf.getInt(NTR_HEADER_SIZE + Narc.FATB_HEADER_SIZE + 8*i);
+                ends[i] = rawDataOffset + buf.getInt(NTR_HEADER_SIZE + Narc.FATB_HEADER_SIZE + 8*i + 4);
+                if (starts[i] > ends[i] || ends[i] > data.length)
+                    return null;
+            }
+
+            Fnt.Folder filenames = Fnt.load(Arrays.copyOfRange(data, fntbOffset + Narc.FNTB_HEADER_SIZE, fntbOffset + fntbSize));
+            return new NarcTable(starts, ends, serializeFolder(filenames));
+        }
+        catch (RuntimeException e) {
+            // not actually a NARC, or a malformed one - it just won't be indexed
+            return null;
+        }
+    }
+
+    /**
+     * Loads the sidecar index of the given ROM file, if there is one and it is up-to-date.
+     * <p>The sidecar file is memory-mapped rather than read.</p>
+     * @param romFile a <code>File</code> representing the path to a ROM file on disk
+     * @return a <code>RomIndex</code>, or <code>null</code> if there is no index for the ROM file or the index is stale
+     */
+    public static RomIndex load(File romFile)
+    {
+        File sidecar = getSidecarFile(romFile);
+        if (!sidecar.isFile() || !romFile.isFile())
+            return null;
+
+        try (FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ))
+        {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer buf = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[4];
+            buf.get(magic);
+            if (!MAGIC.equals(new String(magic, StandardCharsets.ISO_8859_1)) || buf.getInt() != VERSION)
+                return null;
+
+            long sourceLength = buf.getLong();
+            long sourceModified = buf.getLong();
+            int headerCrc = buf.getInt();
+
+            if (sourceLength != romFile.length()
+                    || sourceModified != Files.getLastModifiedTime(romFile.toPath()).toMillis()
+                    || headerCrc != readHeaderCrc(romFile))
+                return null;
+
+            int numFiles = buf.getInt();
+            int[] starts = readInts(buf, numFiles);
+            int[] ends = readInts(buf, numFiles);
+            for (int i = 0; i < numFiles; i++)
+            {
+                if (starts[i] < 0 || starts[i] > ends[i] || ends[i] > sourceLength)
+                    return null;
+            }
+            int[] sortedFileIds = readInts(buf, buf.getInt());
+            for (int id : sortedFileIds)
+            {
+                if (id < 0 || id >= numFiles)
+                    return null;
+            }
+            ByteBuffer filenames = readBlock(buf);
+
+            // each NARC takes up at least its file ID, member count and filename block length
+            int numNarcs = checkCount(buf, buf.getInt(), 12);
+            HashMap<Integer, NarcTable> narcTables = new HashMap<>(numNarcs * 2);
+            for (int i = 0; i < numNarcs; i++)
+            {
+                int fileId = buf.getInt();
+                if (fileId < 0 || fileId >= numFiles)
+                    return null;
+                int numMembers = buf.getInt();
+                int[] memberStarts = readInts(buf, numMembers);
+                int[] memberEnds = readInts(buf, numMembers);
+                narcTables.put(fileId, new NarcTable(memberStarts, memberEnds, readBlock(buf)));
+            }
+
+            return new RomIndex(sourceLength, sourceModified, headerCrc, starts, ends, sortedFileIds, filenames, narcTables);
+        }
+        catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            // a truncated or otherwise unreadable index is treated the same as a stale one
+            return null;
+        }
+    }
+
+    /**
+     * Writes this index to the sidecar file of the given ROM file
+     * @param romFile a <code>File</code> representing the path to the ROM file on disk this index was built from
+     * @throws IOException if the sidecar file could not be written
+     */
+    public void save(File romFile) throws IOException
+    {
+        MemBuf buf = MemBuf.create();
+        MemBuf.MemBufWriter writer = buf.writer();
+
+        writer.writeString(MAGIC);
+        writer.writeInt(VERSION);
+        writer.writeInt((int) sourceLength).writeInt((int) (sourceLength >>> 32));
+        writer.writeInt((int) sourceModified).writeInt((int) (sourceModified >>> 32));
+        writer.writeInt(headerCrc);
+
+        writer.writeInt(fileStarts.length);
+        writeInts(writer, fileStarts);
+        writeInts(writer, fileEnds);
+        writer.writeInt(sortedFileIds.length);
+        writeInts(writer, sortedFileIds);
+        writeBlock(writer, filenames);
+
+        writer.writeInt(narcTables.size());
+        for (Map.Entry<Integer, NarcTable> entry : narcTables.entrySet())
+        {
+            NarcTable table = entry.getValue();
+            writer.writeInt(entry.getKey());
+            writer.writeInt(table.starts.length);
+            writeInts(writer, table.starts);
+            writeInts(writer, table.ends);
+            writeBlock(writer, table.filenames);
+        }
+
+        BinaryWriter.writeFile(getSidecarFile(romFile), buf.reader().getBuffer());
+    }
+
+    private static int readHeaderCrc(File romFile) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(romFile.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer crc = ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN);
+            if (channel.read(crc, HEADER_CRC_OFFSET) != 2)
+                return -1;
+            return crc.getShort(0) & 0xFFFF;
+        }
+    }
+
+    /**
+     * Whether this index was built from the file on disk as it currently is
+     * @param romFile a <code>File</code> representing the path to a ROM file on disk
+     * @return <code>true</code> if the size, modification time and header CRC of the file match this index
+     */
+    public boolean matches(File romFile)
+    {
+        try {
+            return sourceLength == romFile.length()
+                    && sourceModified == Files.getLastModifiedTime(romFile.toPath()).toMillis()
+                    && headerCrc == readHeaderCrc(romFile);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    int getNumFiles()
+    {
+        return fileStarts.length;
+    }
+
+    int getFileStart(int id)
+    {
+        return fileStarts[id];
+    }
+
+    int getFileEnd(int id)
+    {
+        return fileEnds[id];
+    }
+
+    ArrayList<Integer> getSortedFileIds()
+    {
+        ArrayList<Integer> ret = new ArrayList<>(sortedFileIds.length);
+        for (int id : sortedFileIds)
+            ret.add(id);
+        return ret;
+    }
+
+    /**
+     * Creates a new copy of the ROM's root folder from the index
+     * @return a <code>Folder</code>
+     */
+    Fnt.Folder getFilenames()
+    {
+        return readFolder(filenames.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    NarcTable getNarcTable(int fileId)
+    {
+        return narcTables.get(fileId);
+    }
+
+    /* folder tree serialization: a pre-order walk, with each folder stored as
+     * name, firstId, file count, file names, folder count, subfolders */
+
+    private static ByteBuffer serializeFolder(Fnt.Folder folder)
+    {
+        MemBuf buf = MemBuf.create();
+        writeFolder(buf.writer(), folder.name, folder);
+        return ByteBuffer.wrap(buf.reader().getBuffer());
+    }
+
+    private static void writeFolder(MemBuf.MemBufWriter writer, String name, Fnt.Folder folder)
+    {
+        folder.materialize();
+        writeName(writer, name);
+        writer.writeInt(folder.firstId);
+        writer.writeInt(folder.files.size());
+        for (String file : folder.files)
+        {
+            writeName(writer, file);
+        }
+        writer.writeInt(folder.folders.size());
+        for (Map.Entry<String, Fnt.Folder> entry : folder.folders.entrySet())
+        {
+            writeFolder(writer, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static Fnt.Folder readFolder(ByteBuffer buf)
+    {
+        // reading the tree doesn't count as a modification of it
+        Fnt.Folder folder = new Fnt.Folder(readName(buf));
+        folder.firstId = buf.getInt();
+        int numFiles = checkCount(buf, buf.getInt(), 2);
+        for (int i = 0; i < numFiles; i++)
+        {
+            ((TrackedList<String>) folder.files).addUntracked(readName(buf));
+        }
+        int numFolders = checkCount(buf, buf.getInt(), 14);
+        for (int i = 0; i < numFolders; i++)
+        {
+            Fnt.Folder sub = readFolder(buf);
+            sub.parent = folder;
+            ((TrackedMap<String, Fnt.Folder>) folder.folders).putUntracked(sub.name, sub);
+        }
+        return folder;
+    }
+
+    private static void writeName(MemBuf.MemBufWriter writer, String name)
+    {
+        byte[] bytes = name == null ? new byte[0] : name.getBytes(StandardCharsets.UTF_8);
+        writer.writeShort((short) bytes.length);
+        writer.write(bytes);
+    }
+
+    private static String readName(ByteBuffer buf)
+    {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(MemBuf.MemBufWriter writer, int[] values)
+    {
+        for (int value : values)
+        {
+            writer.writeInt(value);
+        }
+    }
+
+    /**
+     * Checks that a count read from an index can be right, so that a corrupt index can't make anything huge be allocated
+     * @param buf the <code>ByteBuffer</code> the counted elements are read from
+     * @param count an <code>int</code> containing the count
+     * @param minElementSize an <code>int</code> containing the least number of bytes each element takes up
+     * @return the count
+     * @exception IllegalArgumentException if the remaining bytes can't hold that many elements
+     */
+    private static int checkCount(ByteBuffer buf, int count, int minElementSize)
+    {
+        if (count < 0 || count > buf.remaining() / minElementSize)
+            throw new IllegalArgumentException("Corrupt index: " + count + " elements can't fit in " + buf.remaining() + " bytes");
+        return count;
+    }
+
+    private static int[] readInts(ByteBuffer buf, int count)
+    {
+        int[] ret = new int[checkCount(buf, count, 4)];
+        buf.asIntBuffer().get(ret);
+        ((java.nio.Buffer) buf).position(buf.position() + count * 4);
+        return ret;
+    }
+
+    private static void writeBlock(MemBuf.MemBufWriter writer, ByteBuffer block)
+    {
+        byte[] bytes = new byte[block.remaining()];
+        block.duplicate().get(bytes);
+        writer.writeInt(bytes.length);
+        writer.write(bytes);
+    }
+
+    private static ByteBuffer readBlock(ByteBuffer buf)
+    {
+        int length = checkCount(buf, buf.getInt(), 1);
+        ByteBuffer block = buf.slice();
+        // casts keep these calls binary-compatible with Java 8's Buffer API
+        ((java.nio.Buffer) block).limit(length);
+        ((java.nio.Buffer) buf).position(buf.position() + length);
+        return block;
+    }
+}
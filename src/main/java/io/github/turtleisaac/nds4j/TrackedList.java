@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * An <code>ArrayList</code> which notifies its owner whenever it is modified, so that anything the owner has derived
+ * from its contents (such as hashes or indexes) can be invalidated.
+ * <p>Modifications made to the elements themselves can't be detected.</p>
+ * @param <E> the type of elements in this list
+ */
+class TrackedList<E> extends ArrayList<E>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient Runnable onModified;
+
+    TrackedList(Runnable onModified)
+    {
+        super();
+        this.onModified = onModified;
+    }
+
+    TrackedList(Runnable onModified, Collection<? extends E> elements)
+    {
+        super(elements);
+        this.onModified = onModified;
+    }
+
+    /**
+     * Adds an element without notifying the owner, for when the list is being filled in by the owner itself
+     */
+    void addUntracked(E element)
+    {
+        super.add(element);
+    }
+
+    private void modified()
+    {
+        // the owner may not be done constructing this list yet, and a deserialized copy has no owner
+        if (onModified != null)
+            onModified.run();
+    }
+
+    @Override
+    public E set(int index, E element)
+    {
+        E ret = super.set(index, element);
+        modified();
+        return ret;
+    }
+
+    @Override
+    public boolean add(E element)
+    {
+        modified();
+        return super.add(element);
+    }
+
+    @Override
+    public void add(int index, E element)
+    {
+        super.add(index, element);
+        modified();
+    }
+
+    @Override
+    public E remove(int index)
+    {
+        E ret = super.remove(index);
+        modified();
+        return ret;
+    }
+
+    @Override
+    public boolean remove(Object o)
+    {
+        modified();
+        return super.remove(o);
+    }
+
+    @Override
+    public void clear()
+    {
+        super.clear();
+        modified();
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c)
+    {
+        modified();
+        return super.addAll(c);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends E> c)
+    {
+        modified();
+        return super.addAll(index, c);
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c)
+    {
+        modified();
+        return super.removeAll(c);
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c)
+    {
+        modified();
+        return super.retainAll(c);
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super E> filter)
+    {
+        modified();
+        return super.removeIf(filter);
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<E> operator)
+    {
+        super.replaceAll(operator);
+        modified();
+    }
+
+    @Override
+    public void sort(Comparator<? super E> c)
+    {
+        super.sort(c);
+        modified();
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex)
+    {
+        super.removeRange(fromIndex, toIndex);
+        modified();
+    }
+
+    /**
+     * <code>ArrayList</code>'s own sublists write to its backing array directly, so the sublist returned here goes
+     * through the methods of this list instead.
+     */
+    @Override
+    public List<E> subList(int fromIndex, int toIndex)
+    {
+        return new AbstractList<E>() {
+            @Override
+            public E get(int index)
+            {
+                return TrackedList.this.get(index);
+            }
+
+            @Override
+            public int size()
+            {
+                return TrackedList.this.size();
+            }
+
+            @Override
+            public E set(int index, E element)
+            {
+                return TrackedList.this.set(index, element);
+            }
+
+            @Override
+            public void add(int index, E element)
+            {
+                TrackedList.this.add(index, element);
+            }
+
+            @Override
+            public E remove(int index)
+            {
+                return TrackedList.this.remove(index);
+            }
+        }.subList(fromIndex, toIndex);
+    }
+}
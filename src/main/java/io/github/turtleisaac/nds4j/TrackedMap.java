@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A <code>HashMap</code> which notifies its owner whenever it is modified, so that anything the owner has derived
+ * from its contents (such as indexes) can be invalidated.
+ * <p>Modifications made through the key, value and entry views are detected as well, but modifications made to the
+ * values themselves can't be.</p>
+ * @param <K> the type of keys in this map
+ * @param <V> the type of values in this map
+ */
+class TrackedMap<K, V> extends HashMap<K, V>
+{
+    private static final long serialVersionUID = 1L;
+
+    private final transient Runnable onModified;
+
+    TrackedMap(Runnable onModified)
+    {
+        super();
+        this.onModified = onModified;
+    }
+
+    TrackedMap(Runnable onModified, Map<? extends K, ? extends V> m)
+    {
+        super(m);
+        this.onModified = onModified;
+    }
+
+    /**
+     * Adds a mapping without notifying the owner, for when the map is being filled in by the owner itself
+     */
+    void putUntracked(K key, V value)
+    {
+        super.put(key, value);
+    }
+
+    private void modified()
+    {
+        // the owner may not be done constructing this map yet, and a deserialized copy has no owner
+        if (onModified != null)
+            onModified.run();
+    }
+
+    @Override
+    public V put(K key, V value)
+    {
+        modified();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m)
+    {
+        modified();
+        super.putAll(m);
+    }
+
+    @Override
+    public V remove(Object key)
+    {
+        modified();
+        return super.remove(key);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value)
+    {
+        modified();
+        return super.remove(key, value);
+    }
+
+    @Override
+    public void clear()
+    {
+        modified();
+        super.clear();
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value)
+    {
+        modified();
+        return super.putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue)
+    {
+        modified();
+        return super.replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public V replace(K key, V value)
+    {
+        modified();
+        return super.replace(key, value);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function)
+    {
+        modified();
+        super.replaceAll(function);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction)
+    {
+        modified();
+        return super.computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        modified();
+        return super.computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction)
+    {
+        modified();
+        return super.compute(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction)
+    {
+        modified();
+        return super.merge(key, value, remappingFunction);
+    }
+
+    /*
+     * HashMap's own views remove entries (and set values) without going through the methods above, so the views
+     * returned here report those modifications as well.
+     */
+
+    @Override
+    public Set<K> keySet()
+    {
+        Set<K> keySet = super.keySet();
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator()
+            {
+                return new TrackedIterator<>(keySet.iterator());
+            }
+
+            @Override
+            public int size()
+            {
+                return keySet.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return keySet.contains(o);
+            }
+
+            @Override
+            public boolean remove(Object o)
+            {
+                modified();
+                return keySet.remove(o);
+            }
+
+            @Override
+            public void clear()
+            {
+                TrackedMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Collection<V> values()
+    {
+        Collection<V> values = super.values();
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator()
+            {
+                return new TrackedIterator<>(values.iterator());
+            }
+
+            @Override
+            public int size()
+            {
+                return values.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return values.contains(o);
+            }
+
+            @Override
+            public void clear()
+            {
+                TrackedMap.this.clear();
+            }
+        };
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        Set<Map.Entry<K, V>> entrySet = super.entrySet();
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                Iterator<Map.Entry<K, V>> iterator = entrySet.iterator();
+                return new TrackedIterator<Map.Entry<K, V>>(iterator) {
+                    @Override
+                    public Map.Entry<K, V> next()
+                    {
+                        Map.Entry<K, V> entry = iterator.next();
+                        return new Map.Entry<K, V>() {
+                            @Override
+                            public K getKey()
+                            {
+                                return entry.getKey();
+                            }
+
+                            @Override
+                            public V getValue()
+                            {
+                                return entry.getValue();
+                            }
+
+                            @Override
+                            public V setValue(V value)
+                            {
+                                modified();
+                                return entry.setValue(value);
+                            }
+
+                            @Override
+                            public boolean equals(Object o)
+                            {
+                                return entry.equals(o);
+                            }
+
+                            @Override
+                            public int hashCode()
+                            {
+                                return entry.hashCode();
+                            }
+
+                            @Override
+                            public String toString()
+                            {
+                                return entry.toString();
+                            }
+                        };
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return entrySet.size();
+            }
+
+            @Override
+            public boolean contains(Object o)
+            {
+                return entrySet.contains(o);
+            }
+
+            @Override
+            public boolean remove(Object o)
+            {
+                modified();
+                return entrySet.remove(o);
+            }
+
+            @Override
+            public void clear()
+            {
+                TrackedMap.this.clear();
+            }
+        };
+    }
+
+    private class TrackedIterator<T> implements Iterator<T>
+    {
+        private final Iterator<T> iterator;
+
+        private TrackedIterator(Iterator<T> iterator)
+        {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public T next()
+        {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            modified();
+            iterator.remove();
+        }
+    }
+}
@@ -30,6 +30,8 @@ import java.util.concurrent.locks.ReentrantLock;
  * Please note that for improved support of tools developed using Nds4j and Nds4j-ToolUI, this class (and all of its subclasses)
  * extend <code>ReentrantLock</code>. If developing a tool with a GUI, please obey the rules of using locks to ensure
  * thread-safety, as this is shared mutable data.
+ * <p>Threads which only read the data don't need the lock: each can open its own reader with <code>newReader()</code>,
+ * which has its own position and isn't affected by the lock resetting the buffer's positions.</p>
  * @see ReentrantLock
  */
 public abstract class CodeBinary extends ReentrantLock
@@ -65,6 +67,17 @@ public abstract class CodeBinary extends ReentrantLock
         return physicalAddressBuffer;
     }
 
+    /**
+     * Opens a reader over this code binary's data (by physical address) with its own position, starting at 0.
+     * <p>Any number of these can be used at the same time from different threads without holding the lock, as long
+     * as no thread is writing to the data.</p>
+     * @return a <code>MemBuf.MemBufReader</code>
+     */
+    public MemBuf.MemBufReader newReader()
+    {
+        return physicalAddressBuffer.newReader();
+    }
+
     void setPhysicalAddressBuffer(MemBuf physicalAddressBuffer)
     {
         this.physicalAddressBuffer = physicalAddressBuffer;
@@ -21,14 +21,38 @@ package io.github.turtleisaac.nds4j.framework;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
 
-public class BinaryWriter {
+/**
+ * A little-endian writer for a file on disk, which collects writes in a buffer and hands them to a
+ * <code>FileChannel</code> in large blocks.
+ * <p>An atomic writer writes to a temporary file next to the target instead, and only replaces the target with it
+ * once <code>commit()</code> is called, so the target is never left half-written. Closing an atomic writer without
+ * committing it discards everything which was written.</p>
+ */
+public class BinaryWriter implements WritableByteChannel {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024*64;
 
-    private final RandomAccessFile raf;
-    private final byte[] buf = new byte[8];
+    private final FileChannel channel;
+    private final ByteBuffer buf;
+    private final Path target;
+    private final Path temp; // null unless atomic
+    private long bufStart; // the position in the file the buffer starts at
+    private long end; // the end of the bytes written so far
+    private long preallocated;
+    private boolean committed;
 
     public static void writeFile(File file, int... bytes) throws IOException {
         BinaryWriter writer = new BinaryWriter(file);
@@ -36,11 +60,13 @@ public class BinaryWriter {
         writer.close();
     }
 
+    /**
+     * Writes the given bytes to a file, replacing its contents. The bytes are handed to the file system in a single
+     * write, without being buffered first.
+     */
     public static void writeFile(File file, byte... bytes) throws IOException
     {
-        BinaryWriter writer = new BinaryWriter(file);
-        writer.write(bytes);
-        writer.close();
+        writeFile(file.toPath(), bytes);
     }
 
     public static void writeFile(String file, byte... bytes) throws IOException
@@ -50,12 +76,30 @@ public class BinaryWriter {
 
     public static void writeFile(Path file, byte... bytes) throws IOException
     {
-        writeFile(file.toFile(),bytes);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap(bytes), 0);
+        }
+    }
+
+    /**
+     * Writes the given bytes to a temporary file and then moves it over the given file, so that the file either keeps
+     * its old contents or has all of the new ones, even if writing is interrupted
+     */
+    public static void writeFileAtomically(File file, byte... bytes) throws IOException
+    {
+        try (BinaryWriter writer = new BinaryWriter(file.toPath(), 0, true)) {
+            writer.write(ByteBuffer.wrap(bytes));
+            writer.commit();
+        }
+    }
+
+    public static void writeFileAtomically(String file, byte... bytes) throws IOException
+    {
+        writeFileAtomically(new File(file), bytes);
     }
 
     public BinaryWriter(File file) throws IOException {
-        raf = new RandomAccessFile(file, "rw");
-        raf.setLength(0);
+        this(file.toPath(), DEFAULT_BUFFER_SIZE, false);
     }
 
     public BinaryWriter(String fileName) throws IOException
@@ -64,29 +108,117 @@ public class BinaryWriter {
     }
 
     public BinaryWriter(Path file) throws IOException {
-        this(file.toFile());
+        this(file, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    /**
+     * Opens a file for writing, replacing its contents
+     * @param file a <code>Path</code> to the file
+     * @param bufferSize an <code>int</code> containing the number of bytes to collect before writing them to the file,
+     *                   where 0 means every write goes straight to the file
+     * @param atomic whether the file should only be replaced once <code>commit()</code> is called
+     * @throws IOException if the file can't be opened
+     */
+    public BinaryWriter(Path file, int bufferSize, boolean atomic) throws IOException {
+        target = file;
+        if (atomic) {
+            temp = createTempFile(file);
+            FileChannel opened = null;
+            try {
+                opened = FileChannel.open(temp, StandardOpenOption.WRITE);
+                // the file is already open, so it can still be written if the target is read-only
+                copyPermissions(file, temp);
+            }
+            catch (IOException | RuntimeException e) {
+                if (opened != null)
+                    opened.close();
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            channel = opened;
+        }
+        else {
+            temp = null;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+        buf = ByteBuffer.allocate(Math.max(bufferSize, 8)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Creates an empty file next to the given one. Unlike <code>Files.createTempFile()</code>, which only lets the owner
+     * read it, the file gets the default permissions for new files, so the target ends up with them if it is new.
+     */
+    private static Path createTempFile(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        while (true) {
+            Path temp = dir.resolve("." + file.getFileName() + Long.toUnsignedString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+            try {
+                return Files.createFile(temp);
+            }
+            catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    /**
+     * Gives the temporary file the permissions of the file it will replace, if the file system has POSIX permissions
+     */
+    private static void copyPermissions(Path target, Path temp) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(temp, PosixFileAttributeView.class);
+        if (view != null && Files.exists(target))
+            view.setPermissions(Files.getPosixFilePermissions(target));
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long pos) throws IOException {
+        while (src.hasRemaining()) {
+            pos += channel.write(src, pos);
+        }
+    }
+
+    /**
+     * Writes out whatever is in the buffer
+     */
+    public void flush() throws IOException {
+        ((java.nio.Buffer) buf).flip();
+        writeFully(channel, buf, bufStart);
+        bufStart += buf.limit();
+        end = Math.max(end, bufStart);
+        ((java.nio.Buffer) buf).clear();
     }
 
+    private ByteBuffer require(int space) throws IOException {
+        if (buf.remaining() < space)
+            flush();
+        return buf;
+    }
 
+    /**
+     * Extends the file to the given length up front, for when its final size is known. If fewer bytes end up being
+     * written, the file is cut back down to the bytes which were when the writer is closed.
+     * @param length a <code>long</code> containing the expected length of the file
+     */
+    public void preallocate(long length) throws IOException {
+        if (length > channel.size())
+            writeFully(channel, ByteBuffer.allocate(1), length - 1);
+        preallocated = Math.max(preallocated, length);
+    }
 
     public void setPosition(long pos) throws IOException {
-        raf.seek(pos);
+        flush();
+        bufStart = pos;
     }
     
     public long getPosition() throws IOException {
-        return raf.getFilePointer();
+        return bufStart + buf.position();
     }
     
     public void skipBytes(int bytes) throws IOException {
-        raf.skipBytes(bytes);
+        setPosition(getPosition() + bytes);
     }
 
     public void writeInt(int i) throws IOException {
-        buf[0] = (byte) (i & 0xff);
-        buf[1] = (byte) ((i >> 8) & 0xff);
-        buf[2] = (byte) ((i >> 16) & 0xff);
-        buf[3] = (byte) ((i >> 24) & 0xff);
-        raf.write(buf, 0, 4);
+        require(4).putInt(i);
     }
 
     public void writeInts(int... i) throws IOException {
@@ -96,25 +228,15 @@ public class BinaryWriter {
     }
 
     public void writeLong(long i) throws IOException {
-        buf[0] = (byte) (i & 0xff);
-        buf[1] = (byte) ((i >> 8) & 0xff);
-        buf[2] = (byte) ((i >> 16) & 0xff);
-        buf[3] = (byte) ((i >> 24) & 0xff);
-        buf[4] = (byte) ((i >> 32) & 0xff);
-        buf[5] = (byte) ((i >> 40) & 0xff);
-        buf[6] = (byte) ((i >> 48) & 0xff);
-        buf[7] = (byte) ((i >> 56) & 0xff);
-        raf.write(buf, 0, 8);
+        require(8).putLong(i);
     }
 
     public void writeShort(short s) throws IOException {
-        buf[0] = (byte) (s & 0xff);
-        buf[1] = (byte) ((s >> 8) & 0xff);
-        raf.write(buf, 0, 2);
+        require(2).putShort(s);
     }
 
     public void writeByte(byte b) throws IOException {
-        raf.write(b);
+        require(1).put(b);
     }
 
     public void writeByte(int b) throws IOException
@@ -124,7 +246,7 @@ public class BinaryWriter {
 
     public void writeBytes(int... bytes) throws IOException {
         for (int b : bytes) {
-            raf.write(b);
+            writeByte((byte) b);
         }
     }
 
@@ -141,31 +263,104 @@ public class BinaryWriter {
     }
 
     public void write(byte... bytes) throws IOException {
-        raf.write(bytes);
+        write(bytes, 0, bytes.length);
     }
 
     public void write(byte[] bytes, int offset, int length) throws IOException {
-        raf.write(bytes, offset, length);
+        write(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Writes the remaining bytes of the given buffer. Small writes are collected in this writer's buffer, while large
+     * ones go straight to the file.
+     * @param src a <code>ByteBuffer</code>
+     * @return an <code>int</code> containing the number of bytes written
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int length = src.remaining();
+        if (length <= buf.remaining()) {
+            buf.put(src);
+        }
+        else {
+            flush();
+            if (length <= buf.capacity() / 2) {
+                buf.put(src);
+            }
+            else {
+                writeFully(channel, src, bufStart);
+                bufStart += length;
+                end = Math.max(end, bufStart);
+            }
+        }
+        return length;
     }
 
     public void writeByteNumTimes(byte b, int num) throws IOException {
-        byte[] bytes= new byte[num];
-        Arrays.fill(bytes,b);
-        write(bytes);
+        while (num > 0) {
+            int n = Math.min(num, buf.capacity());
+            ByteBuffer buffer = require(n);
+            for (int i = 0; i < n; i++)
+                buffer.put(b);
+            num -= n;
+        }
     }
 
     public void writeByteNumTimes(int b, int num) throws IOException {
-        byte[] bytes= new byte[num];
-        Arrays.fill(bytes,(byte) b);
-        write(bytes);
+        writeByteNumTimes((byte) b, num);
     }
 
     public void writePadding(int num) throws IOException {
         writeByteNumTimes((byte) 0x00,num);
     }
 
+    /**
+     * Writes out what is left in the buffer and, for an atomic writer, replaces the target file with what was written
+     */
+    public void commit() throws IOException {
+        flush();
+        if (preallocated > end)
+            channel.truncate(end);
+        if (temp != null) {
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        committed = true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Closes the file. A writer which isn't atomic writes out what is left in its buffer first, while an atomic one
+     * which wasn't committed deletes what it wrote.
+     */
+    @Override
     public void close() throws IOException {
-        raf.close();
+        if (temp == null) {
+            if (!channel.isOpen())
+                return;
+            try {
+                if (!committed)
+                    commit();
+            }
+            finally {
+                channel.close();
+            }
+        }
+        else {
+            channel.close();
+            if (!committed)
+                Files.deleteIfExists(temp);
+        }
     }
 
     public void write(int i) {
@@ -20,8 +20,14 @@
 package io.github.turtleisaac.nds4j.framework;
 
 import java.io.*;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 
+/**
+ * A forward-only reader for a file on disk. <code>ChannelReader</code> should be preferred for parsing files, since it
+ * can seek in both directions.
+ */
 public class Buffer {
 
     private static final int INITIAL_SIZE = 1024*64;
@@ -57,15 +63,23 @@ public class Buffer {
 
     }
 
+    /**
+     * Reads the entire contents of a file with a single read, since its size is known ahead of time
+     * @param file a <code>String</code> containing the path to the file
+     * @return a <code>byte[]</code>
+     */
     public static byte[] readFile(String file)
     {
-        Buffer buffer= new Buffer(file);
-        return buffer.readRemainder();
+        return readFile(Paths.get(file));
     }
 
     public static byte[] readFile(Path file)
     {
-        return readFile(file.toFile().getAbsolutePath());
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     public int readInt() {
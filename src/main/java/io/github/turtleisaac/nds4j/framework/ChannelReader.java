@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A seekable reader for a file on disk, which can move to any position (including backwards) without reopening the
+ * file.
+ * <p>Reads go through a window of the file, which is filled with positioned reads from a <code>FileChannel</code>
+ * starting at the first byte which didn't fit in it yet; the size of the window is the amount of readahead. Reads
+ * which are larger than the window skip it and go straight into the returned array. Alternatively, the whole file can
+ * be memory-mapped with <code>map()</code>, in which case the window is the entire file.</p>
+ * <p>Multi-byte values are read little-endian unless the byte order is changed with <code>order()</code>.</p>
+ */
+public class ChannelReader implements Closeable
+{
+    public static final int DEFAULT_READAHEAD = 1024*64;
+
+    private final FileChannel channel;
+    private final long length;
+    private final boolean mapped;
+    private ByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    private ChannelReader(FileChannel channel, ByteBuffer window, boolean mapped) throws IOException
+    {
+        this.channel = channel;
+        this.length = channel.size();
+        this.window = window.order(ByteOrder.LITTLE_ENDIAN);
+        this.mapped = mapped;
+        if (!mapped)
+            ((java.nio.Buffer) window).limit(0);
+    }
+
+    /**
+     * Opens a file for reading, with the default amount of readahead
+     * @param file a <code>Path</code> to the file
+     * @return a <code>ChannelReader</code>
+     * @throws IOException if the file can't be opened
+     */
+    public static ChannelReader open(Path file) throws IOException
+    {
+        return open(file, DEFAULT_READAHEAD);
+    }
+
+    /**
+     * Opens a file for reading
+     * @param file a <code>Path</code> to the file
+     * @param readahead an <code>int</code> containing the number of bytes to read from the file at once
+     * @return a <code>ChannelReader</code>
+     * @throws IOException if the file can't be opened
+     */
+    public static ChannelReader open(Path file, int readahead) throws IOException
+    {
+        if (readahead < 8)
+            throw new RuntimeException("Readahead must be at least 8 bytes: " + readahead);
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new ChannelReader(channel, ByteBuffer.allocate(readahead), false);
+    }
+
+    /**
+     * Opens a file for reading by mapping all of it into memory, which avoids copying it into a window but keeps the
+     * mapping alive until the reader is garbage collected
+     * @param file a <code>Path</code> to the file
+     * @return a <code>ChannelReader</code>
+     * @throws IOException if the file can't be opened or mapped
+     */
+    public static ChannelReader map(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new RuntimeException("File is too large to be mapped: " + file);
+            return new ChannelReader(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), true);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Moves to the given position in the file, which may be before the current one
+     * @param position a <code>long</code> containing the position
+     */
+    public void setPosition(long position)
+    {
+        if (position < 0 || position > length)
+            throw new RuntimeException("Position " + position + " is outside of the file, which is " + length + " bytes long");
+        this.position = position;
+    }
+
+    public void skip(long bytes)
+    {
+        setPosition(position + bytes);
+    }
+
+    public ByteOrder order()
+    {
+        return window.order();
+    }
+
+    /**
+     * Sets the byte order which multi-byte values are read in from now on (little-endian by default)
+     * @param order a <code>ByteOrder</code>
+     * @return this <code>ChannelReader</code>
+     */
+    public ChannelReader order(ByteOrder order)
+    {
+        window.order(order);
+        return this;
+    }
+
+    /**
+     * Makes sure the given number of bytes starting at the current position are in the window, filling it from the
+     * file if they aren't
+     * @return the offset of the current position in the window
+     */
+    private int require(int size)
+    {
+        if (length - position < size)
+            throw new RuntimeException("Want " + size + " bytes but only " + (length - position) + " bytes remain. Current position: " + position);
+
+        if (position < windowStart || position + size > windowStart + window.limit())
+        {
+            windowStart = position;
+            ((java.nio.Buffer) window).clear();
+            try
+            {
+                while (window.hasRemaining() && channel.read(window, windowStart + window.position()) != -1);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+            ((java.nio.Buffer) window).flip();
+        }
+        return (int) (position - windowStart);
+    }
+
+    public int readByte()
+    {
+        int offset = require(1);
+        position++;
+        return window.get(offset) & 0xff;
+    }
+
+    public short readShort()
+    {
+        int offset = require(2);
+        position += 2;
+        return window.getShort(offset);
+    }
+
+    public int readUInt16()
+    {
+        return readShort() & 0xffff;
+    }
+
+    public int readInt()
+    {
+        int offset = require(4);
+        position += 4;
+        return window.getInt(offset);
+    }
+
+    public long readUInt32()
+    {
+        return readInt() & 0xffffffffL;
+    }
+
+    public String readString(int size)
+    {
+        return new String(readBytes(size), StandardCharsets.UTF_8);
+    }
+
+    public byte[] readBytes(int size)
+    {
+        byte[] ret = new byte[size];
+        if (mapped || size <= window.capacity())
+        {
+            int offset = require(size);
+            ((java.nio.Buffer) window).position(offset);
+            window.get(ret);
+            ((java.nio.Buffer) window).position(0);
+        }
+        else
+        {
+            if (length - position < size)
+                throw new RuntimeException("Want " + size + " bytes but only " + (length - position) + " bytes remain. Current position: " + position);
+            ByteBuffer dst = ByteBuffer.wrap(ret);
+            try
+            {
+                while (dst.hasRemaining() && channel.read(dst, position + dst.position()) != -1);
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+        position += size;
+        return ret;
+    }
+
+    public byte[] readTo(long offset)
+    {
+        return readBytes((int) (offset - position));
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+}
@@ -19,8 +19,26 @@
 
 package io.github.turtleisaac.nds4j.framework;
 
+import java.util.Arrays;
+
 public class CodeCompression
 {
+    /**
+     * The default maximum number of earlier positions which are compared with each position while looking for matches
+     */
+    public static final int DEFAULT_EFFORT = 32;
+
+    /**
+     * The number of bytes at the start of ARM9 binaries which are never compressed
+     */
+    public static final int ARM9_UNCOMPRESSED_SIZE = 0x4000;
+
+    private static final int MIN_LENGTH = 3;
+    private static final int MAX_LENGTH = 0x12;
+    private static final int MIN_DISP = 3;
+    private static final int MAX_DISP = 0x1002;
+    private static final int HASH_BITS = 15;
+
     /**
      * Attempt to decompress data that was compressed using code compression. This is
      *     the inverse of compress().
@@ -34,7 +52,7 @@ public class CodeCompression
         if (appendedDataAmount == -1) // probably isn't compressed
             return data;
 
-        MemBuf dataBuf = MemBuf.create(data);
+        MemBuf dataBuf = MemBuf.wrap(data);
         MemBuf.MemBufReader reader = dataBuf.reader();
 
         int dataSize = data.length;
@@ -192,6 +210,163 @@ public class CodeCompression
         return outputBuf.reader().getBuffer();
     }
 
+    /**
+     * Compress data using code compression, with the default effort. This is the inverse of decompress().
+     * @param data a <code>byte[]</code>
+     * @return a <code>byte[]</code> containing the compressed data, or the same data if compressing it wouldn't make it
+     * smaller
+     */
+    public static byte[] compress(byte[] data)
+    {
+        return compress(data, false, DEFAULT_EFFORT);
+    }
+
+    /**
+     * Compress data using code compression, with the default effort. This is the inverse of decompress().
+     * @param data a <code>byte[]</code>
+     * @param isArm9 whether the data is an ARM9 binary, in which case its first 0x4000 bytes are left uncompressed
+     * @return a <code>byte[]</code> containing the compressed data, or the same data if compressing it wouldn't make it
+     * smaller
+     */
+    public static byte[] compress(byte[] data, boolean isArm9)
+    {
+        return compress(data, isArm9, DEFAULT_EFFORT);
+    }
+
+    /**
+     * Compress data using code compression. This is the inverse of decompress().
+     * <p>The end of the data is compressed, and the part before it is left uncompressed. The split is placed where the
+     * result is smallest, which also makes sure the data can be decompressed in place (as the game does) without the
+     * decompressed data overwriting compressed data which hasn't been read yet.</p>
+     * @param data a <code>byte[]</code>
+     * @param isArm9 whether the data is an ARM9 binary, in which case its first 0x4000 bytes are left uncompressed
+     * @param effort the maximum number of earlier positions which are compared with each position while looking for
+     *               matches. Higher values find longer matches, but take longer.
+     * @return a <code>byte[]</code> containing the compressed data, or the same data if compressing it wouldn't make it
+     * smaller
+     */
+    public static byte[] compress(byte[] data, boolean isArm9, int effort)
+    {
+        if (effort < 1)
+            throw new RuntimeException("Invalid compression effort: " + effort);
+
+        int start = isArm9 ? Math.min(ARM9_UNCOMPRESSED_SIZE, data.length) : 0;
+        int rawLength = data.length - start;
+
+        // the data is decompressed from its end towards its start, so it is compressed in that order too
+        byte[] raw = new byte[rawLength];
+        for (int i = 0; i < rawLength; i++)
+            raw[i] = data[data.length - 1 - i];
+
+        // hash chains over 3-byte prefixes, so only positions which could start a match are compared
+        int[] head = new int[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+        int[] prev = new int[rawLength];
+
+        byte[] pak = new byte[rawLength + (rawLength + 7) / 8];
+        int pakLength = 0;
+        int flagsPos = 0;
+        int mask = 0;
+
+        // the amount of compressed data to keep, and the amount of data before it which is left uncompressed
+        int bestPakLength = 0;
+        int bestRawLength = rawLength;
+
+        int pos = 0;
+        while (pos < rawLength)
+        {
+            if (mask == 0)
+            {
+                flagsPos = pakLength++;
+                pak[flagsPos] = 0;
+                mask = 0x80;
+            }
+
+            int bestLength = 0;
+            int bestDisp = 0;
+            if (pos + MIN_LENGTH <= rawLength)
+            {
+                int limit = Math.min(MAX_LENGTH, rawLength - pos);
+                int chain = effort;
+                for (int candidate = head[hash(raw, pos)]; candidate != -1 && pos - candidate <= MAX_DISP && chain-- > 0; candidate = prev[candidate])
+                {
+                    // the two closest positions can't be referred to, and a candidate can only be better than the
+                    // best match so far if it also matches the byte after it
+                    if (pos - candidate < MIN_DISP || raw[candidate + bestLength] != raw[pos + bestLength])
+                        continue;
+
+                    int length = 0;
+                    while (length < limit && raw[candidate + length] == raw[pos + length])
+                        length++;
+                    if (length > bestLength)
+                    {
+                        bestLength = length;
+                        bestDisp = pos - candidate;
+                        if (length == limit)
+                            break;
+                    }
+                }
+            }
+
+            if (bestLength >= MIN_LENGTH)
+            {
+                pak[flagsPos] |= mask;
+                int disp = bestDisp - MIN_DISP;
+                pak[pakLength++] = (byte) ((bestLength - MIN_LENGTH) << 4 | disp >> 8);
+                pak[pakLength++] = (byte) disp;
+            }
+            else
+            {
+                bestLength = 1;
+                pak[pakLength++] = raw[pos];
+            }
+            mask >>= 1;
+
+            for (int end = pos + bestLength; pos < end; pos++)
+            {
+                if (pos + MIN_LENGTH <= rawLength)
+                {
+                    int hash = hash(raw, pos);
+                    prev[pos] = head[hash];
+                    head[hash] = pos;
+                }
+            }
+
+            if (pakLength + rawLength - pos < bestPakLength + bestRawLength)
+            {
+                bestPakLength = pakLength;
+                bestRawLength = rawLength - pos;
+            }
+        }
+
+        int uncompressedLength = start + bestRawLength;
+        int headerLength = 8 + (4 - (uncompressedLength + bestPakLength) % 4) % 4;
+        int length = uncompressedLength + bestPakLength + headerLength;
+        if (bestPakLength == 0 || length >= data.length)
+            return data;
+        if (bestPakLength + headerLength > 0xFFFFFF)
+            throw new RuntimeException(String.format("Data is too large to compress (0x%x > 0x%x)", bestPakLength + headerLength, 0xFFFFFF));
+
+        byte[] compressed = new byte[bestPakLength];
+        for (int i = 0; i < bestPakLength; i++)
+            compressed[i] = pak[bestPakLength - 1 - i];
+
+        MemBuf buf = MemBuf.create(length);
+        MemBuf.MemBufWriter writer = buf.writer();
+        writer.write(data, 0, uncompressedLength);
+        writer.write(compressed);
+        writer.writeByteNumTimes((byte) 0xFF, headerLength - 8);
+        writer.writeInt(headerLength << 24 | (bestPakLength + headerLength));
+        writer.writeInt(data.length - length); // extraSize
+        return buf.reader().getBuffer();
+    }
+
+    private static int hash(byte[] data, int pos)
+    {
+        int value = (data[pos] & 0xFF) << 16 | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF);
+        return (value * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
     /**
      * Attempt to check if there's any appended data at the end of the given data
      * @param data a <code>byte[]</code> containing LZ compressed data
@@ -208,7 +383,7 @@ public class CodeCompression
                 return -1;
             }
 
-            MemBuf dataBuf = MemBuf.create(data);
+            MemBuf dataBuf = MemBuf.wrap(data);
             MemBuf.MemBufReader reader = dataBuf.reader();
 
             reader.setPosition(data.length - possibleAmt - 8);
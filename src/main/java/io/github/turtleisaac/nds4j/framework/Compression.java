@@ -0,0 +1,751 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Support for the BIOS compression formats which are used for regular files (as opposed to <code>CodeCompression</code>,
+ * which is only used for code binaries).
+ * <p>All formats start with a 4-byte header containing the type of compression in the lowest byte and the decompressed
+ * size in the upper 3 bytes.</p>
+ */
+public class Compression
+{
+    /**
+     * The largest decompressed size which fits in the header
+     */
+    private static final int MAX_DECOMPRESSED_SIZE = 0xFFFFFF;
+
+    /**
+     * The largest number of unused bytes which may follow compressed data when it's decompressed with a known format.
+     * Detection is stricter, and only accepts zeroes padding the data to a multiple of 4 bytes.
+     */
+    private static final int MAX_TRAILING_BYTES = 0x10;
+
+    public enum Codec
+    {
+        NONE(0),
+        LZ10(0x10),
+        LZ11(0x11),
+        HUFFMAN4(0x24),
+        HUFFMAN8(0x28),
+        RLE(0x30);
+
+        public final int id;
+
+        Codec(int id)
+        {
+            this.id = id;
+        }
+
+        /**
+         * Returns the <code>Codec</code> with the given header type byte
+         * @param id an <code>int</code> containing the type byte
+         * @return a <code>Codec</code>, or <code>null</code> if there is none with the given type
+         */
+        public static Codec fromId(int id)
+        {
+            for (Codec codec : values())
+            {
+                if (codec != NONE && codec.id == id)
+                    return codec;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Determines which format the given data is compressed with.
+     * <p>The only way to be sure is to decompress the data, so if the result of decompressing it is needed as well,
+     * use <code>tryDecompress()</code> instead.</p>
+     * @param data a <code>byte[]</code>
+     * @return a <code>Codec</code>, which is <code>NONE</code> if the data doesn't seem to be compressed
+     */
+    public static Codec detect(byte[] data)
+    {
+        return tryDecompress(data) == null ? Codec.NONE : Codec.fromId(data[0] & 0xFF);
+    }
+
+    /**
+     * Attempt to decompress data that was compressed using any of the supported formats. This is the inverse of
+     *     compress().
+     * @param data a <code>byte[]</code>
+     * @return a <code>byte[]</code> containing the decompressed data, or the same data if the data was not compressed
+     */
+    public static byte[] decompress(byte[] data)
+    {
+        byte[] decompressed = tryDecompress(data);
+        return decompressed == null ? data : decompressed;
+    }
+
+    /**
+     * Attempt to decompress data that was compressed using any of the supported formats.
+     * <p>Uncompressed data can easily start with a valid header by chance, so data is only treated as compressed if it
+     * has a non-zero decompressed size and is used up exactly, apart from zeroes padding it to a multiple of 4 bytes.</p>
+     * @param data a <code>byte[]</code>
+     * @return a <code>byte[]</code> containing the decompressed data, or <code>null</code> if the data was not compressed
+     */
+    public static byte[] tryDecompress(byte[] data)
+    {
+        if (data == null || data.length < 4)
+            return null;
+
+        Codec codec = Codec.fromId(data[0] & 0xFF);
+        if (codec == null || readUInt24(data, 1) == 0)
+            return null;
+
+        try {
+            return decompress(data, codec, true);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Decompress data that was compressed using the specified format.
+     * @param data a <code>byte[]</code>
+     * @param codec the <code>Codec</code> the data was compressed with
+     * @return a <code>byte[]</code> containing the decompressed data
+     * @exception RuntimeException if the data isn't valid for the specified format
+     */
+    public static byte[] decompress(byte[] data, Codec codec)
+    {
+        return decompress(data, codec, false);
+    }
+
+    private static byte[] decompress(byte[] data, Codec codec, boolean detecting)
+    {
+        if (codec == Codec.NONE)
+            return data;
+
+        if (data.length < 4 || (data[0] & 0xFF) != codec.id)
+            throw new RuntimeException("Data isn't " + codec + " compressed");
+
+        int size = readUInt24(data, 1);
+        int pos = 4;
+
+        byte[] out = new byte[size];
+        switch (codec)
+        {
+            case LZ10:
+            case LZ11:
+                pos = decompressLz(data, pos, out, codec == Codec.LZ11);
+                break;
+            case HUFFMAN4:
+            case HUFFMAN8:
+                pos = decompressHuffman(data, pos, out, codec == Codec.HUFFMAN4 ? 4 : 8);
+                break;
+            case RLE:
+                pos = decompressRle(data, pos, out);
+                break;
+        }
+
+        if (detecting ? !isPadding(data, pos) : data.length - pos > MAX_TRAILING_BYTES)
+            throw new RuntimeException(String.format("Compressed data ended early (%d bytes left over)", data.length - pos));
+
+        return out;
+    }
+
+    /**
+     * Compress data using the specified format.
+     * @param data a <code>byte[]</code>
+     * @param codec the <code>Codec</code> to compress the data with
+     * @return a <code>byte[]</code> containing the compressed data, padded to a multiple of 4 bytes
+     * @exception RuntimeException if the data is too large to be compressed
+     */
+    public static byte[] compress(byte[] data, Codec codec)
+    {
+        if (codec == Codec.NONE)
+            return data;
+
+        if (data.length > MAX_DECOMPRESSED_SIZE)
+            throw new RuntimeException(String.format("Data is too large to compress (0x%x > 0x%x)", data.length, MAX_DECOMPRESSED_SIZE));
+
+        MemBuf buf = MemBuf.create();
+        MemBuf.MemBufWriter writer = buf.writer();
+        writer.writeInt(codec.id | (data.length << 8));
+
+        switch (codec)
+        {
+            case LZ10:
+            case LZ11:
+                compressLz(data, writer, codec == Codec.LZ11);
+                break;
+            case HUFFMAN4:
+            case HUFFMAN8:
+                compressHuffman(data, writer, codec == Codec.HUFFMAN4 ? 4 : 8);
+                break;
+            case RLE:
+                compressRle(data, writer);
+                break;
+        }
+
+        writer.writeByteNumTimes((byte) 0, (4 - writer.getPosition() % 4) % 4);
+        return buf.reader().getBuffer();
+    }
+
+    /**
+     * Checks whether everything from the given position on only pads the data to a multiple of 4 bytes with zeroes
+     */
+    private static boolean isPadding(byte[] data, int pos)
+    {
+        if (pos == data.length)
+            return true;
+        if (data.length - pos > 3 || data.length % 4 != 0)
+            return false;
+        for (int i = pos; i < data.length; i++)
+        {
+            if (data[i] != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static int readUInt24(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16;
+    }
+
+    private static void checkAvailable(byte[] data, int pos, int amount)
+    {
+        if (pos + amount > data.length)
+            throw new RuntimeException("Not enough data to decompress");
+    }
+
+    /*
+     * LZ10 and LZ11 share their structure: a flag byte precedes every 8 blocks, and its bits (most significant first)
+     * determine whether each block is a literal byte or a back-reference into the already decompressed data.
+     *
+     * LZ10 back-references are 2 bytes: 4 bits of (length - 3) and 12 bits of (displacement - 1).
+     * LZ11 back-references use the upper 4 bits of the first byte to select one of three sizes:
+     *   0: 3 bytes, 8 bits of (length - 0x11) and 12 bits of (displacement - 1)
+     *   1: 4 bytes, 16 bits of (length - 0x111) and 12 bits of (displacement - 1)
+     *   2-F: 2 bytes, the selector is (length - 1), followed by 12 bits of (displacement - 1)
+     *
+     * The BIOS decompresses LZ10 data straight into VRAM, which can only be written 16 bits at a time, so a
+     * back-reference to the byte right before it would read a byte which hasn't been written yet. The LZ10 encoder
+     * therefore never uses a displacement of 1, like Nintendo's own encoder.
+     */
+
+    private static int decompressLz(byte[] data, int pos, byte[] out, boolean lz11)
+    {
+        int outPos = 0;
+        while (outPos < out.length)
+        {
+            checkAvailable(data, pos, 1);
+            int flags = data[pos++] & 0xFF;
+            for (int mask = 0x80; mask != 0 && outPos < out.length; mask >>= 1)
+            {
+                if ((flags & mask) == 0)
+                {
+                    checkAvailable(data, pos, 1);
+                    out[outPos++] = data[pos++];
+                    continue;
+                }
+
+                checkAvailable(data, pos, 2);
+                int b0 = data[pos] & 0xFF;
+                int length;
+                int disp;
+                if (!lz11)
+                {
+                    length = (b0 >> 4) + 3;
+                    disp = ((b0 & 0xF) << 8 | (data[pos + 1] & 0xFF)) + 1;
+                    pos += 2;
+                }
+                else if (b0 >> 4 == 0)
+                {
+                    checkAvailable(data, pos, 3);
+                    length = ((b0 & 0xF) << 4 | (data[pos + 1] & 0xFF) >> 4) + 0x11;
+                    disp = (((data[pos + 1] & 0xF) << 8) | (data[pos + 2] & 0xFF)) + 1;
+                    pos += 3;
+                }
+                else if (b0 >> 4 == 1)
+                {
+                    checkAvailable(data, pos, 4);
+                    length = ((b0 & 0xF) << 12 | (data[pos + 1] & 0xFF) << 4 | (data[pos + 2] & 0xFF) >> 4) + 0x111;
+                    disp = (((data[pos + 2] & 0xF) << 8) | (data[pos + 3] & 0xFF)) + 1;
+                    pos += 4;
+                }
+                else
+                {
+                    length = (b0 >> 4) + 1;
+                    disp = ((b0 & 0xF) << 8 | (data[pos + 1] & 0xFF)) + 1;
+                    pos += 2;
+                }
+
+                if (disp > outPos)
+                    throw new RuntimeException(String.format("Cannot go back more than already written: attempted to go " +
+                            "back %d bytes when only %d bytes have been written.", disp, outPos));
+
+                length = Math.min(length, out.length - outPos);
+                for (int i = 0; i < length; i++, outPos++)
+                {
+                    out[outPos] = out[outPos - disp];
+                }
+            }
+        }
+        return pos;
+    }
+
+    private static final int LZ_WINDOW_SIZE = 0x1000;
+    private static final int LZ_MIN_LENGTH = 3;
+    private static final int LZ_HASH_BITS = 15;
+    private static final int LZ_MAX_CHAIN = 256;
+
+    private static void compressLz(byte[] data, MemBuf.MemBufWriter writer, boolean lz11)
+    {
+        int maxLength = lz11 ? 0x10110 : 0x12;
+        int minDisp = lz11 ? 1 : 2;
+
+        // hash chains over 3-byte prefixes, so only positions which could start a match are compared
+        int[] head = new int[1 << LZ_HASH_BITS];
+        Arrays.fill(head, -1);
+        int[] prev = new int[data.length];
+
+        byte[] block = new byte[1 + 8 * 4];
+        int pos = 0;
+        while (pos < data.length)
+        {
+            int flags = 0;
+            int blockSize = 1;
+            for (int i = 0; i < 8 && pos < data.length; i++)
+            {
+                int bestLength = 0;
+                int bestDisp = 0;
+                if (pos + LZ_MIN_LENGTH <= data.length)
+                {
+                    int limit = Math.min(maxLength, data.length - pos);
+                    int chain = LZ_MAX_CHAIN;
+                    for (int candidate = head[lzHash(data, pos)]; candidate != -1 && pos - candidate <= LZ_WINDOW_SIZE && chain-- > 0; candidate = prev[candidate])
+                    {
+                        if (pos - candidate < minDisp)
+                            continue;
+                        int length = 0;
+                        while (length < limit && data[candidate + length] == data[pos + length])
+                            length++;
+                        if (length > bestLength)
+                        {
+                            bestLength = length;
+                            bestDisp = pos - candidate;
+                            if (length == limit)
+                                break;
+                        }
+                    }
+                }
+
+                if (bestLength >= LZ_MIN_LENGTH)
+                {
+                    flags |= 0x80 >> i;
+                    int disp = bestDisp - 1;
+                    if (!lz11)
+                    {
+                        block[blockSize++] = (byte) ((bestLength - 3) << 4 | disp >> 8);
+                        block[blockSize++] = (byte) disp;
+                    }
+                    else if (bestLength <= 0x10)
+                    {
+                        block[blockSize++] = (byte) ((bestLength - 1) << 4 | disp >> 8);
+                        block[blockSize++] = (byte) disp;
+                    }
+                    else if (bestLength <= 0x110)
+                    {
+                        int length = bestLength - 0x11;
+                        block[blockSize++] = (byte) (length >> 4);
+                        block[blockSize++] = (byte) (length << 4 | disp >> 8);
+                        block[blockSize++] = (byte) disp;
+                    }
+                    else
+                    {
+                        int length = bestLength - 0x111;
+                        block[blockSize++] = (byte) (0x10 | length >> 12);
+                        block[blockSize++] = (byte) (length >> 4);
+                        block[blockSize++] = (byte) (length << 4 | disp >> 8);
+                        block[blockSize++] = (byte) disp;
+                    }
+                }
+                else
+                {
+                    bestLength = 1;
+                    block[blockSize++] = data[pos];
+                }
+
+                for (int end = pos + bestLength; pos < end; pos++)
+                {
+                    if (pos + LZ_MIN_LENGTH <= data.length)
+                    {
+                        int hash = lzHash(data, pos);
+                        prev[pos] = head[hash];
+                        head[hash] = pos;
+                    }
+                }
+            }
+            block[0] = (byte) flags;
+            writer.write(block, 0, blockSize);
+        }
+    }
+
+    private static int lzHash(byte[] data, int pos)
+    {
+        int value = (data[pos] & 0xFF) << 16 | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF);
+        return (value * 0x9E3779B1) >>> (32 - LZ_HASH_BITS);
+    }
+
+    /*
+     * Huffman compressed data consists of a tree table followed by a bitstream of 32-bit words, which are read most
+     * significant bit first. The first byte of the table contains (table size / 2) - 1, and the second byte is the root
+     * node. Every node is a byte containing a 6-bit offset to its pair of children, relative to its own (2-byte aligned)
+     * position + 2, and 2 flags (bit 7 for the first child, bit 6 for the second) which are set if the child is a leaf.
+     * Leaves contain the data value (a nibble or a byte). In 4-bit mode, the lower nibble of each byte comes first.
+     */
+
+    private static int decompressHuffman(byte[] data, int pos, byte[] out, int bitDepth)
+    {
+        checkAvailable(data, pos, 2);
+        int treeStart = pos;
+        int treeLength = ((data[treeStart] & 0xFF) + 1) * 2;
+        checkAvailable(data, treeStart, treeLength);
+        pos = treeStart + treeLength;
+
+        int outPos = 0;
+        boolean highNibble = false;
+        int node = treeStart + 1;
+        int nodeValue = data[node] & 0xFF;
+        while (outPos < out.length)
+        {
+            checkAvailable(data, pos, 4);
+            int word = (data[pos] & 0xFF) | (data[pos + 1] & 0xFF) << 8 | (data[pos + 2] & 0xFF) << 16 | (data[pos + 3] & 0xFF) << 24;
+            pos += 4;
+
+            for (int bit = 31; bit >= 0 && outPos < out.length; bit--)
+            {
+                int direction = (word >>> bit) & 1;
+                int child = ((node - treeStart) & ~1) + (nodeValue & 0x3F) * 2 + 2 + direction;
+                if (child >= treeLength)
+                    throw new RuntimeException("Huffman tree node points outside of the tree");
+
+                boolean isLeaf = (nodeValue & (0x80 >> direction)) != 0;
+                node = treeStart + child;
+                nodeValue = data[node] & 0xFF;
+                if (!isLeaf)
+                    continue;
+
+                if (bitDepth == 8)
+                {
+                    out[outPos++] = (byte) nodeValue;
+                }
+                else if (!highNibble)
+                {
+                    out[outPos] = (byte) (nodeValue & 0xF);
+                    highNibble = true;
+                }
+                else
+                {
+                    out[outPos++] |= (byte) ((nodeValue & 0xF) << 4);
+                    highNibble = false;
+                }
+
+                node = treeStart + 1;
+                nodeValue = data[node] & 0xFF;
+            }
+        }
+        return pos;
+    }
+
+    private static void compressHuffman(byte[] data, MemBuf.MemBufWriter writer, int bitDepth)
+    {
+        int numSymbols = 1 << bitDepth;
+        int[] symbols = new int[bitDepth == 8 ? data.length : data.length * 2];
+        for (int i = 0; i < data.length; i++)
+        {
+            if (bitDepth == 8)
+            {
+                symbols[i] = data[i] & 0xFF;
+            }
+            else
+            {
+                symbols[i * 2] = data[i] & 0xF;
+                symbols[i * 2 + 1] = (data[i] & 0xFF) >> 4;
+            }
+        }
+
+        long[] frequencies = new long[numSymbols];
+        for (int symbol : symbols)
+            frequencies[symbol]++;
+
+        // the optimal tree may have too many nodes on one level for the 6-bit child offsets to reach all of their
+        // children, in which case increasingly skewed (and narrower) trees are used instead. A skew of 0 builds a chain,
+        // which can always be encoded.
+        byte[] table = null;
+        HuffmanNode root = null;
+        for (int skew : new int[] {1, 2, 4, 8, 0})
+        {
+            root = buildHuffmanTree(frequencies, skew);
+            table = layOutHuffmanTree(root);
+            if (table != null)
+                break;
+        }
+
+        byte[][] codes = new byte[numSymbols][];
+        assignHuffmanCodes(root, new byte[0], codes);
+
+        writer.write(table);
+
+        int word = 0;
+        int bitsInWord = 0;
+        for (int symbol : symbols)
+        {
+            for (byte bit : codes[symbol])
+            {
+                word = word << 1 | bit;
+                if (++bitsInWord == 32)
+                {
+                    writer.writeInt(word);
+                    word = 0;
+                    bitsInWord = 0;
+                }
+            }
+        }
+        if (bitsInWord != 0)
+            writer.writeInt(word << (32 - bitsInWord));
+    }
+
+    private static class HuffmanNode implements Comparable<HuffmanNode>
+    {
+        private final double weight;
+        private final int symbol;
+        private final int order; // makes the tree deterministic when weights are equal
+        private final HuffmanNode zero;
+        private final HuffmanNode one;
+
+        private HuffmanNode(double weight, int symbol, int order, HuffmanNode zero, HuffmanNode one)
+        {
+            this.weight = weight;
+            this.symbol = symbol;
+            this.order = order;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        private boolean isLeaf()
+        {
+            return zero == null;
+        }
+
+        @Override
+        public int compareTo(HuffmanNode o)
+        {
+            int comparison = Double.compare(weight, o.weight);
+            return comparison != 0 ? comparison : Integer.compare(order, o.order);
+        }
+    }
+
+    private static HuffmanNode buildHuffmanTree(long[] frequencies, int skew)
+    {
+        ArrayList<HuffmanNode> leaves = new ArrayList<>();
+        int order = 0;
+        for (int symbol = 0; symbol < frequencies.length; symbol++)
+        {
+            if (frequencies[symbol] != 0)
+                leaves.add(new HuffmanNode(skew == 0 ? frequencies[symbol] : Math.pow(frequencies[symbol], skew), symbol, order++, null, null));
+        }
+
+        // the root always needs two children
+        while (leaves.size() < 2)
+        {
+            int symbol = leaves.isEmpty() || leaves.get(0).symbol != 0 ? 0 : 1;
+            leaves.add(new HuffmanNode(0, symbol, order++, null, null));
+        }
+
+        if (skew == 0)
+        {
+            leaves.sort(null);
+            HuffmanNode node = leaves.get(0);
+            for (int i = 1; i < leaves.size(); i++)
+                node = new HuffmanNode(0, -1, order++, node, leaves.get(i));
+            return node;
+        }
+
+        PriorityQueue<HuffmanNode> queue = new PriorityQueue<>(leaves);
+        while (queue.size() > 1)
+        {
+            HuffmanNode zero = queue.poll();
+            HuffmanNode one = queue.poll();
+            queue.add(new HuffmanNode(zero.weight + one.weight, -1, order++, zero, one));
+        }
+        return queue.poll();
+    }
+
+    /**
+     * Lays out the tree table breadth-first. The children of nodes which have fewer internal children are placed first,
+     * so that the internal nodes of each level end up close to the level after it.
+     * @return a <code>byte[]</code> containing the table, or <code>null</code> if the tree can't be encoded
+     */
+    private static byte[] layOutHuffmanTree(HuffmanNode root)
+    {
+        ArrayList<HuffmanNode> level = new ArrayList<>();
+        level.add(root);
+
+        // slots are indices into the table: slot 0 is the size byte and slot 1 is the root
+        ArrayList<Integer> levelSlots = new ArrayList<>();
+        levelSlots.add(1);
+        int nextSlot = 2;
+        byte[] table = new byte[1024];
+
+        while (!level.isEmpty())
+        {
+            ArrayList<HuffmanNode> nextLevel = new ArrayList<>();
+            ArrayList<Integer> nextLevelSlots = new ArrayList<>();
+            ArrayList<HuffmanNode> internal = new ArrayList<>();
+            ArrayList<Integer> internalSlots = new ArrayList<>();
+            for (int numInternalChildren = 0; numInternalChildren <= 2; numInternalChildren++)
+            {
+                for (int i = 0; i < level.size(); i++)
+                {
+                    HuffmanNode node = level.get(i);
+                    if (!node.isLeaf() && (node.zero.isLeaf() ? 0 : 1) + (node.one.isLeaf() ? 0 : 1) == numInternalChildren)
+                    {
+                        internal.add(node);
+                        internalSlots.add(levelSlots.get(i));
+                    }
+                }
+            }
+
+            for (int i = 0; i < internal.size(); i++)
+            {
+                HuffmanNode node = internal.get(i);
+                int slot = internalSlots.get(i);
+                int pairSlot = nextSlot;
+                nextSlot += 2;
+                int offset = (pairSlot - (slot & ~1) - 2) / 2;
+                if (offset > 0x3F || pairSlot + 1 >= table.length)
+                    return null;
+
+                int value = offset;
+                if (node.zero.isLeaf())
+                    value |= 0x80;
+                if (node.one.isLeaf())
+                    value |= 0x40;
+                table[slot] = (byte) value;
+
+                HuffmanNode[] children = {node.zero, node.one};
+                for (int direction = 0; direction < 2; direction++)
+                {
+                    HuffmanNode child = children[direction];
+                    if (child.isLeaf())
+                        table[pairSlot + direction] = (byte) child.symbol;
+                    nextLevel.add(child);
+                    nextLevelSlots.add(pairSlot + direction);
+                }
+            }
+
+            level = nextLevel;
+            levelSlots = nextLevelSlots;
+        }
+
+        int tableLength = (nextSlot + 3) & ~3;
+        table[0] = (byte) (tableLength / 2 - 1);
+        return Arrays.copyOf(table, tableLength);
+    }
+
+    private static void assignHuffmanCodes(HuffmanNode node, byte[] code, byte[][] codes)
+    {
+        if (node.isLeaf())
+        {
+            codes[node.symbol] = code;
+            return;
+        }
+
+        byte[] zero = Arrays.copyOf(code, code.length + 1);
+        byte[] one = Arrays.copyOf(code, code.length + 1);
+        one[code.length] = 1;
+        assignHuffmanCodes(node.zero, zero, codes);
+        assignHuffmanCodes(node.one, one, codes);
+    }
+
+    /*
+     * RLE compressed data consists of blocks which start with a flag byte. If bit 7 of the flag is set, the next byte
+     * is repeated (flag & 0x7F) + 3 times, otherwise the next (flag & 0x7F) + 1 bytes are copied as they are.
+     */
+
+    private static int decompressRle(byte[] data, int pos, byte[] out)
+    {
+        int outPos = 0;
+        while (outPos < out.length)
+        {
+            checkAvailable(data, pos, 2);
+            int flag = data[pos++] & 0xFF;
+            if ((flag & 0x80) != 0)
+            {
+                int length = Math.min((flag & 0x7F) + 3, out.length - outPos);
+                Arrays.fill(out, outPos, outPos + length, data[pos++]);
+                outPos += length;
+            }
+            else
+            {
+                int length = Math.min((flag & 0x7F) + 1, out.length - outPos);
+                checkAvailable(data, pos, length);
+                System.arraycopy(data, pos, out, outPos, length);
+                pos += length;
+                outPos += length;
+            }
+        }
+        return pos;
+    }
+
+    private static void compressRle(byte[] data, MemBuf.MemBufWriter writer)
+    {
+        int pos = 0;
+        int literalStart = 0;
+        while (pos <= data.length)
+        {
+            int runLength = 1;
+            while (pos < data.length && pos + runLength < data.length && runLength < 0x82 && data[pos + runLength] == data[pos])
+                runLength++;
+
+            boolean isRun = pos < data.length && runLength >= 3;
+            // flush the pending literals when a run starts, when there are too many, or at the end of the data
+            if (literalStart < pos && (isRun || pos == data.length || pos - literalStart == 0x80))
+            {
+                writer.writeByte((byte) (pos - literalStart - 1));
+                writer.write(data, literalStart, pos - literalStart);
+                literalStart = pos;
+            }
+
+            if (pos == data.length)
+                break;
+
+            if (isRun)
+            {
+                writer.writeByte((byte) (0x80 | (runLength - 3)));
+                writer.writeByte(data[pos]);
+                pos += runLength;
+                literalStart = pos;
+            }
+            else
+            {
+                pos++;
+            }
+        }
+    }
+}
@@ -41,14 +41,7 @@ public class Endianness
      */
     public static int swapEndianness(int num)
     {
-        byte[] bytes = new byte[] {
-                (byte) (num & 0xff),
-                (byte) ((num >> 8) & 0xff),
-                (byte) ((num >> 16) & 0xff),
-                (byte) ((num >> 24) & 0xff)
-        };
-
-        return (bytes[3] & 0xff) | ( (bytes[2] & 0xff) << 8) | ( (bytes[1] & 0xff) << 16) | ( (bytes[0] & 0xff) << 24);
+        return Integer.reverseBytes(num);
     }
 
     /**
@@ -58,13 +51,6 @@ public class Endianness
      */
     public static short swapEndianness(short num)
     {
-        byte[] bytes = new byte[] {
-                (byte) (num & 0xff),
-                (byte) ((num >> 8) & 0xff)
-        };
-
-        return (short) (( (bytes[1] & 0xff) << 16) | ( (bytes[0] & 0xff) << 24));
+        return Short.reverseBytes(num);
     }
 }
-
-
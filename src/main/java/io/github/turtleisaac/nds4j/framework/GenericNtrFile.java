@@ -19,6 +19,7 @@
 
 package io.github.turtleisaac.nds4j.framework;
 
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class GenericNtrFile
@@ -29,6 +30,7 @@ public class GenericNtrFile
     protected int whichMagic;
 
     protected Endianness.EndiannessType endiannessOfBeginning;
+    protected ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN; // the byte order the rest of the file was read in
     protected int bom;
     protected int version;
     protected long fileSize;
@@ -60,17 +62,41 @@ public class GenericNtrFile
         if (!matches)
             throw new RuntimeException("Not a " + Arrays.toString(this.magic) + " file.");
 
+        int headerSizePos = reader.getPosition() + 8;
+        reader.order(ByteOrder.LITTLE_ENDIAN);
         bom = reader.readUInt16();
+
+        // some games use big endian, some use little - NSMB uses big for example, but Spirit Tracks uses little.
+        // NSMB only stores the BOM and version big endian, but files which are big endian throughout are recognized
+        // by their header size, and are then read big endian from here on
+        byteOrder = ByteOrder.LITTLE_ENDIAN;
+        if (bom == 0xFFFE) {
+            endiannessOfBeginning = Endianness.EndiannessType.BIG;
+            if (reader.getUInt16(headerSizePos) != NTR_HEADER_SIZE && Short.reverseBytes(reader.getShort(headerSizePos)) == NTR_HEADER_SIZE)
+                byteOrder = ByteOrder.BIG_ENDIAN;
+        }
+        reader.order(byteOrder);
+
         version = reader.readUInt16();
+        if (bom == 0xFFFE && byteOrder == ByteOrder.LITTLE_ENDIAN)
+            version = Short.reverseBytes((short) version) & 0xffff;
         fileSize = reader.readUInt32();
         headerSize = reader.readUInt16();
         numBlocks = reader.readUInt16();
+    }
 
-        // some games use big endian, some use little - NSMB uses big for example, but Spirit Tracks uses little
-        if (bom == 0xFFFE) {
-            endiannessOfBeginning = Endianness.EndiannessType.BIG;
-            version = (version & 0xFF) << 8 | version >> 8;
-        }
+    /**
+     * Reads the magic of a block. Magics are stored as numbers, so they appear reversed in little endian files (such
+     * as <code>"BTAF"</code> for the FATB block); they are returned that way regardless of the byte order of the file.
+     * @param reader a <code>MemBufReader</code> which is positioned at the start of the block
+     * @return a <code>String</code> containing the magic
+     */
+    protected static String readBlockMagic(MemBuf.MemBufReader reader)
+    {
+        String magic = reader.readString(4);
+        if (reader.order() == ByteOrder.BIG_ENDIAN)
+            return new StringBuilder(magic).reverse().toString();
+        return magic;
     }
 
     public void writeGenericNtrHeader(MemBuf.MemBufWriter writer, long length, int numSections)
@@ -94,6 +120,7 @@ public class GenericNtrFile
     protected void copyValuesFromTemp(GenericNtrFile file)
     {
         endiannessOfBeginning = file.endiannessOfBeginning;
+        byteOrder = file.byteOrder;
         whichMagic = file.whichMagic;
         bom = file.bom;
         version = file.version;
@@ -112,6 +139,16 @@ public class GenericNtrFile
         this.endiannessOfBeginning = endiannessOfBeginning;
     }
 
+    /**
+     * Returns the byte order everything after the BOM was read in, which is only big endian for files which are big
+     * endian throughout. Files are always saved with a little endian body.
+     * @return a <code>ByteOrder</code>
+     */
+    public ByteOrder getByteOrder()
+    {
+        return byteOrder;
+    }
+
     public int getBom()
     {
         return bom;
@@ -19,33 +19,141 @@
 
 package io.github.turtleisaac.nds4j.framework;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
+/**
+ * A growable byte buffer with independent read and write positions.
+ * <p>By default the bytes are stored in a single array, which starts small (or at the given capacity hint) and
+ * doubles in size whenever it runs out of room. Buffers created with <code>createChunked()</code> instead store their
+ * bytes in fixed-size chunks, so that growing them never copies what has already been written; such buffers are
+ * only flattened into a single array when one is requested, and can be written to a channel chunk by chunk.</p>
+ * <p>Flat buffers can also be backed by any <code>ByteBuffer</code> (heap, direct or memory-mapped) through
+ * <code>wrap()</code>. Multi-byte values are read and written little-endian unless the reader or writer is switched to
+ * another byte order with <code>order()</code>.</p>
+ * <p>Besides the reader returned by <code>reader()</code>, any number of readers with their own positions can be
+ * opened with <code>newReader()</code>. As long as nothing is being written, these can be used from different threads
+ * at the same time without any locking.</p>
+ */
 public class MemBuf {
 
-    private byte[] buf;
+    private byte[] buf; // the storage of flat buffers, if it is a heap array
+    private ByteBuffer data; // the storage of flat buffers, as a little-endian view
+    private ByteBuffer bigEndianData; // the same storage, as a big-endian view
+    private byte[][] chunks; // the storage of chunked buffers
+    private int chunkShift;
+    private int chunkMask;
+    private int numChunks;
     private int capacity;
-    private int readPos;
+    private int used; // the end of the bytes which may have been written
+    private boolean mapped;
     private int writePos;
     private MemBufReader reader;
     private MemBufWriter writer;
 
-    private static final int INITIAL_SIZE = 1024*1024;
+    private static final int INITIAL_SIZE = 256;
+    private static final int DEFAULT_CHUNK_SIZE = 1024*1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
 
     public static MemBuf create() {
         return new MemBuf();
     }
 
+    /**
+     * Creates a <code>MemBuf</code> with room for the given number of bytes, for when the size of the data which will
+     * be written to it is known ahead of time
+     * @param capacity an <code>int</code> containing the initial capacity in bytes
+     * @return a <code>MemBuf</code>
+     */
+    public static MemBuf create(int capacity) {
+        return new MemBuf(capacity);
+    }
+
     public static MemBuf create(byte[] data) {
-        MemBuf buf = new MemBuf();
+        MemBuf buf = new MemBuf(data.length);
         buf.writer.write(data);
         return buf;
     }
 
+    /**
+     * Creates a <code>MemBuf</code> over the given array, without copying it. This is the cheapest way to parse data
+     * which is already in memory; writes go straight to the array (until the buffer has to grow).
+     * @param data a <code>byte[]</code>
+     * @return a <code>MemBuf</code>
+     */
+    public static MemBuf wrap(byte[] data) {
+        return wrap(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Creates a <code>MemBuf</code> over the remaining bytes of the given <code>ByteBuffer</code>, without copying
+     * them. The bytes are readable right away, and writes go straight to the <code>ByteBuffer</code>.
+     * <p>If the buffer ever has to grow, its contents are copied to a new buffer of the same kind (heap or direct),
+     * and later writes no longer reach the given <code>ByteBuffer</code>.</p>
+     * @param byteBuffer a <code>ByteBuffer</code>, whose position, limit and byte order aren't changed
+     * @return a <code>MemBuf</code>
+     */
+    public static MemBuf wrap(ByteBuffer byteBuffer) {
+        MemBuf memBuf = new MemBuf(0);
+        ByteBuffer slice = byteBuffer.slice();
+        memBuf.setStorage(slice, slice.capacity());
+        memBuf.writePos = slice.capacity();
+        return memBuf;
+    }
+
+    /**
+     * Creates a <code>MemBuf</code> over the whole file opened by the given channel, by mapping it into memory. The
+     * contents of the file are readable right away, and with <code>FileChannel.MapMode.READ_WRITE</code> writes go
+     * straight to the file. Such a buffer can't grow past the size of the file.
+     * @param channel a <code>FileChannel</code>, which can be closed once this returns
+     * @param mode a <code>FileChannel.MapMode</code>
+     * @return a <code>MemBuf</code>
+     * @throws IOException if the file can't be mapped
+     */
+    public static MemBuf map(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        MemBuf memBuf = wrap(channel.map(mode, 0, channel.size()));
+        memBuf.mapped = true;
+        return memBuf;
+    }
+
+    /**
+     * Creates a <code>MemBuf</code> which stores its contents in chunks of 1 MB, for large buffers whose final size
+     * isn't known ahead of time
+     * @return a <code>MemBuf</code>
+     */
+    public static MemBuf createChunked() {
+        return createChunked(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a <code>MemBuf</code> which stores its contents in chunks of the given size
+     * @param chunkSize an <code>int</code> containing the chunk size in bytes, which is rounded up to a power of two
+     * @return a <code>MemBuf</code>
+     */
+    public static MemBuf createChunked(int chunkSize) {
+        MemBuf memBuf = new MemBuf(0);
+        memBuf.buf = null;
+        memBuf.data = null;
+        memBuf.bigEndianData = null;
+        memBuf.chunkShift = 32 - Integer.numberOfLeadingZeros(Math.max(chunkSize, 2) - 1);
+        memBuf.chunkMask = (1 << memBuf.chunkShift) - 1;
+        memBuf.chunks = new byte[4][];
+        return memBuf;
+    }
+
     public MemBuf() {
-        this.buf = new byte[INITIAL_SIZE];
-        this.capacity = INITIAL_SIZE;
+        this(INITIAL_SIZE);
+    }
+
+    private MemBuf(int capacity) {
+        this.buf = new byte[capacity];
+        setStorage(ByteBuffer.wrap(buf), capacity);
         reader = new MemBufReader();
         writer = new MemBufWriter();
     }
@@ -53,29 +161,305 @@ public class MemBuf {
     private MemBuf(MemBuf memBuf, int baseAddress)
     {
         this.buf = memBuf.buf;
+        this.data = memBuf.data;
+        this.bigEndianData = memBuf.bigEndianData;
+        this.mapped = memBuf.mapped;
+        this.chunks = memBuf.chunks;
+        this.chunkShift = memBuf.chunkShift;
+        this.chunkMask = memBuf.chunkMask;
+        this.numChunks = memBuf.numChunks;
         this.capacity = memBuf.capacity;
-        this.readPos = baseAddress;
         this.writePos = baseAddress;
         reader = new MemBufReader();
+        reader.readPos = baseAddress;
         writer = new MemBufWriter();
     }
 
+    /**
+     * Checks whether this buffer stores its contents in chunks
+     * @return a <code>boolean</code>
+     */
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    /**
+     * Uses the given <code>ByteBuffer</code> as the flat storage of this buffer
+     */
+    private void setStorage(ByteBuffer storage, int capacity) {
+        if (storage.hasArray() && storage.arrayOffset() == 0 && storage.array().length == storage.capacity() && !storage.isReadOnly())
+            buf = storage.array();
+        else
+            buf = null;
+        data = storage.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bigEndianData = storage.duplicate().order(ByteOrder.BIG_ENDIAN);
+        this.capacity = capacity;
+    }
+
+    private ByteBuffer view(ByteOrder order) {
+        return order == ByteOrder.LITTLE_ENDIAN ? data : bigEndianData;
+    }
+
+    /**
+     * Makes sure the storage can hold the bytes up to (but not including) the given position, growing it
+     * geometrically (or by adding chunks) if it can't
+     */
+    private void ensureCapacity(int end) {
+        if (end > used)
+            used = end;
+        if (end <= capacity)
+            return;
+        if (end < 0 || end > MAX_CAPACITY)
+            throw new IllegalStateException("MemBuf can't grow to " + Integer.toUnsignedString(end) + " bytes");
+
+        if (chunks == null) {
+            int newCapacity = (int) Math.min(Math.max(end, 2L * capacity), MAX_CAPACITY);
+            if (buf != null) {
+                buf = Arrays.copyOf(buf, newCapacity);
+                setStorage(ByteBuffer.wrap(buf), newCapacity);
+            }
+            else if (mapped) {
+                throw new IllegalStateException("A memory-mapped MemBuf can't grow to " + end + " bytes");
+            }
+            else {
+                ByteBuffer grown = data.isDirect() ? ByteBuffer.allocateDirect(newCapacity) : ByteBuffer.allocate(newCapacity);
+                ByteBuffer old = data.duplicate();
+                ((java.nio.Buffer) old).clear();
+                grown.put(old);
+                ((java.nio.Buffer) grown).clear();
+                setStorage(grown, newCapacity);
+            }
+        }
+        else {
+            int neededChunks = (int) ((end + (long) chunkMask) >>> chunkShift);
+            if (neededChunks > chunks.length)
+                chunks = Arrays.copyOf(chunks, Math.max(neededChunks, chunks.length * 2));
+            while (numChunks < neededChunks)
+                chunks[numChunks++] = new byte[chunkMask + 1];
+            capacity = (int) Math.min((long) numChunks << chunkShift, MAX_CAPACITY);
+        }
+    }
+
+    private byte getByte(int pos) {
+        if (buf != null)
+            return buf[pos];
+        if (chunks == null)
+            return data.get(pos);
+        return chunks[pos >>> chunkShift][pos & chunkMask];
+    }
+
+    private void putByte(int pos, byte b) {
+        if (buf != null)
+            buf[pos] = b;
+        else if (chunks == null)
+            data.put(pos, b);
+        else
+            chunks[pos >>> chunkShift][pos & chunkMask] = b;
+    }
+
+    private void getBytes(int pos, byte[] dst, int dstPos, int length) {
+        if (buf != null) {
+            System.arraycopy(buf, pos, dst, dstPos, length);
+            return;
+        }
+        if (chunks == null) {
+            slice(pos, length).get(dst, dstPos, length);
+            return;
+        }
+        while (length > 0) {
+            int n = Math.min(length, chunkMask + 1 - (pos & chunkMask));
+            System.arraycopy(chunks[pos >>> chunkShift], pos & chunkMask, dst, dstPos, n);
+            pos += n;
+            dstPos += n;
+            length -= n;
+        }
+    }
+
+    private void putBytes(int pos, byte[] src, int srcPos, int length) {
+        if (buf != null) {
+            System.arraycopy(src, srcPos, buf, pos, length);
+            return;
+        }
+        if (chunks == null) {
+            slice(pos, length).put(src, srcPos, length);
+            return;
+        }
+        while (length > 0) {
+            int n = Math.min(length, chunkMask + 1 - (pos & chunkMask));
+            System.arraycopy(src, srcPos, chunks[pos >>> chunkShift], pos & chunkMask, n);
+            pos += n;
+            srcPos += n;
+            length -= n;
+        }
+    }
+
+    private void fillBytes(int pos, byte b, int length) {
+        if (buf != null) {
+            Arrays.fill(buf, pos, pos + length, b);
+            return;
+        }
+        if (chunks == null) {
+            for (int i = 0; i < length; i++)
+                data.put(pos + i, b);
+            return;
+        }
+        while (length > 0) {
+            int n = Math.min(length, chunkMask + 1 - (pos & chunkMask));
+            Arrays.fill(chunks[pos >>> chunkShift], pos & chunkMask, (pos & chunkMask) + n, b);
+            pos += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Empties this buffer for reuse by a <code>MemBufArena</code>, keeping its storage. The bytes which were written
+     * are zeroed, so that skipped bytes read back as 0 just like in a new buffer.
+     */
+    void reset() {
+        fillBytes(0, (byte) 0, Math.min(used, capacity));
+        used = 0;
+        writePos = 0;
+        reader.readPos = 0;
+        reader.order = ByteOrder.LITTLE_ENDIAN;
+        writer.order = ByteOrder.LITTLE_ENDIAN;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns a view of the given range of the flat storage, positioned at its start
+     */
+    private ByteBuffer slice(int pos, int length) {
+        ByteBuffer slice = data.duplicate();
+        ((java.nio.Buffer) slice).limit(pos + length);
+        ((java.nio.Buffer) slice).position(pos);
+        return slice;
+    }
+
+    private static void checkRange(int arrayLength, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length)
+            throw new IndexOutOfBoundsException("Range of "+length+" elements at "+offset+" is outside of an array of length "+arrayLength);
+    }
+
+    /**
+     * Stores the contents of a chunked buffer in a single array from now on. This does nothing for buffers which
+     * aren't chunked.
+     */
+    public void flatten() {
+        if (chunks == null)
+            return;
+        byte[] flat = new byte[capacity];
+        getBytes(0, flat, 0, capacity);
+        chunks = null;
+        setStorage(ByteBuffer.wrap(flat), capacity);
+        numChunks = 0;
+    }
+
     public MemBufReader reader() {
         return reader;
     }
 
+    /**
+     * Opens a reader over this buffer which has its own position (starting at 0) and byte order, independent of
+     * <code>reader()</code> and of every other reader. It can read everything up to the write position.
+     * @return a new <code>MemBufReader</code>
+     */
+    public MemBufReader newReader() {
+        return new MemBufReader();
+    }
+
     public MemBufWriter writer() {
         return writer;
     }
 
     public class MemBufReader {
 
+        private int readPos;
+        private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+
+        private MemBufReader() {
+        }
+
+        /**
+         * Gets the byte order which multi-byte values are read in
+         * @return a <code>ByteOrder</code>
+         */
+        public ByteOrder order() {
+            return order;
+        }
+
+        /**
+         * Sets the byte order which multi-byte values are read in from now on (little-endian by default)
+         * @param order a <code>ByteOrder</code>
+         * @return this <code>MemBufReader</code>
+         */
+        public MemBufReader order(ByteOrder order) {
+            this.order = order;
+            return this;
+        }
+
         private void require(int space) {
             if (writePos - readPos < space) {
                 throw new IllegalStateException("Not enough room to read. need "+space+" bytes, have "+(writePos-readPos));
             }
         }
 
+        private void requireAt(int pos, int space) {
+            if (pos < 0 || writePos - pos < space) {
+                throw new IllegalStateException("Can't read "+space+" bytes at "+pos+", the buffer ends at "+writePos);
+            }
+        }
+
+        /**
+         * Reads the <code>int</code> at the given position, without moving this reader
+         * @param pos an <code>int</code> containing the position
+         * @return an <code>int</code>
+         */
+        public int getInt(int pos) {
+            requireAt(pos, 4);
+            return intAt(pos);
+        }
+
+        private int intAt(int pos) {
+            if (chunks == null)
+                return view(order).getInt(pos);
+            int ret = (getByte(pos) & 0xff) | (getByte(pos + 1) & 0xff) << 8
+                    | (getByte(pos + 2) & 0xff) << 16 | (getByte(pos + 3) & 0xff) << 24;
+            return order == ByteOrder.BIG_ENDIAN ? Integer.reverseBytes(ret) : ret;
+        }
+
+        public long getUInt32(int pos) {
+            return ((long) getInt(pos)) & 0xFFFFFFFFL;
+        }
+
+        /**
+         * Reads the <code>short</code> at the given position, without moving this reader
+         * @param pos an <code>int</code> containing the position
+         * @return a <code>short</code>
+         */
+        public short getShort(int pos) {
+            requireAt(pos, 2);
+            return shortAt(pos);
+        }
+
+        private short shortAt(int pos) {
+            if (chunks == null)
+                return view(order).getShort(pos);
+            short ret = (short) ((getByte(pos) & 0xff) | (getByte(pos + 1) & 0xff) << 8);
+            return order == ByteOrder.BIG_ENDIAN ? Short.reverseBytes(ret) : ret;
+        }
+
+        public int getUInt16(int pos) {
+            return ((int) getShort(pos)) & 0xffff;
+        }
+
+        public short getUInt8(int pos) {
+            requireAt(pos, 1);
+            return (short) (getByte(pos) & 0xff);
+        }
+
         public int getPosition() {
             return readPos;
         }
@@ -90,21 +474,54 @@ public class MemBuf {
 
         public byte[] getBuffer() {
             byte[] ret = new byte[writePos-readPos];
-            System.arraycopy(buf, readPos, ret, 0, writePos-readPos);
+            getBytes(readPos, ret, 0, writePos-readPos);
             return ret;
         }
 
+        /**
+         * Writes the bytes from the current position up to the write position to the given channel, without copying
+         * them into a single array first. The read position isn't changed.
+         * @param channel a <code>WritableByteChannel</code>
+         * @throws IOException if writing to the channel fails
+         */
+        public void writeTo(WritableByteChannel channel) throws IOException {
+            ByteBuffer[] buffers;
+            if (chunks == null) {
+                buffers = new ByteBuffer[] {slice(readPos, Math.max(writePos - readPos, 0))};
+            }
+            else {
+                int first = readPos >>> chunkShift;
+                int last = writePos == 0 ? 0 : (writePos - 1) >>> chunkShift;
+                buffers = new ByteBuffer[Math.max(last - first + 1, 0)];
+                for (int i = 0; i < buffers.length; i++) {
+                    int start = i == 0 ? readPos & chunkMask : 0;
+                    int end = first + i == last ? writePos - (last << chunkShift) : chunkMask + 1;
+                    buffers[i] = ByteBuffer.wrap(chunks[first + i], start, end - start);
+                }
+            }
+
+            long remaining = Math.max(writePos - readPos, 0);
+            if (channel instanceof GatheringByteChannel) {
+                while (remaining > 0)
+                    remaining -= ((GatheringByteChannel) channel).write(buffers);
+            }
+            else {
+                for (ByteBuffer buffer : buffers) {
+                    while (buffer.hasRemaining())
+                        channel.write(buffer);
+                }
+            }
+        }
+
         public int readByte() {
             require(1);
-            return buf[readPos++];
+            return getByte(readPos++);
         }
 
         public int readInt() {
             require(4);
-            int ret = readUInt8();
-            ret |= (readUInt8() << 8);
-            ret |= (readUInt8() << 16);
-            ret |= (readUInt8() << 24);
+            int ret = intAt(readPos);
+            readPos += 4;
             return ret;
         }
 
@@ -114,8 +531,9 @@ public class MemBuf {
 
         public short readShort() {
             require(2);
-            int ret = readUInt8() | (readUInt8() << 8);
-            return (short)ret;
+            short ret = shortAt(readPos);
+            readPos += 2;
+            return ret;
         }
 
         public int readUInt16() {
@@ -127,9 +545,69 @@ public class MemBuf {
             return (short) ((short)readByte() & 0xff);
         }
 
+        /**
+         * Reads the given number of <code>short</code>s into an array, checking the bounds of this buffer only once.
+         * Flat buffers are read in a single bulk copy.
+         * @param dst the <code>short[]</code> to read into
+         * @param offset an <code>int</code> containing the index of the first element to read into
+         * @param length an <code>int</code> containing the number of <code>short</code>s to read
+         */
+        public void readShorts(short[] dst, int offset, int length) {
+            checkRange(dst.length, offset, length);
+            require(length * 2);
+            if (chunks == null) {
+                slice(readPos, length * 2).order(order).asShortBuffer().get(dst, offset, length);
+            }
+            else {
+                for (int i = 0; i < length; i++)
+                    dst[offset + i] = shortAt(readPos + i * 2);
+            }
+            readPos += length * 2;
+        }
+
+        public short[] readShorts(int count) {
+            short[] ret = new short[count];
+            readShorts(ret, 0, count);
+            return ret;
+        }
+
+        /**
+         * Reads the given number of <code>int</code>s into an array, checking the bounds of this buffer only once.
+         * Flat buffers are read in a single bulk copy.
+         * @param dst the <code>int[]</code> to read into
+         * @param offset an <code>int</code> containing the index of the first element to read into
+         * @param length an <code>int</code> containing the number of <code>int</code>s to read
+         */
+        public void readInts(int[] dst, int offset, int length) {
+            checkRange(dst.length, offset, length);
+            require(length * 4);
+            if (chunks == null) {
+                slice(readPos, length * 4).order(order).asIntBuffer().get(dst, offset, length);
+            }
+            else {
+                for (int i = 0; i < length; i++)
+                    dst[offset + i] = intAt(readPos + i * 4);
+            }
+            readPos += length * 4;
+        }
+
+        public int[] readInts(int count) {
+            int[] ret = new int[count];
+            readInts(ret, 0, count);
+            return ret;
+        }
+
         public String readString(int size) {
             require(size);
-            String ret = new String(Arrays.copyOfRange(buf, readPos, readPos + size), StandardCharsets.UTF_8);
+            String ret;
+            if (buf != null) {
+                ret = new String(buf, readPos, size, StandardCharsets.UTF_8);
+            }
+            else {
+                byte[] bytes = new byte[size];
+                getBytes(readPos, bytes, 0, size);
+                ret = new String(bytes, StandardCharsets.UTF_8);
+            }
             readPos += size;
             return ret;
         }
@@ -137,7 +615,7 @@ public class MemBuf {
         public byte[] readBytes(int size) {
             require(size);
             byte[] ret = new byte[size];
-            System.arraycopy(buf, readPos, ret, 0, size);
+            getBytes(readPos, ret, 0, size);
             readPos += size;
             return ret;
         }
@@ -151,11 +629,50 @@ public class MemBuf {
             int size = (int) (addrs - readPos);
             require(size);
             byte[] ret = new byte[size];
-            System.arraycopy(buf, readPos, ret, 0, size);
+            getBytes(readPos, ret, 0, size);
             readPos += size;
             return ret;
         }
 
+        /**
+         * Reads the given number of bytes as a read-only view which shares the storage of this buffer, instead of
+         * copying them. The view is positioned at its start and uses the byte order of this reader.
+         * <p>Slices of chunked buffers which span more than one chunk can't share the storage, so those are copied.</p>
+         * @param size an <code>int</code> containing the number of bytes
+         * @return a read-only <code>ByteBuffer</code>
+         */
+        public ByteBuffer readSlice(int size) {
+            require(size);
+            ByteBuffer ret;
+            if (chunks == null) {
+                ret = slice(readPos, size).slice();
+            }
+            else if (size > 0 && (readPos >>> chunkShift) == ((readPos + size - 1) >>> chunkShift)) {
+                ret = ByteBuffer.wrap(chunks[readPos >>> chunkShift], readPos & chunkMask, size).slice();
+            }
+            else {
+                byte[] bytes = new byte[size];
+                getBytes(readPos, bytes, 0, size);
+                ret = ByteBuffer.wrap(bytes);
+            }
+            readPos += size;
+            return ret.asReadOnlyBuffer().order(order);
+        }
+
+        /**
+         * Reads the bytes up to (but not including) the given position as a read-only view, like
+         * <code>readSlice()</code>
+         * @param addrs an <code>int</code> containing the position to stop at
+         * @return a read-only <code>ByteBuffer</code>
+         */
+        public ByteBuffer sliceTo(int addrs) {
+            return readSlice(addrs - readPos);
+        }
+
+        public ByteBuffer sliceTo(long addrs) {
+            return readSlice((int) (addrs - readPos));
+        }
+
         public int[] readBytesI(int size) {
             byte[] arr = readBytes(size);
             int[] ret = new int[arr.length];
@@ -176,12 +693,41 @@ public class MemBuf {
 
     public class MemBufWriter {
 
-        private void require(int space) {
-            if (capacity - (writePos) < space) {
-                int newSize = Math.max((writePos)+space, capacity + INITIAL_SIZE);
-                buf = Arrays.copyOf(buf, newSize);
-                capacity = buf.length;
+        private ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+
+        /**
+         * Gets the byte order which multi-byte values are written in
+         * @return a <code>ByteOrder</code>
+         */
+        public ByteOrder order() {
+            return order;
+        }
+
+        /**
+         * Sets the byte order which multi-byte values are written in from now on (little-endian by default)
+         * @param order a <code>ByteOrder</code>
+         * @return this <code>MemBufWriter</code>
+         */
+        public MemBufWriter order(ByteOrder order) {
+            this.order = order;
+            return this;
+        }
+
+        private void putShort(short s) {
+            if (chunks == null) {
+                view(order).putShort(writePos, s);
+            }
+            else {
+                if (order == ByteOrder.BIG_ENDIAN)
+                    s = Short.reverseBytes(s);
+                putByte(writePos, (byte) s);
+                putByte(writePos + 1, (byte) (s >> 8));
             }
+            writePos += 2;
+        }
+
+        private void require(int space) {
+            ensureCapacity(writePos + space);
         }
 
         public int getPosition() {
@@ -193,15 +739,24 @@ public class MemBuf {
         }
 
         public void skip(int n) {
+            require(n);
             writePos += n;
         }
 
         public MemBufWriter writeInt(int i) {
             require(4);
-            buf[writePos++] = (byte) (i & 0xff);
-            buf[writePos++] = (byte) ((i >> 8) & 0xff);
-            buf[writePos++] = (byte) ((i >> 16) & 0xff);
-            buf[writePos++] = (byte) ((i >> 24) & 0xff);
+            if (chunks == null) {
+                view(order).putInt(writePos, i);
+            }
+            else {
+                if (order == ByteOrder.BIG_ENDIAN)
+                    i = Integer.reverseBytes(i);
+                putByte(writePos, (byte) i);
+                putByte(writePos + 1, (byte) (i >> 8));
+                putByte(writePos + 2, (byte) (i >> 16));
+                putByte(writePos + 3, (byte) (i >> 24));
+            }
+            writePos += 4;
             return this;
         }
 
@@ -211,39 +766,102 @@ public class MemBuf {
 
         public MemBufWriter writeShort(short s) {
             require(2);
-            buf[writePos++] = (byte) (s & 0xff);
-            buf[writePos++] = (byte) ((s >> 8) & 0xff);
+            putShort(s);
             return this;
         }
 
         public MemBufWriter writeByte(byte b) {
             require(1);
-            buf[writePos++] = b;
+            putByte(writePos++, b);
             return this;
         }
 
         public MemBufWriter writeBytes(int... bytes) {
             require(bytes.length);
             for (int b : bytes) {
-                buf[writePos++] = (byte)b;
+                putByte(writePos++, (byte)b);
             }
             return this;
         }
 
         public MemBufWriter write(byte... bytes)  {
-            require(bytes.length);
-            for (byte b : bytes) {
-                buf[writePos++] = b;
+            return write(bytes, 0, bytes.length);
+        }
+
+        public MemBufWriter write(short... shorts) {
+            return writeShorts(shorts, 0, shorts.length);
+        }
+
+        /**
+         * Writes the given range of an array of <code>short</code>s, growing this buffer only once. Flat buffers are
+         * written in a single bulk copy.
+         * @param src the <code>short[]</code> to write from
+         * @param offset an <code>int</code> containing the index of the first element to write
+         * @param length an <code>int</code> containing the number of <code>short</code>s to write
+         * @return this <code>MemBufWriter</code>
+         */
+        public MemBufWriter writeShorts(short[] src, int offset, int length) {
+            checkRange(src.length, offset, length);
+            require(length * 2);
+            if (chunks == null) {
+                slice(writePos, length * 2).order(order).asShortBuffer().put(src, offset, length);
+                writePos += length * 2;
+            }
+            else {
+                for (int i = 0; i < length; i++)
+                    putShort(src[offset + i]);
             }
             return this;
         }
 
-        public MemBufWriter write(short... shorts) {
-            for(short s : shorts)
-            {
-                require(2);
-                buf[writePos++] = (byte) (s & 0xff);
-                buf[writePos++] = (byte) ((s >> 8) & 0xff);
+        /**
+         * Writes the given range of an array of <code>int</code>s, growing this buffer only once. Flat buffers are
+         * written in a single bulk copy.
+         * @param src the <code>int[]</code> to write from
+         * @param offset an <code>int</code> containing the index of the first element to write
+         * @param length an <code>int</code> containing the number of <code>int</code>s to write
+         * @return this <code>MemBufWriter</code>
+         */
+        public MemBufWriter writeInts(int[] src, int offset, int length) {
+            checkRange(src.length, offset, length);
+            require(length * 4);
+            if (chunks == null) {
+                slice(writePos, length * 4).order(order).asIntBuffer().put(src, offset, length);
+                writePos += length * 4;
+            }
+            else {
+                for (int i = 0; i < length; i++)
+                    writeInt(src[offset + i]);
+            }
+            return this;
+        }
+
+        public MemBufWriter writeInts(int... ints) {
+            return writeInts(ints, 0, ints.length);
+        }
+
+        /**
+         * Writes the bytes of the given buffer from its read position up to its write position, without copying them
+         * into an intermediate array. Neither position of the given buffer is changed.
+         * @param memBuf a <code>MemBuf</code>
+         * @return this <code>MemBufWriter</code>
+         */
+        public MemBufWriter write(MemBuf memBuf) {
+            int pos = memBuf.reader.readPos;
+            int end = memBuf.writePos;
+            if (end <= pos)
+                return this;
+            if (memBuf.buf != null)
+                return write(memBuf.buf, pos, end - pos);
+            if (memBuf.chunks == null)
+                return write(memBuf.reader.getBuffer());
+
+            require(end - pos);
+            while (pos < end) {
+                int n = Math.min(end - pos, memBuf.chunkMask + 1 - (pos & memBuf.chunkMask));
+                putBytes(writePos, memBuf.chunks[pos >>> memBuf.chunkShift], pos & memBuf.chunkMask, n);
+                writePos += n;
+                pos += n;
             }
             return this;
         }
@@ -265,9 +883,8 @@ public class MemBuf {
          */
         public MemBufWriter write(byte[] bytes, int srcPos, int length) {
             require(length);
-            for (int i=srcPos; length > 0; srcPos++,length--) {
-                buf[writePos++] = bytes[i];
-            }
+            putBytes(writePos, bytes, srcPos, length);
+            writePos += length;
             return this;
         }
 
@@ -280,29 +897,20 @@ public class MemBuf {
          * @return
          */
         public MemBufWriter writeAt(byte[] bytes, int srcPos, int writeOffset, int length) {
-            require(length);
             setPosition(writeOffset);
-            for (int i=srcPos; length > 0; srcPos++,length--) {
-                buf[writePos++] = bytes[i];
-            }
-            return this;
+            return write(bytes, srcPos, length);
         }
 
         public MemBufWriter writeByteNumTimes(byte b, int numTimes) {
             require(numTimes);
-            for (int i = 0; i < numTimes; i++) {
-                buf[writePos++] = b;
-            }
+            fillBytes(writePos, b, numTimes);
+            writePos += numTimes;
             return this;
         }
 
         public MemBufWriter writeByteNumTimesAt(byte b, int numTimes, int writeOffset) {
-            require(numTimes);
             setPosition(writeOffset);
-            for (int i = 0; i < numTimes; i++) {
-                buf[writePos++] = b;
-            }
-            return this;
+            return writeByteNumTimes(b, numTimes);
         }
 
         public MemBufWriter align(int alignment)
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A scope for short-lived <code>MemBuf</code>s, such as the scratch buffers used while saving a file.
+ * <p>Buffers are taken from a pool belonging to the current thread, and all of the buffers allocated by an arena are
+ * returned to that pool at once when it is closed, keeping their storage. Repeatedly saving files on the same thread
+ * therefore reuses the same few buffers instead of allocating new ones every time. Arenas can be nested.</p>
+ * <pre>
+ * try (MemBufArena arena = MemBufArena.open())
+ * {
+ *     MemBuf scratch = arena.allocate();
+ *     ...
+ *     return scratch.reader().getBuffer();
+ * }
+ * </pre>
+ * <p>None of the buffers allocated by an arena may be used after it is closed, so anything which should outlive it
+ * has to be copied out first (as <code>getBuffer()</code> does). An arena must be closed by the thread which opened
+ * it.</p>
+ */
+public class MemBufArena implements AutoCloseable
+{
+    private static final int MAX_POOLED_BUFFERS = 16;
+    private static final int MAX_POOLED_CAPACITY = 4*1024*1024;
+
+    private static final ThreadLocal<ArrayDeque<MemBuf>> pool = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final ArrayDeque<MemBuf> free;
+    private final ArrayList<MemBuf> allocated = new ArrayList<>();
+    private boolean closed;
+
+    private MemBufArena()
+    {
+        free = pool.get();
+    }
+
+    /**
+     * Opens an arena which allocates from the current thread's pool
+     * @return a <code>MemBufArena</code>
+     */
+    public static MemBufArena open()
+    {
+        return new MemBufArena();
+    }
+
+    /**
+     * Takes an empty buffer from the pool, or creates one if the pool is empty
+     * @return an empty <code>MemBuf</code>, which is valid until this arena is closed
+     */
+    public MemBuf allocate()
+    {
+        if (closed)
+            throw new IllegalStateException("MemBufArena has already been closed");
+
+        MemBuf memBuf = free.pollFirst();
+        if (memBuf == null)
+            memBuf = MemBuf.create();
+        allocated.add(memBuf);
+        return memBuf;
+    }
+
+    /**
+     * Takes an empty buffer with room for at least the given number of bytes from the pool, or creates one if the pool
+     * doesn't have one
+     * @param capacity an <code>int</code> containing the number of bytes
+     * @return an empty <code>MemBuf</code>, which is valid until this arena is closed
+     */
+    public MemBuf allocate(int capacity)
+    {
+        if (closed)
+            throw new IllegalStateException("MemBufArena has already been closed");
+
+        MemBuf memBuf = null;
+        for (MemBuf candidate : free)
+        {
+            if (candidate.capacity() >= capacity)
+            {
+                memBuf = candidate;
+                break;
+            }
+        }
+
+        if (memBuf != null)
+            free.remove(memBuf);
+        else
+            memBuf = MemBuf.create(capacity);
+        allocated.add(memBuf);
+        return memBuf;
+    }
+
+    /**
+     * Returns every buffer allocated by this arena to the current thread's pool. Buffers which have grown very large
+     * are dropped instead, as are any which don't fit in the pool.
+     */
+    @Override
+    public void close()
+    {
+        if (closed)
+            return;
+        closed = true;
+
+        for (MemBuf memBuf : allocated)
+        {
+            if (free.size() < MAX_POOLED_BUFFERS && memBuf.capacity() <= MAX_POOLED_CAPACITY)
+            {
+                memBuf.reset();
+                free.addFirst(memBuf);
+            }
+        }
+        allocated.clear();
+    }
+}
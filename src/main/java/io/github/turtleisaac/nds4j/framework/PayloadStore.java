@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * Storage for file contents outside of the Java heap, so that a ROM's thousands of files don't have to be traced and
+ * copied around by the garbage collector.
+ * <p>Contents are copied into large slabs, which are either direct <code>ByteBuffer</code>s (<code>direct()</code>)
+ * or regions of a memory-mapped temporary file (<code>mapped()</code>), and are handed back as <code>Payload</code>s.
+ * Small payloads share a slab, which is reused once all of its payloads have been released; larger ones get a slab of
+ * their own, which is reused for later payloads which fit in it.</p>
+ * <p>Nothing is given back to the operating system until the store is closed, after which none of its payloads can be
+ * read anymore. The memory of a direct store is then freed once its buffers are garbage collected, and the temporary
+ * file of a mapped store is deleted.</p>
+ */
+public abstract class PayloadStore implements Closeable
+{
+    public static final int DEFAULT_SLAB_SIZE = 1024*1024*4;
+
+    private final int slabSize;
+    private final ArrayList<Slab> freeSlabs = new ArrayList<>();
+    private final ArrayList<Slab> freeLargeSlabs = new ArrayList<>();
+    private Slab current;
+    private long reservedBytes;
+    private long usedBytes;
+    private volatile boolean closed;
+
+    PayloadStore(int slabSize)
+    {
+        if (slabSize < 1024)
+            throw new RuntimeException("Slab size must be at least 1024 bytes: " + slabSize);
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Creates a store which keeps its payloads in direct <code>ByteBuffer</code>s
+     * @return a <code>PayloadStore</code>
+     */
+    public static PayloadStore direct()
+    {
+        return direct(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Creates a store which keeps its payloads in direct <code>ByteBuffer</code>s
+     * @param slabSize an <code>int</code> containing the number of bytes allocated at once
+     * @return a <code>PayloadStore</code>
+     */
+    public static PayloadStore direct(int slabSize)
+    {
+        return new DirectStore(slabSize);
+    }
+
+    /**
+     * Creates a store which keeps its payloads in a memory-mapped file in the default temporary directory
+     * @return a <code>PayloadStore</code>
+     * @throws IOException if the temporary file can't be created
+     */
+    public static PayloadStore mapped() throws IOException
+    {
+        return mapped(Files.createTempFile("nds4j", ".payloads"), DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Creates a store which keeps its payloads in a memory-mapped file in the given directory
+     * @param dir a <code>Path</code> to the directory to create the file in
+     * @return a <code>PayloadStore</code>
+     * @throws IOException if the temporary file can't be created
+     */
+    public static PayloadStore mapped(Path dir) throws IOException
+    {
+        return mapped(Files.createTempFile(dir, "nds4j", ".payloads"), DEFAULT_SLAB_SIZE);
+    }
+
+    private static PayloadStore mapped(Path file, int slabSize) throws IOException
+    {
+        FileChannel channel;
+        try
+        {
+            channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        return new MappedStore(channel, slabSize);
+    }
+
+    /**
+     * Allocates the storage of a new slab
+     * @param size an <code>int</code> containing the number of bytes in the slab
+     * @return a <code>ByteBuffer</code> which is exactly <code>size</code> bytes long
+     */
+    abstract ByteBuffer allocateSlab(int size);
+
+    abstract void release() throws IOException;
+
+    /**
+     * Copies the given contents into this store
+     * @param data a <code>byte[]</code>
+     * @return a <code>Payload</code>
+     */
+    public synchronized Payload put(byte[] data)
+    {
+        ensureOpen();
+        Slab slab = data.length > slabSize / 4 ? takeLargeSlab(data.length) : takeSlab(data.length);
+        int offset = slab.used;
+        ByteBuffer target = slab.buffer.duplicate();
+        ((java.nio.Buffer) target).position(offset);
+        target.put(data);
+        slab.used += data.length;
+        slab.live++;
+        usedBytes += data.length;
+        return new Payload(slab, offset, data.length);
+    }
+
+    private Slab takeSlab(int size)
+    {
+        // the old slab is reused as soon as all of its payloads are released
+        if (current == null || current.buffer.capacity() - current.used < size)
+            current = freeSlabs.isEmpty() ? newSlab(slabSize, false) : freeSlabs.remove(freeSlabs.size() - 1);
+        return current;
+    }
+
+    private Slab takeLargeSlab(int size)
+    {
+        for (int i = 0; i < freeLargeSlabs.size(); i++)
+        {
+            if (freeLargeSlabs.get(i).buffer.capacity() >= size)
+                return freeLargeSlabs.remove(i);
+        }
+        return newSlab(size, true);
+    }
+
+    private Slab newSlab(int size, boolean large)
+    {
+        Slab slab = new Slab(allocateSlab(size), large);
+        reservedBytes += size;
+        return slab;
+    }
+
+    private synchronized void release(Payload payload)
+    {
+        Slab slab = payload.slab;
+        usedBytes -= payload.length;
+        if (--slab.live > 0)
+            return;
+
+        slab.used = 0;
+        if (slab.large)
+            freeLargeSlabs.add(slab);
+        else if (slab != current)
+            freeSlabs.add(slab);
+    }
+
+    /**
+     * Returns the number of bytes this store has allocated for its slabs, which includes any released space which
+     * hasn't been reused yet
+     * @return a <code>long</code>
+     */
+    public synchronized long getReservedBytes()
+    {
+        return reservedBytes;
+    }
+
+    /**
+     * Returns the number of bytes taken up by the contents of the payloads which haven't been released
+     * @return a <code>long</code>
+     */
+    public synchronized long getUsedBytes()
+    {
+        return usedBytes;
+    }
+
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    private void ensureOpen()
+    {
+        if (closed)
+            throw new RuntimeException("PayloadStore has already been closed");
+    }
+
+    /**
+     * Releases all of the storage of this store at once. None of its payloads can be read afterwards.
+     * @throws IOException if the temporary file of a mapped store can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        current = null;
+        freeSlabs.clear();
+        freeLargeSlabs.clear();
+        release();
+    }
+
+    private static class Slab
+    {
+        private final ByteBuffer buffer;
+        private final boolean large;
+        private int used;
+        private int live;
+
+        private Slab(ByteBuffer buffer, boolean large)
+        {
+            this.buffer = buffer;
+            this.large = large;
+        }
+    }
+
+    /**
+     * The contents of a single file, held by a <code>PayloadStore</code>
+     */
+    public final class Payload
+    {
+        private final Slab slab;
+        private final int offset;
+        private final int length;
+        private boolean released;
+
+        private Payload(Slab slab, int offset, int length)
+        {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length()
+        {
+            return length;
+        }
+
+        /**
+         * Returns a read-only view of the contents of this payload, which is only valid until it is released
+         * @return a <code>ByteBuffer</code>
+         */
+        public ByteBuffer asReadOnlyBuffer()
+        {
+            if (released)
+                throw new RuntimeException("Payload has already been released");
+            ensureOpen();
+            ByteBuffer view = slab.buffer.asReadOnlyBuffer();
+            ((java.nio.Buffer) view).limit(offset + length).position(offset);
+            return view.slice();
+        }
+
+        /**
+         * Copies the contents of this payload onto the heap
+         * @return a <code>byte[]</code>
+         */
+        public byte[] get()
+        {
+            byte[] ret = new byte[length];
+            asReadOnlyBuffer().get(ret);
+            return ret;
+        }
+
+        /**
+         * Compares the contents of this payload to an array without copying them onto the heap
+         * @param data a <code>byte[]</code>
+         * @return whether the contents are equal
+         */
+        public boolean contentEquals(byte[] data)
+        {
+            return data.length == length && asReadOnlyBuffer().equals(ByteBuffer.wrap(data));
+        }
+
+        /**
+         * Gives the space of this payload back to its store. Releasing a payload more than once has no effect.
+         */
+        public void release()
+        {
+            synchronized (PayloadStore.this)
+            {
+                if (released || closed)
+                    return;
+                released = true;
+                PayloadStore.this.release(this);
+            }
+        }
+    }
+
+    private static class DirectStore extends PayloadStore
+    {
+        private DirectStore(int slabSize)
+        {
+            super(slabSize);
+        }
+
+        @Override
+        ByteBuffer allocateSlab(int size)
+        {
+            return ByteBuffer.allocateDirect(size);
+        }
+
+        @Override
+        void release()
+        {
+            // the buffers are freed once they are no longer reachable
+        }
+    }
+
+    private static class MappedStore extends PayloadStore
+    {
+        private final FileChannel channel;
+        private long end;
+
+        private MappedStore(FileChannel channel, int slabSize)
+        {
+            super(slabSize);
+            this.channel = channel;
+        }
+
+        @Override
+        ByteBuffer allocateSlab(int size)
+        {
+            try
+            {
+                // mapping past the end of the file grows it
+                ByteBuffer slab = channel.map(FileChannel.MapMode.READ_WRITE, end, size);
+                end += size;
+                return slab;
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        void release() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
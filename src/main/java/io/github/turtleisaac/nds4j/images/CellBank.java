@@ -21,6 +21,7 @@ package io.github.turtleisaac.nds4j.images;
 
 import io.github.turtleisaac.nds4j.framework.GenericNtrFile;
 import io.github.turtleisaac.nds4j.framework.MemBuf;
+import io.github.turtleisaac.nds4j.framework.MemBufArena;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -45,7 +46,7 @@ public class CellBank extends GenericNtrFile
     public CellBank(byte[] data)
     {
         super("RECN");
-        MemBuf dataBuf = MemBuf.create(data);
+        MemBuf dataBuf = MemBuf.wrap(data);
         MemBuf.MemBufReader reader = dataBuf.reader();
         int fileSize = dataBuf.writer().getPosition();
 
@@ -56,7 +57,7 @@ public class CellBank extends GenericNtrFile
         boolean labelEnabled = numBlocks != 1;
 
         //cell bank data
-        String cellBankMagic = reader.readString(4); // 0x10
+        String cellBankMagic = readBlockMagic(reader); // 0x10
 
         if (!cellBankMagic.equals("KBEC")) {
             throw new RuntimeException("Not a valid RECN file.");
@@ -100,7 +101,7 @@ public class CellBank extends GenericNtrFile
         {
             reader.setPosition(NTR_HEADER_SIZE + tacuOffset + 8);
 
-            String tacuMagic = reader.readString(4);
+            String tacuMagic = readBlockMagic(reader);
 
             if (!tacuMagic.equals("TACU")) {
                 throw new RuntimeException("Not a valid RECN file.");
@@ -165,8 +166,9 @@ public class CellBank extends GenericNtrFile
             // read OAMs
             for (int x = 0; x < cellCount; x++)
             {
-                cells[i].oams[x].yCoord = reader.readByte(); //bits 0-7
-                byte attr0 = (byte) reader.readByte();
+                int attr0Full = reader.readUInt16();
+                cells[i].oams[x].yCoord = (byte) attr0Full; //bits 0-7
+                byte attr0 = (byte) (attr0Full >> 8);
                 cells[i].oams[x].rotation = (attr0 & 1) == 1; //bit 8
                 cells[i].oams[x].sizeDisable = ((attr0 >> 1) & 1) == 1; //bit 9 Obj Size (if rotation) or Obj Disable (if not rotation)
                 cells[i].oams[x].mode = (attr0 >> 2) & 3; //bits 10-11
@@ -194,7 +196,7 @@ public class CellBank extends GenericNtrFile
         reader.setPosition(NTR_HEADER_SIZE + cellBankSectionSize);
 
         //label data
-        String labelMagic = reader.readString(4); // 0x10
+        String labelMagic = readBlockMagic(reader); // 0x10
 
         if (!labelMagic.equals("LBAL")) {
             throw new RuntimeException("Not a valid RECN file.");
@@ -223,7 +225,7 @@ public class CellBank extends GenericNtrFile
         }
 
         //uext data
-        String uextMagic = reader.readString(4); // (note: this isn't guaranteed to be 4-byte aligned)
+        String uextMagic = readBlockMagic(reader); // (note: this isn't guaranteed to be 4-byte aligned)
 
         if (!uextMagic.equals("TXEU")) {
             throw new RuntimeException("Not a valid RECN file.");
@@ -240,119 +242,122 @@ public class CellBank extends GenericNtrFile
      */
     public byte[] save()
     {
-        MemBuf dataBuf = MemBuf.create();
-        MemBuf.MemBufWriter writer = dataBuf.writer();
-
-        writer.skip(NTR_HEADER_SIZE);
-        writer.write(NcerUtils.kbecHeader);
-        int storedPos = writer.getPosition();
-
-        writer.setPosition(NTR_HEADER_SIZE + 8);
-//        writer.writeUInt32(cellBankSectionSize); // 0x14
-        writer.writeShort((short) cells.length); // 0x18
-        writer.writeShort((short) bankType); // 0x1A
-        writer.skip(4); // bankData offset goes here - todo
-        writer.writeInt(mappingType); // 0x20
-
-        writer.setPosition(storedPos);
-        MemBuf bankBuf = MemBuf.create();
-        MemBuf.MemBufWriter bankWriter = bankBuf.writer();
-
-        int oamCount = 0;
-        // write banks
-        for (Cell cell : cells)
+        try (MemBufArena arena = MemBufArena.open())
         {
-            NcerUtils.writeCell(bankWriter, cell, oamCount);
-            oamCount += cell.oams.length;
-        }
+            MemBuf dataBuf = arena.allocate();
+            MemBuf.MemBufWriter writer = dataBuf.writer();
 
-        // write OAMs
-        for (Cell cell : cells)
-        {
-            NcerUtils.writeOams(bankWriter, cell);
-        }
+            writer.skip(NTR_HEADER_SIZE);
+            writer.write(NcerUtils.kbecHeader);
+            int storedPos = writer.getPosition();
 
-        int partitionDataOffset = writer.getPosition() + bankWriter.getPosition();
+            writer.setPosition(NTR_HEADER_SIZE + 8);
+    //        writer.writeUInt32(cellBankSectionSize); // 0x14
+            writer.writeShort((short) cells.length); // 0x18
+            writer.writeShort((short) bankType); // 0x1A
+            writer.skip(4); // bankData offset goes here - todo
+            writer.writeInt(mappingType); // 0x20
 
-        if (vramTransfer)
-        {
-            bankWriter.writeInt(0xC80); // maxPartitionSize
-            bankWriter.writeInt(8); // first partitionData entry offset (relative to partitionDataOffset)
+            writer.setPosition(storedPos);
+            MemBuf bankBuf = arena.allocate();
+            MemBuf.MemBufWriter bankWriter = bankBuf.writer();
 
-            // write partition data
+            int oamCount = 0;
+            // write banks
             for (Cell cell : cells)
             {
-                bankWriter.writeInt(cell.partitionOffset);
-                bankWriter.writeInt(cell.partitionSize);
+                NcerUtils.writeCell(bankWriter, cell, oamCount);
+                oamCount += cell.oams.length;
             }
-        }
 
-        writer.write(bankBuf.reader().getBuffer());
+            // write OAMs
+            for (Cell cell : cells)
+            {
+                NcerUtils.writeOams(bankWriter, cell);
+            }
 
-        if (vramTransfer)
-        {
-            storedPos = writer.getPosition();
-            writer.setPosition(NTR_HEADER_SIZE + 0x14);
-            writer.writeInt(partitionDataOffset - 8 - NTR_HEADER_SIZE); // writes where the partition data (vram transfer) data section starts
-            writer.setPosition(storedPos);
-        }
+            int partitionDataOffset = writer.getPosition() + bankWriter.getPosition();
 
-        if (tacu)
-        {
-            storedPos = writer.getPosition();
-            writer.setPosition(NTR_HEADER_SIZE + 0x1C);
-            writer.writeInt(storedPos - 8 - NTR_HEADER_SIZE); // writes where the TACU section starts
-            writer.setPosition(storedPos);
-        }
+            if (vramTransfer)
+            {
+                bankWriter.writeInt(0xC80); // maxPartitionSize
+                bankWriter.writeInt(8); // first partitionData entry offset (relative to partitionDataOffset)
 
-        if (tacu)
-        {
-            writer.writeString("TACU");
-            int tacuSize = 8 + (4 * cells.length);
-            tacuSize += 16 - (tacuSize % 16);
-            writer.writeInt(tacuSize + 8);
-            writer.writeShort((short) cells.length); //todo verify this?
-            writer.writeShort((short) 1); //todo verify this?
-            writer.writeInt(8); // pointer to attributes data (relative to start of TACU + 4)
+                // write partition data
+                for (Cell cell : cells)
+                {
+                    bankWriter.writeInt(cell.partitionOffset);
+                    bankWriter.writeInt(cell.partitionSize);
+                }
+            }
 
-            for (Cell cell : cells) {
-                writer.writeInt(cell.tacuData);
+            writer.write(bankBuf);
+
+            if (vramTransfer)
+            {
+                storedPos = writer.getPosition();
+                writer.setPosition(NTR_HEADER_SIZE + 0x14);
+                writer.writeInt(partitionDataOffset - 8 - NTR_HEADER_SIZE); // writes where the partition data (vram transfer) data section starts
+                writer.setPosition(storedPos);
             }
 
-            writer.skip(tacuSize + 8 - (writer.getPosition() - storedPos)); // this should be the end of TACU
-        }
+            if (tacu)
+            {
+                storedPos = writer.getPosition();
+                writer.setPosition(NTR_HEADER_SIZE + 0x1C);
+                writer.writeInt(storedPos - 8 - NTR_HEADER_SIZE); // writes where the TACU section starts
+                writer.setPosition(storedPos);
+            }
 
-        int bankSectionEnd = writer.getPosition();
-        writer.setPosition(NTR_HEADER_SIZE + 4); // writes the length of the bank section
-        writer.writeInt(bankSectionEnd - NTR_HEADER_SIZE);
-        writer.setPosition(bankSectionEnd);
+            if (tacu)
+            {
+                writer.writeString("TACU");
+                int tacuSize = 8 + (4 * cells.length);
+                tacuSize += 16 - (tacuSize % 16);
+                writer.writeInt(tacuSize + 8);
+                writer.writeShort((short) cells.length); //todo verify this?
+                writer.writeShort((short) 1); //todo verify this?
+                writer.writeInt(8); // pointer to attributes data (relative to start of TACU + 4)
+
+                for (Cell cell : cells) {
+                    writer.writeInt(cell.tacuData);
+                }
 
-        if (numBlocks > 1)
-        {
-            // write label section
+                writer.skip(tacuSize + 8 - (writer.getPosition() - storedPos)); // this should be the end of TACU
+            }
 
-            MemBuf labelBuf = MemBuf.create();
-            MemBuf.MemBufWriter labelWriter = labelBuf.writer();
+            int bankSectionEnd = writer.getPosition();
+            writer.setPosition(NTR_HEADER_SIZE + 4); // writes the length of the bank section
+            writer.writeInt(bankSectionEnd - NTR_HEADER_SIZE);
+            writer.setPosition(bankSectionEnd);
 
-            labelWriter.writeString("LBAL");
-            NcerUtils.writeLabelSection(labelWriter, cells);
-            writer.write(labelBuf.reader().getBuffer());
+            if (numBlocks > 1)
+            {
+                // write label section
 
-            // write UEXT section
+                MemBuf labelBuf = arena.allocate();
+                MemBuf.MemBufWriter labelWriter = labelBuf.writer();
 
-            writer.writeString("TXEU");
-            writer.writeInt(12); // seems to always be the size?
-            writer.writeInt(0);
-        }
+                labelWriter.writeString("LBAL");
+                NcerUtils.writeLabelSection(labelWriter, cells);
+                writer.write(labelBuf);
 
-        storedPos = writer.getPosition();
-        writer.setPosition(0); //total file size
+                // write UEXT section
 
-        writeGenericNtrHeader(writer, storedPos, numBlocks);
+                writer.writeString("TXEU");
+                writer.writeInt(12); // seems to always be the size?
+                writer.writeInt(0);
+            }
 
-        writer.setPosition(storedPos);
+            storedPos = writer.getPosition();
+            writer.setPosition(0); //total file size
+
+            writeGenericNtrHeader(writer, storedPos, numBlocks);
 
-        return dataBuf.reader().getBuffer();
+            writer.setPosition(storedPos);
+
+            return dataBuf.reader().getBuffer();
+        }
     }
 
     /**
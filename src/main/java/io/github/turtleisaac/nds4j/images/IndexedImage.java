@@ -21,8 +21,10 @@ package io.github.turtleisaac.nds4j.images;
 
 import io.github.turtleisaac.nds4j.framework.BinaryWriter;
 import io.github.turtleisaac.nds4j.framework.Buffer;
+import io.github.turtleisaac.nds4j.framework.ChannelReader;
 import io.github.turtleisaac.nds4j.framework.GenericNtrFile;
 import io.github.turtleisaac.nds4j.framework.MemBuf;
+import io.github.turtleisaac.nds4j.framework.MemBufArena;
 
 import javax.swing.*;
 import java.awt.*;
@@ -31,6 +33,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
@@ -38,7 +42,6 @@ import java.util.zip.CRC32;
 import java.util.zip.DeflaterOutputStream;
 import java.util.zip.InflaterInputStream;
 
-import static io.github.turtleisaac.nds4j.framework.Endianness.swapEndianness;
 
 /**
  * An object representation of an NCGR file. <p>
@@ -87,7 +90,7 @@ public class IndexedImage extends GenericNtrFile
     public IndexedImage(byte[] data, int tilesWidth, int bitDepth, int colsPerChunk, int rowsPerChunk, boolean scanFrontToBack)
     {
         super("RGCN");
-        MemBuf dataBuf = MemBuf.create(data);
+        MemBuf dataBuf = MemBuf.wrap(data);
         MemBuf.MemBufReader reader = dataBuf.reader();
         int fileSize = dataBuf.writer().getPosition();
 
@@ -98,7 +101,7 @@ public class IndexedImage extends GenericNtrFile
         // reader position is now 0x10
 
         //character data
-        String charMagic = reader.readString(4);
+        String charMagic = readBlockMagic(reader);
 
         if (!charMagic.equals("RAHC")) {
             throw new RuntimeException("Not a valid NCGR file.");
@@ -424,108 +427,111 @@ public class IndexedImage extends GenericNtrFile
             throw new RuntimeException(String.format("The specified number of tiles (%d) is greater than the maximum possible value (%d).", numTiles, maxNumTiles));
 
         int bufferSize = numTiles * tileSize;
-        MemBuf pixelsBuf = MemBuf.create();
-        MemBuf.MemBufWriter writer = pixelsBuf.writer();
-
-        if (scanMode != NcgrUtils.ScanMode.NOT_SCANNED)
+        try (MemBufArena arena = MemBufArena.open())
         {
-            switch (bitDepth)
+            MemBuf pixelsBuf = arena.allocate(bufferSize);
+            MemBuf.MemBufWriter writer = pixelsBuf.writer();
+
+            if (scanMode != NcgrUtils.ScanMode.NOT_SCANNED)
             {
-                case 4:
-                    writer.write(NcgrUtils.convertToScanned4Bpp(this, bufferSize));
-                    break;
-                case 8:
-                    throw new RuntimeException("8bpp not supported yet.");
-//                    writer.write(NcgrUtils.convertToScanned8Bpp(this, bufferSize));
-//                    break;
+                switch (bitDepth)
+                {
+                    case 4:
+                        writer.write(NcgrUtils.convertToScanned4Bpp(this, bufferSize));
+                        break;
+                    case 8:
+                        throw new RuntimeException("8bpp not supported yet.");
+    //                    writer.write(NcgrUtils.convertToScanned8Bpp(this, bufferSize));
+    //                    break;
+                }
             }
-        }
-        else
-        {
-            switch (bitDepth)
+            else
             {
-                case 4:
-                    writer.write(NcgrUtils.convertToTiles4Bpp(this));
-                    break;
-                case 8:
-                    writer.write(NcgrUtils.convertToTiles8Bpp(this));
-                    break;
+                switch (bitDepth)
+                {
+                    case 4:
+                        writer.write(NcgrUtils.convertToTiles4Bpp(this));
+                        break;
+                    case 8:
+                        writer.write(NcgrUtils.convertToTiles8Bpp(this));
+                        break;
+                }
             }
-        }
 
-        MemBuf dataBuf = MemBuf.create();
-        writer = dataBuf.writer();
+            MemBuf dataBuf = arena.allocate();
+            writer = dataBuf.writer();
 
-        writeGenericNtrHeader(writer, bufferSize + (sopc ? 0x30 : 0x20), sopc ? 2 : 1);
+            writeGenericNtrHeader(writer, bufferSize + (sopc ? 0x30 : 0x20), sopc ? 2 : 1);
 
-        writer.write(NcgrUtils.charHeader);
-        writer.setPosition(NcgrUtils.charHeaderPos + 8);
+            writer.write(NcgrUtils.charHeader);
+            writer.setPosition(NcgrUtils.charHeaderPos + 8);
 
-        if (mappingType == 32)
-        {
-            writer.writeShort((short) tilesHeight); // 0x18
-            writer.writeShort((short) tilesWidth); // 0x1A
-        }
-        else // if mappingType > 0
-        {
-            writer.writeBytes(0xFF, 0xFF, 0xFF, 0xFF);
-            writer.skip(4);
-            writer.writeByte((byte) 0x10);
-        }
+            if (mappingType == 32)
+            {
+                writer.writeShort((short) tilesHeight); // 0x18
+                writer.writeShort((short) tilesWidth); // 0x1A
+            }
+            else // if mappingType > 0
+            {
+                writer.writeBytes(0xFF, 0xFF, 0xFF, 0xFF);
+                writer.skip(4);
+                writer.writeByte((byte) 0x10);
+            }
 
-        writer.setPosition(NcgrUtils.charHeaderPos + 12);
-        writer.writeByte((byte) (bitDepth == 4 ? 3 : 4));
+            writer.setPosition(NcgrUtils.charHeaderPos + 12);
+            writer.writeByte((byte) (bitDepth == 4 ? 3 : 4));
+
+            writer.setPosition(NcgrUtils.charHeaderPos + 18);
+            if (mappingType != 0) {
+                short val = 0;
+                switch (mappingType) {
+                    case 32:
+                        break;
+                    case 64:
+                        val = 0x10;
+                        break;
+                    case 128:
+                        val = 0x20;
+                        break;
+                    case 256:
+                        val = 0x30;
+                        break;
+                    default:
+                        throw new RuntimeException(String.format("Invalid mapping type %d", mappingType));
+                }
 
-        writer.setPosition(NcgrUtils.charHeaderPos + 18);
-        if (mappingType != 0) {
-            short val = 0;
-            switch (mappingType) {
-                case 32:
-                    break;
-                case 64:
-                    val = 0x10;
-                    break;
-                case 128:
-                    val = 0x20;
-                    break;
-                case 256:
-                    val = 0x30;
-                    break;
-                default:
-                    throw new RuntimeException(String.format("Invalid mapping type %d", mappingType));
+                writer.writeShort(val); // 0x22
+            }
+            else
+            {
+                writer.skip(2);
             }
 
-            writer.writeShort(val); // 0x22
-        }
-        else
-        {
+            writer.writeByte((byte) (scanMode != NcgrUtils.ScanMode.NOT_SCANNED ? 1 : 0)); // 0x24
+            writer.writeByte((byte) (vram ? 1 : 0)); // 0x25
             writer.skip(2);
-        }
 
-        writer.writeByte((byte) (scanMode != NcgrUtils.ScanMode.NOT_SCANNED ? 1 : 0)); // 0x24
-        writer.writeByte((byte) (vram ? 1 : 0)); // 0x25
-        writer.skip(2);
+            writer.writeInt(bufferSize);
+            writer.setPosition(NcgrUtils.pixelsPos);
 
-        writer.writeInt(bufferSize);
-        writer.setPosition(NcgrUtils.pixelsPos);
+            writer.write(pixelsBuf);
 
-        writer.write(pixelsBuf.reader().getBuffer());
+            if (sopc)
+            {
+                MemBuf sopcBuf = arena.allocate(NcgrUtils.sopcBuffer.length);
+                MemBuf.MemBufWriter sopcWriter = sopcBuf.writer().write(NcgrUtils.sopcBuffer);
+                int endPos = sopcWriter.getPosition();
 
-        if (sopc)
-        {
-            MemBuf sopcBuf = MemBuf.create(NcgrUtils.sopcBuffer);
-            MemBuf.MemBufWriter sopcWriter = sopcBuf.writer();
-            int endPos = sopcWriter.getPosition();
+                sopcWriter.setPosition(12);
+                sopcWriter.writeShort((short) tilesWidth);
+                sopcWriter.writeShort((short) tilesHeight);
+                sopcWriter.setPosition(endPos);
 
-            sopcWriter.setPosition(12);
-            sopcWriter.writeShort((short) tilesWidth);
-            sopcWriter.writeShort((short) tilesHeight);
-            sopcWriter.setPosition(endPos);
+                writer.write(sopcBuf);
+            }
 
-            writer.write(sopcBuf.reader().getBuffer());
+            return dataBuf.reader().getBuffer();
         }
-
-        return dataBuf.reader().getBuffer();
     }
 
     /**
@@ -1194,13 +1200,14 @@ public class IndexedImage extends GenericNtrFile
 
             int encValue;
 
-            MemBuf dataBuf = MemBuf.create(src);
-            MemBuf.MemBufReader reader = dataBuf.reader();
+            MemBuf dataBuf = MemBuf.wrap(src);
+            MemBuf.MemBufReader reader = dataBuf.reader().order(image.byteOrder);
 
-            int[] data = new int[width*height/4];
+            short[] words = reader.readShorts(width*height/4);
+            int[] data = new int[words.length];
             for (int i = 0; i < data.length; i++)
             {
-                data[i] = reader.readUInt16();
+                data[i] = words[i] & 0xffff;
             }
 
             if (scanFrontToBack)
@@ -1256,13 +1263,14 @@ public class IndexedImage extends GenericNtrFile
 
             int encValue;
 
-            MemBuf dataBuf = MemBuf.create(src);
-            MemBuf.MemBufReader reader = dataBuf.reader();
+            MemBuf dataBuf = MemBuf.wrap(src);
+            MemBuf.MemBufReader reader = dataBuf.reader().order(image.byteOrder);
 
-            int[] data = new int[width*height/4];
+            short[] words = reader.readShorts(width*height/4);
+            int[] data = new int[words.length];
             for (int i = 0; i < data.length; i++)
             {
-                data[i] = reader.readUInt16();
+                data[i] = words[i] & 0xffff;
             }
 
             if (scanFrontToBack)
@@ -1901,106 +1909,103 @@ public class IndexedImage extends GenericNtrFile
      */
     public static IndexedImage fromIndexedPngFile(String file) throws IOException
     {
-        byte[] fileContents = Buffer.readFile(file);
-
-        int paletteIdx = 0;
-        int imageDataIdx = 0;
-
-        for (int i = 0; i < fileContents.length - 4; i++)
+        try (ChannelReader reader = ChannelReader.open(Paths.get(file)))
         {
-            byte[] thisFour = Arrays.copyOfRange(fileContents,i,i+4);
+            reader.order(ByteOrder.BIG_ENDIAN);
 
-            if (Arrays.equals(thisFour,paletteChunkHeader))
+            byte[] first8 = reader.readBytes(8);
+            if (!Arrays.equals(pngHeader, first8))
             {
-                paletteIdx = i;
+                throw new PngUtils.PngParseException("\"" + file + "\" is not a PNG file");
             }
 
-            if (Arrays.equals(thisFour,dataChunkHeader))
+            reader.skip(8); //jumps to IHDR chunk
+
+            int width = reader.readInt();
+            int height = reader.readInt();
+
+            int bitDepth = reader.readByte();
+            int colorType = reader.readByte();
+            int compressionMethod = reader.readByte();
+            int filterMethod = reader.readByte();
+            int interlaceMethod = reader.readByte();
+
+
+            //todo create enums for these to increase readability
+            if (colorType != 3)
             {
-                imageDataIdx = i;
+                throw new PngUtils.PngParseException("Not an indexed image: " + colorType);
             }
 
-            if (Arrays.equals(thisFour,endChunkHeader))
+            if (compressionMethod != 0)
             {
-                break;
+                throw new PngUtils.PngParseException("Invalid image compression method: " + compressionMethod);
             }
-        }
-
-        Buffer buffer = new Buffer(file);
-        byte[] first8 = buffer.readBytes(8);
-        if (!Arrays.equals(pngHeader, first8))
-        {
-            throw new PngUtils.PngParseException("\"" + file + "\" is not a PNG file");
-        }
-
-        buffer.skipBytes(8); //jumps to IHDR chunk
 
-        int width = swapEndianness(buffer.readInt());
-        int height = swapEndianness(buffer.readInt());
-
-        int bitDepth = buffer.readByte();
-        int colorType = buffer.readByte();
-        int compressionMethod = buffer.readByte();
-        int filterMethod = buffer.readByte();
-        int interlaceMethod = buffer.readByte();
+            if (filterMethod != 0)
+            {
+                throw new PngUtils.PngParseException("Invalid filter method: " + filterMethod);
+            }
 
+            if (interlaceMethod < 0 || interlaceMethod > 1)
+            {
+                throw new PngUtils.PngParseException("Invalid interlace method: " + interlaceMethod);
+            }
 
-        //todo create enums for these to increase readability
-        if (colorType != 3)
-        {
-            throw new PngUtils.PngParseException("Not an indexed image: " + colorType);
-        }
+            reader.skip(4); // IHDR CRC
 
-        if (compressionMethod != 0)
-        {
-            throw new PngUtils.PngParseException("Invalid image compression method: " + compressionMethod);
-        }
+            // walk the remaining chunks, reading the palette and all of the image data
+            ArrayList<Color> colorList = new ArrayList<>();
+            ByteArrayOutputStream imageDataStream = new ByteArrayOutputStream();
+            while (reader.getLength() - reader.getPosition() >= 8)
+            {
+                int chunkLength = reader.readInt();
+                byte[] chunkType = reader.readBytes(4);
 
-        if (filterMethod != 0)
-        {
-            throw new PngUtils.PngParseException("Invalid filter method: " + filterMethod);
-        }
+                if (Arrays.equals(chunkType, endChunkHeader))
+                {
+                    break;
+                }
+                else if (Arrays.equals(chunkType, paletteChunkHeader))
+                {
+                    for (int i = 0; i < chunkLength/3; i++)
+                    {
+                        int r = reader.readByte();
+                        r -= r%8;
 
-        if (interlaceMethod < 0 || interlaceMethod > 1)
-        {
-            throw new PngUtils.PngParseException("Invalid interlace method: " + interlaceMethod);
-        }
+                        int g = reader.readByte();
+                        g -= g%8;
 
-//        System.out.println("Bit Depth: " + bitDepth);
-        ArrayList<Color> colorList = new ArrayList<>();
-        buffer.skipTo(paletteIdx-4);
+                        int b = reader.readByte();
+                        b -= b%8;
 
-        int chunkLength = swapEndianness(buffer.readInt());
-        buffer.skipBytes(4);
+                        colorList.add(new Color(r,g,b));
+                    }
+                    reader.skip(chunkLength % 3);
+                }
+                else if (Arrays.equals(chunkType, dataChunkHeader))
+                {
+                    imageDataStream.write(reader.readBytes(chunkLength));
+                }
+                else
+                {
+                    reader.skip(chunkLength);
+                }
 
-        for (int i = 0; i < chunkLength/3; i++)
-        {
-            int r = buffer.readByte();
-            r -= r%8;
+                reader.skip(4); // CRC
+            }
 
-            int g = buffer.readByte();
-            g -= g%8;
+            byte[] imageData = imageDataStream.toByteArray();
+            imageData = PngUtils.decompress(imageData);
 
-            int b = buffer.readByte();
-            b -= b%8;
+            Palette palette = new Palette(colorList.toArray(new Color[0]));
+            IndexedImage ret = new IndexedImage(height, width, bitDepth, palette);
+            ret.setPixels(PngUtils.createScanlines(imageData,bitDepth,filterMethod,width,height));
+            ret.bitDepth = bitDepth;
+            ret.scanMode = NcgrUtils.ScanMode.NOT_SCANNED;
 
-            colorList.add(new Color(r,g,b));
+            return ret;
         }
-
-        buffer.skipTo(imageDataIdx-4);
-        chunkLength = swapEndianness(buffer.readInt());
-        buffer.skipBytes(4);
-
-        byte[] imageData = buffer.readBytes(chunkLength);
-        imageData = PngUtils.decompress(imageData);
-
-        Palette palette = new Palette(colorList.toArray(new Color[0]));
-        IndexedImage ret = new IndexedImage(height, width, bitDepth, palette);
-        ret.setPixels(PngUtils.createScanlines(imageData,bitDepth,filterMethod,width,height));
-        ret.bitDepth = bitDepth;
-        ret.scanMode = NcgrUtils.ScanMode.NOT_SCANNED;
-
-        return ret;
     }
 
     // PNG exporting code
@@ -2012,79 +2017,82 @@ public class IndexedImage extends GenericNtrFile
      */
     public byte[] saveAsIndexedPng() throws IOException
     {
-        //Image Header Chunk (IHDR)
-        MemBuf imageHeaderBuf = MemBuf.create();
-        MemBuf.MemBufWriter writer = imageHeaderBuf.writer().write(imageChunkHeader);
-
-        if (palette.size() > 16)
-        {
-            bitDepth = 8;
-        }
-        else if (palette.size() > 4)
-        {
-            bitDepth = 4;
-        }
-        else
+        try (MemBufArena arena = MemBufArena.open())
         {
-            bitDepth = 2;
-        }
+            //Image Header Chunk (IHDR)
+            MemBuf imageHeaderBuf = arena.allocate();
+            MemBuf.MemBufWriter writer = imageHeaderBuf.writer().order(ByteOrder.BIG_ENDIAN).write(imageChunkHeader);
+
+            if (palette.size() > 16)
+            {
+                bitDepth = 8;
+            }
+            else if (palette.size() > 4)
+            {
+                bitDepth = 4;
+            }
+            else
+            {
+                bitDepth = 2;
+            }
 
-        int colorType = 3;
-        int compressionMethod = 0;
-        int filterMethod = 0;
-        int interlaceMethod = 0;
+            int colorType = 3;
+            int compressionMethod = 0;
+            int filterMethod = 0;
+            int interlaceMethod = 0;
 
-        writer.writeInt(swapEndianness(width));
-        writer.writeInt(swapEndianness(height));
-        writer.writeBytes(bitDepth,colorType,compressionMethod,filterMethod,interlaceMethod);
+            writer.writeInt(width);
+            writer.writeInt(height);
+            writer.writeBytes(bitDepth,colorType,compressionMethod,filterMethod,interlaceMethod);
 
-        //Palette Chunk (PLTE)
-        MemBuf paletteBuf = MemBuf.create();
-        writer = paletteBuf.writer().write(paletteChunkHeader);
+            //Palette Chunk (PLTE)
+            MemBuf paletteBuf = arena.allocate();
+            writer = paletteBuf.writer().write(paletteChunkHeader);
 
-        for (Color c : palette.getColors())
-        {
-            writer.writeBytes(c.getRed(),c.getGreen(),c.getBlue());
-        }
+            for (Color c : palette.getColors())
+            {
+                writer.writeBytes(c.getRed(),c.getGreen(),c.getBlue());
+            }
 
-        //Image Data Chunk (IDAT)
-        MemBuf dataBuf = MemBuf.create();
-        writer = dataBuf.writer().write(dataChunkHeader);
+            //Image Data Chunk (IDAT)
+            MemBuf dataBuf = arena.allocate();
+            writer = dataBuf.writer().write(dataChunkHeader);
 
-        byte[] imageData = PngUtils.convertScanlines(pixels,bitDepth,filterMethod);
-        imageData = PngUtils.compress(imageData);
+            byte[] imageData = PngUtils.convertScanlines(pixels,bitDepth,filterMethod);
+            imageData = PngUtils.compress(imageData);
 
-        writer.write(imageData);
+            writer.write(imageData);
 
-        //Image End Chunk (IEND)
-        MemBuf endBuf = MemBuf.create();
-        writer = endBuf.writer();
+            //Image End Chunk (IEND)
+            MemBuf endBuf = arena.allocate();
+            writer = endBuf.writer();
 
-        writer.write(endChunkHeader);
+            writer.write(endChunkHeader);
 
-        //Writing image
-        MemBuf imageBuf = MemBuf.create();
-        MemBuf.MemBufWriter imageWriter = imageBuf.writer();
+            //Writing image
+            MemBuf imageBuf = arena.allocate();
+            MemBuf.MemBufWriter imageWriter = imageBuf.writer().order(ByteOrder.BIG_ENDIAN);
 
-        imageWriter.write(pngHeader);
+            imageWriter.write(pngHeader);
 
-        imageWriter.writeInt(swapEndianness(imageHeaderBuf.reader().getBuffer().length-4));
-        imageWriter.write(imageHeaderBuf.reader().getBuffer());
-        imageWriter.writeInt(PngUtils.getCrc32(imageHeaderBuf.reader().getBuffer()));
+            imageWriter.writeInt(imageHeaderBuf.writer().getPosition()-4);
+            imageWriter.write(imageHeaderBuf);
+            imageWriter.writeInt(PngUtils.getCrc32(imageHeaderBuf));
 
-        imageWriter.writeInt(swapEndianness(paletteBuf.reader().getBuffer().length-4));
-        imageWriter.write(paletteBuf.reader().getBuffer());
-        imageWriter.writeInt(PngUtils.getCrc32(paletteBuf.reader().getBuffer()));
+            imageWriter.writeInt(paletteBuf.writer().getPosition()-4);
+            imageWriter.write(paletteBuf);
+            imageWriter.writeInt(PngUtils.getCrc32(paletteBuf));
 
-        imageWriter.writeInt(swapEndianness(dataBuf.reader().getBuffer().length-4));
-        imageWriter.write(dataBuf.reader().getBuffer());
-        imageWriter.writeInt(PngUtils.getCrc32(dataBuf.reader().getBuffer()));
+            imageWriter.writeInt(dataBuf.writer().getPosition()-4);
+            imageWriter.write(dataBuf);
+            imageWriter.writeInt(PngUtils.getCrc32(dataBuf));
 
-        imageWriter.writeInt(swapEndianness(endBuf.reader().getBuffer().length-4));
-        imageWriter.write(endBuf.reader().getBuffer());
-        imageWriter.writeInt(PngUtils.getCrc32(endBuf.reader().getBuffer()));
+            imageWriter.writeInt(endBuf.writer().getPosition()-4);
+            imageWriter.write(endBuf);
+            imageWriter.writeInt(PngUtils.getCrc32(endBuf));
 
-        return imageBuf.reader().getBuffer();
+            return imageBuf.reader().getBuffer();
+        }
     }
 
     /**
@@ -2160,14 +2168,14 @@ public class IndexedImage extends GenericNtrFile
             return ret;
         }
 
-        private static int getCrc32(byte[] arr)
+        private static int getCrc32(MemBuf memBuf)
         {
             CRC32 crc32 = new CRC32();
 
             crc32.reset();
-            crc32.update(arr);
+            crc32.update(memBuf.newReader().readSlice(memBuf.writer().getPosition()));
 
-            return swapEndianness((int) crc32.getValue());
+            return (int) crc32.getValue();
         }
 
         // PNG importing code
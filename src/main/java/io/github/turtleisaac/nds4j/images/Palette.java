@@ -23,6 +23,7 @@ import io.github.turtleisaac.nds4j.framework.BinaryWriter;
 import io.github.turtleisaac.nds4j.framework.Buffer;
 import io.github.turtleisaac.nds4j.framework.GenericNtrFile;
 import io.github.turtleisaac.nds4j.framework.MemBuf;
+import io.github.turtleisaac.nds4j.framework.MemBufArena;
 
 import java.awt.*;
 import java.io.File;
@@ -51,7 +52,7 @@ public class Palette extends GenericNtrFile
     {
         super("RLCN", "RPCN");
 
-        MemBuf dataBuf = MemBuf.create(data);
+        MemBuf dataBuf = MemBuf.wrap(data);
         MemBuf.MemBufReader reader = dataBuf.reader();
         int fileSize = dataBuf.writer().getPosition();
 
@@ -60,7 +61,7 @@ public class Palette extends GenericNtrFile
         // reader position is now 0x10
 
         //palette data
-        String paletteMagic = reader.readString(4);
+        String paletteMagic = readBlockMagic(reader);
 
         if (!paletteMagic.equals("TTLP")) {
             throw new RuntimeException("Not a valid NCLR or NCPR file.");
@@ -102,9 +103,10 @@ public class Palette extends GenericNtrFile
         this.compNum = compNum;
 
         reader.setPosition(0x18 + colorStartOffset);
-        for (int i = 0; i < paletteLength / 2; i++)
+        short[] bgr = reader.readShorts((int) (paletteLength / 2));
+        for (int i = 0; i < bgr.length; i++)
         {
-            colors[i] = NclrUtils.bgr555ToColor((byte) reader.readByte(), (byte) reader.readByte());
+            colors[i] = NclrUtils.bgr555ToColor(bgr[i] & 0xffff);
         }
 
         if (colors[ (int) (paletteLength / 2) - 1].equals(NclrUtils.irColor)) //honestly no clue why this is a thing
@@ -183,40 +185,43 @@ public class Palette extends GenericNtrFile
      */
     public byte[] save()
     {
-        MemBuf dataBuf = MemBuf.create();
-        MemBuf.MemBufWriter writer = dataBuf.writer();
+        try (MemBufArena arena = MemBufArena.open())
+        {
+            MemBuf dataBuf = arena.allocate();
+            MemBuf.MemBufWriter writer = dataBuf.writer();
 
-        int numColors = colors.length;
+            int numColors = colors.length;
 
-        int size = numColors * 2; // two bytes per color
-        int extSize = size + (whichMagic == 1 ? 0x10 : 0x18) + NTR_HEADER_SIZE;
+            int size = numColors * 2; // two bytes per color
+            int extSize = size + (whichMagic == 1 ? 0x10 : 0x18) + NTR_HEADER_SIZE;
 
-        writeGenericNtrHeader(writer, extSize, 1);
+            writeGenericNtrHeader(writer, extSize, 1);
 
-        // writer position is now 0x10
+            // writer position is now 0x10
 
-        writer.write(NclrUtils.palHeader);
-        int storedPos = writer.getPosition();
+            writer.write(NclrUtils.palHeader);
+            int storedPos = writer.getPosition();
 
-        writer.setPosition(NTR_HEADER_SIZE + 4);
-        writer.writeInt(extSize - NTR_HEADER_SIZE); // 0x14
+            writer.setPosition(NTR_HEADER_SIZE + 4);
+            writer.writeInt(extSize - NTR_HEADER_SIZE); // 0x14
 
-        if (bitDepth <= 0)
-            bitDepth = 4;
+            if (bitDepth <= 0)
+                bitDepth = 4;
 
-        writer.writeShort((short) (bitDepth == 4 ? 0x3 : 0x4)); // 0x18
-        writer.writeByte((byte) (compNum)); // 0x1A
+            writer.writeShort((short) (bitDepth == 4 ? 0x3 : 0x4)); // 0x18
+            writer.writeByte((byte) (compNum)); // 0x1A
 
-        writer.setPosition(NTR_HEADER_SIZE + 0x10);
-        writer.writeInt(size);
+            writer.setPosition(NTR_HEADER_SIZE + 0x10);
+            writer.writeInt(size);
 
-        writer.setPosition(storedPos);
+            writer.setPosition(storedPos);
 
-        for(Color color : colors) {
-            writer.write(NclrUtils.colorToBGR555(color));
-        }
+            for(Color color : colors) {
+                writer.write(NclrUtils.colorToBGR555(color));
+            }
 
-        return dataBuf.reader().getBuffer();
+            return dataBuf.reader().getBuffer();
+        }
     }
 
     /**
@@ -417,12 +422,10 @@ public class Palette extends GenericNtrFile
 
         protected static final Color irColor = new Color(72, 144, 160);
 
-        private static Color bgr555ToColor(byte byte1, byte byte2)
+        private static Color bgr555ToColor(int bgr)
         {
             int r, b, g;
 
-            int bgr = ((byte2 & 0xff) << 8) | (byte1 & 0xff);
-
             r = (bgr & 0x001F) << 3;
             g = ((bgr & 0x03E0) >> 2);
             b = ((bgr & 0x7C00) >> 7);
@@ -20,12 +20,17 @@
 package io.github.turtleisaac.nds4j;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 import io.github.turtleisaac.nds4j.Fnt;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 
 public class FolderTest
@@ -109,12 +114,76 @@ public class FolderTest
                 .isEqualTo(-1);
     }
 
+    @Test
+    void getIdOfNormalizesSeparators() {
+        assertThat(folder.getIdOf("/a//test/leg/"))
+                .isEqualTo(3);
+        assertThat(folder.getIdOf(new StringBuilder("sub2/c")))
+                .isEqualTo(12);
+        assertThat(folder.getIdOf("a/test"))
+                .isEqualTo(-1);
+    }
+
+    @Test
+    void getIdOfSeesModifications() {
+        assertThat(folder.getIdOf("a/test/leg"))
+                .isEqualTo(3);
+        test.getFiles().set(0, "arm");
+        folder.getFolders().put("new", new Fnt.Folder(null, new ArrayList<String>() {{ add("x"); }}, 13));
+        assertThat(folder.getIdOf("a/test/leg"))
+                .isEqualTo(-1);
+        assertThat(folder.getIdOf("a/test/arm"))
+                .isEqualTo(3);
+        assertThat(folder.getIdOf("new/x"))
+                .isEqualTo(13);
+        folder.getFolders().keySet().remove("new");
+        assertThat(folder.getIdOf("new/x"))
+                .isEqualTo(-1);
+    }
+
+    @Test
+    void modificationsOnlyAffectTheirOwnTree() {
+        byte[] fnt = Fnt.save(folder).reader().getBuffer();
+        Fnt.Folder compact = Fnt.loadCompact(fnt);
+        assertThat(compact.getIdOf("a/test/leg"))
+                .isEqualTo(3);
+
+        // modifying another tree doesn't stop the table from being copied as it is
+        Fnt.Folder other = new Fnt.Folder();
+        other.getFiles().add("x");
+        assertThat(Fnt.save(compact).reader().getBuffer())
+                .isEqualTo(fnt);
+
+        // but modifying a folder deep within the tree is seen by its root
+        Fnt.Folder deep = new Fnt.Folder(null, new ArrayList<>(), 20);
+        folder.getSubfolder("a/test").getFolders().put("deep", deep);
+        assertThat(folder.getIdOf("a/test/deep/y"))
+                .isEqualTo(-1);
+        deep.getFiles().add("y");
+        assertThat(folder.getIdOf("a/test/deep/y"))
+                .isEqualTo(20);
+    }
+
     @Test
     void getFilenameOf() {
         assertThat(folder.getFilenameOf(0))
                 .isEqualTo("Alpha");
         assertThat(folder.getFilenameOf(32))
                 .isNull();
+        assertThat(folder.getFilenameOf(3))
+                .isEqualTo("a/test/leg");
+    }
+
+    @Test
+    void paths() {
+        String[] paths = folder.paths();
+        assertThat(paths)
+                .hasSize(13);
+        for (int id = 0; id < paths.length; id++)
+        {
+            assertThat(folder.getIdOf(paths[id]))
+                    .isEqualTo(id);
+        }
     }
 
     @Test
@@ -131,4 +200,133 @@ public class FolderTest
                 .isNotEqualTo(folder.getSubfolder("sub2"));
     }
 
+    @Test
+    void saveAndLoadKeepsPaths() {
+        byte[] fnt = Fnt.save(folder).reader().getBuffer();
+        assertThat(Fnt.load(fnt).paths())
+                .isEqualTo(folder.paths());
+        assertThat(Fnt.save(Fnt.load(fnt)).reader().getBuffer())
+                .isEqualTo(fnt);
+    }
+
+    @Test
+    void lazyLoadMatchesEagerLoad() {
+        byte[] fnt = Fnt.save(folder).reader().getBuffer();
+        Fnt.Folder lazy = Fnt.load(fnt, true);
+        assertThat(lazy.getIdOf("a/test/leg"))
+                .isEqualTo(3);
+        assertThat(lazy.getIdOf("a/test"))
+                .isEqualTo(-1);
+        assertThat(lazy)
+                .isEqualTo(Fnt.load(fnt));
+        assertThat(Fnt.save(Fnt.load(fnt, true)).reader().getBuffer())
+                .isEqualTo(fnt);
+
+        // once the root has been read, lookups go through its path index
+        assertThat(lazy.getIdOf("/sub2//c"))
+                .isEqualTo(12);
+        lazy.getSubfolder("a/test").getFiles().set(0, "arm");
+        assertThat(lazy.getIdOf("a/test/leg"))
+                .isEqualTo(-1);
+        assertThat(lazy.getIdOf("a/test/arm"))
+                .isEqualTo(3);
+    }
+
+    @Test
+    void lookupsOnlyReadFoldersOnTheirPath() {
+        Fnt.Folder root = new Fnt.Folder();
+        int id = 0;
+        for (int i = 0; i < 10; i++)
+        {
+            Fnt.Folder d = new Fnt.Folder(null, new ArrayList<>(), id);
+            for (int j = 0; j < 5; j++)
+            {
+                d.getFolders().put("e" + j, new Fnt.Folder(null, new ArrayList<>(Arrays.asList("f.bin")), id++));
+            }
+            root.getFolders().put("d" + i, d);
+        }
+        byte[] fnt = Fnt.save(root).reader().getBuffer();
+
+        for (Fnt.Folder loaded : Arrays.asList(Fnt.load(fnt, true), Fnt.loadCompact(fnt)))
+        {
+            // modifying the tree keeps compact folders from answering lookups from the table
+            loaded.getSubfolder("d0").getFiles().add("x");
+            assertThat(loaded.getIdOf("d3/e4/f.bin"))
+                    .isEqualTo(root.getIdOf("d3/e4/f.bin"));
+            assertThat(loaded.getIdOf("d7/e1/f.bin"))
+                    .isEqualTo(root.getIdOf("d7/e1/f.bin"));
+            assertThat(loaded.getIdOf("d7/e1/g.bin"))
+                    .isEqualTo(-1);
+            assertThat(loaded.getSubfolder("d5").isMaterialized())
+                    .isFalse();
+            assertThat(loaded.getSubfolder("d7/e2").isMaterialized())
+                    .isFalse();
+            assertThat(loaded.getSubfolder("d7/e1").isMaterialized())
+                    .isTrue();
+        }
+    }
+
+    @Test
+    void compactLoadMatchesEagerLoad() {
+        byte[] fnt = Fnt.save(folder).reader().getBuffer();
+        Fnt.Folder compact = Fnt.loadCompact(fnt);
+        assertThat(compact.getIdOf("a/test/leg"))
+                .isEqualTo(3);
+        assertThat(compact.getIdOf("a/test"))
+                .isEqualTo(-1);
+        assertThat(compact.paths())
+                .isEqualTo(Fnt.load(fnt).paths());
+        assertThat(compact.getSubfolder("a").paths())
+                .isEqualTo(Fnt.load(fnt).getSubfolder("a").paths());
+        assertThat(Fnt.save(compact).reader().getBuffer())
+                .isEqualTo(fnt);
+
+        // modifying a subfolder is seen by the root folder
+        compact.getSubfolder("a/test").getFiles().add("arm");
+        assertThat(compact.getIdOf("a/test/arm"))
+                .isEqualTo(4);
+        assertThat(Fnt.load(Fnt.save(compact).reader().getBuffer()).getIdOf("a/test/arm"))
+                .isEqualTo(4);
+    }
+
+    @Test
+    void find() {
+        assertThat(folder.find("*ta").map(Fnt.Entry::getPath))
+                .containsExactly("Beta", "Delta");
+        assertThat(folder.find("sub*/a").map(Fnt.Entry::getId))
+                .containsExactly(7, 10);
+        assertThat(folder.find("a/**").map(Fnt.Entry::getPath))
+                .containsExactly("a/test/leg", "a/a", "a/b", "a/c");
+        assertThat(folder.find("**/?").map(Fnt.Entry::getId))
+                .containsExactly(4, 5, 6, 7, 8, 9, 10, 11, 12);
+        assertThat(folder.find("/a//test/*").map(Fnt.Entry::getId))
+                .containsExactly(3);
+        assertThat(folder.find("**").parallel().count())
+                .isEqualTo(folder.paths().length);
+        assertThat(Glob.compile("**/l?g").matches("a/test/leg"))
+                .isTrue();
+        assertThat(Glob.compile("a/*/leg").matches("a/leg"))
+                .isFalse();
+    }
+
+    @Test
+    void loadFromDisk(@TempDir Path dir) throws IOException {
+        Files.write(dir.resolve("b.bin"), new byte[] {2});
+        Files.write(dir.resolve("a.bin"), new byte[] {1});
+        Files.write(dir.resolve(".DS_Store"), new byte[] {0});
+        Files.createDirectories(dir.resolve("sub"));
+        Files.write(dir.resolve("sub").resolve("x"), new byte[] {3});
+        Files.createDirectories(dir.resolve(".hidden"));
+        Files.write(dir.resolve(".hidden").resolve("y"), new byte[] {0});
+        Files.write(dir.resolve("c.bin"), new byte[] {4});
+
+        ArrayList<byte[]> files = new ArrayList<>(Arrays.asList(new byte[] {9}, null, null, null, null));
+        assertThat(Fnt.calculateNumFiles(dir.toFile()))
+                .isEqualTo(4);
+        Fnt.Folder loaded = Fnt.loadFromDisk(dir.toFile(), files);
+        assertThat(loaded.paths())
+                .containsExactly(null, "a.bin", "b.bin", "c.bin", "sub/x");
+        assertThat(files)
+                .containsExactly(new byte[] {9}, new byte[] {1}, new byte[] {2}, new byte[] {4}, new byte[] {3});
+    }
 }
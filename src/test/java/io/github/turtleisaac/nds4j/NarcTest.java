@@ -19,14 +19,21 @@
 
 package io.github.turtleisaac.nds4j;
 
+import io.github.turtleisaac.nds4j.framework.Compression;
 import io.github.turtleisaac.nds4j.framework.Endianness;
+import io.github.turtleisaac.nds4j.framework.MemBuf;
+import io.github.turtleisaac.nds4j.framework.PayloadStore;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ListIterator;
 import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class NarcTest
 {
@@ -77,4 +84,228 @@ public class NarcTest
         assertThat(narc.save())
                 .isNotEqualTo(narc2.save());
     }
+
+    @Test
+    void equalNarcsHaveEqualHashCodes() {
+        Narc narc2 = Narc.fromContentsAndNames(testList, new Fnt.Folder(), Endianness.EndiannessType.BIG);
+        narc.hashCode();
+        narc2.files.set(1, new byte[] {1, 1, 1, 1});
+        assertThat(narc.hashCode())
+                .isEqualTo(narc2.hashCode());
+    }
+
+    @Test
+    void inPlaceModificationChangesEqualityAfterInvalidation() {
+        Narc narc2 = Narc.fromContentsAndNames(testList, new Fnt.Folder(), Endianness.EndiannessType.BIG);
+        narc2.setFile(0, new byte[] {0, 0, 0, 0});
+        assertThat(narc)
+                .isEqualTo(narc2);
+        narc2.getFile(0)[0] = 5;
+        narc2.invalidateHashes();
+        assertThat(narc)
+                .isNotEqualTo(narc2);
+    }
+
+    @Test
+    void deduplicatedSaveIsSmallerAndLoadsIndependentFiles() {
+        byte[] deduplicated = narc.save(true);
+        assertThat(deduplicated.length)
+                .isLessThan(narc.save().length);
+        Narc loaded = new Narc(deduplicated);
+        assertThat(loaded.getFiles())
+                .containsExactly(b1, b2, b3);
+        assertThat(loaded.getFile(0))
+                .isNotSameAs(loaded.getFile(2));
+    }
+
+    @Test
+    void compressedFilesAreDecompressedOnce() {
+        narc.setFile(1, Compression.compress(b2, Compression.Codec.LZ10));
+        byte[] decompressed = narc.getDecompressedFile(1);
+        assertThat(decompressed)
+                .isEqualTo(b2);
+        assertThat(narc.getDecompressedFile(1))
+                .isSameAs(decompressed);
+        assertThat(narc.getCodec(0))
+                .isEqualTo(Compression.Codec.NONE);
+    }
+
+    @Test
+    void smallFilesWhichLookCompressedAreKept() {
+        byte[] header = {0x10, 0, 0, 0};
+        narc.setFile(1, header);
+        assertThat(narc.getCodec(1))
+                .isEqualTo(Compression.Codec.NONE);
+        assertThat(narc.getDecompressedFile(1))
+                .isSameAs(header);
+        narc.setDecompressedFile(1, new byte[] {0x10, 0, 0, 0, 5});
+        assertThat(narc.getFile(1))
+                .containsExactly(0x10, 0, 0, 0, 5);
+    }
+
+    @Test
+    void modifiedDecompressedFilesAreRecompressed() {
+        narc.setFile(1, Compression.compress(b2, Compression.Codec.LZ11));
+        narc.setDecompressedFile(1, new byte[] {5, 5, 5, 5, 5, 5});
+        Narc loaded = new Narc(narc.save());
+        assertThat(loaded.getCodec(1))
+                .isEqualTo(Compression.Codec.LZ11);
+        assertThat(loaded.getDecompressedFile(1))
+                .containsExactly(5, 5, 5, 5, 5, 5);
+    }
+
+    @Test
+    void filesystemBatchRenumbersFiles() {
+        Fnt.Folder root = new Fnt.Folder(null, new ArrayList<>(Arrays.asList("x", "y")), 0);
+        root.getFolders().put("d", new Fnt.Folder(null, new ArrayList<>(Arrays.asList("z")), 2));
+        Narc named = new Narc(Narc.fromContentsAndNames(testList, root, Endianness.EndiannessType.BIG).save());
+        byte[] added = {2, 2};
+
+        int[] remap = named.editFilesystem()
+                .rename("x", "w")
+                .move("y", "d")
+                .add("e/new", added)
+                .remove("d/z")
+                .commit();
+        assertThat(remap)
+                .containsExactly(0, 1, -1);
+        assertThat(named.getFiles())
+                .containsExactly(b1, b2, added);
+
+        Narc loaded = new Narc(named.save());
+        assertThat(loaded.filenames.paths())
+                .containsExactly("w", "d/y", "e/new");
+        assertThat(loaded.getFiles())
+                .containsExactly(b1, b2, added);
+    }
+
+    @Test
+    void failedFilesystemBatchChangesNothing() {
+        Fnt.Folder root = new Fnt.Folder(null, new ArrayList<>(Arrays.asList("x", "y", "z")), 0);
+        Narc named = Narc.fromContentsAndNames(testList, root, Endianness.EndiannessType.BIG);
+        FilesystemBatch batch = named.editFilesystem().remove("x");
+        assertThatThrownBy(() -> batch.rename("y", "z"))
+                .isInstanceOf(RuntimeException.class);
+        assertThat(named.filenames.paths())
+                .containsExactly("x", "y", "z");
+    }
+
+    @Test
+    void storedFilesSaveIdentically() throws IOException {
+        byte[] expected = narc.save(true);
+        try (PayloadStore store = PayloadStore.direct())
+        {
+            narc.setPayloadStore(store);
+            assertThat(narc.save(true))
+                    .isEqualTo(expected);
+            assertThat(narc.getFiles())
+                    .containsExactly(b1, b2, b3);
+            assertThat(narc)
+                    .isEqualTo(Narc.fromContentsAndNames(testList, new Fnt.Folder(), Endianness.EndiannessType.BIG));
+
+            // the arrays which are returned are copies
+            narc.getFile(1)[0] = 9;
+            assertThat(narc.getFile(1))
+                    .isEqualTo(b2);
+            narc.setFile(1, b1);
+            narc.removeFile(b3);
+            assertThat(narc.getFiles())
+                    .containsExactly(b1, b1);
+            assertThat(store.getUsedBytes())
+                    .isEqualTo(8);
+
+            narc.setPayloadStore(null);
+            assertThat(store.getUsedBytes())
+                    .isEqualTo(0);
+        }
+        assertThat(narc.getFiles())
+                .containsExactly(b1, b1);
+    }
+
+    @Test
+    void storedFilesAreDecompressedOnce() throws IOException {
+        narc.setFile(1, Compression.compress(b2, Compression.Codec.LZ10));
+        try (PayloadStore store = PayloadStore.direct())
+        {
+            narc.setPayloadStore(store);
+            byte[] decompressed = narc.getDecompressedFile(1);
+            assertThat(narc.getDecompressedFile(1))
+                    .isSameAs(decompressed)
+                    .isEqualTo(b2);
+            byte[] uncompressed = narc.getDecompressedFile(0);
+            assertThat(narc.getDecompressedFile(0))
+                    .isSameAs(uncompressed);
+
+            // replacing the subfile is still noticed
+            narc.setFile(1, Compression.compress(b1, Compression.Codec.LZ10));
+            assertThat(narc.getDecompressedFile(1))
+                    .isEqualTo(b1);
+            narc.setDecompressedFile(0, b2);
+            assertThat(narc.getFile(0))
+                    .isEqualTo(b2);
+            narc.setPayloadStore(null);
+        }
+    }
+
+    @Test
+    void storedFilesBehaveAsList() throws IOException {
+        try (PayloadStore store = PayloadStore.direct())
+        {
+            narc.setPayloadStore(store);
+            ListIterator<byte[]> iterator = narc.getFileList().listIterator();
+            iterator.next();
+            iterator.set(b2);
+            iterator.next();
+            iterator.remove();
+            iterator.add(new byte[] {2});
+            assertThat(narc.getFileList())
+                    .containsExactly(b2, new byte[] {2}, b3);
+            assertThat(narc.getFileList().subList(1, 3))
+                    .containsExactly(new byte[] {2}, b3);
+            assertThat(narc.getFileList().lastIndexOf(b2.clone()))
+                    .isEqualTo(0);
+            assertThat(narc.getFileList().contains(new byte[] {3}))
+                    .isFalse();
+            narc.getFileList().subList(0, 2).clear();
+            assertThat(narc.getFileList())
+                    .containsExactly(b3);
+
+            // getFiles() copies the stored subfiles, so callers keep getting an ArrayList
+            narc.getFiles().clear();
+            assertThat(narc.getFiles())
+                    .isInstanceOf(ArrayList.class)
+                    .containsExactly(b3);
+            assertThat(store.getUsedBytes())
+                    .isEqualTo(4);
+            narc.setPayloadStore(null);
+        }
+    }
+
+    @Test
+    void bigEndianNarcsAreRead() {
+        byte[] fnt = Fnt.save(new Fnt.Folder()).reader().getBuffer();
+        MemBuf memBuf = MemBuf.create();
+        MemBuf.MemBufWriter writer = memBuf.writer().order(ByteOrder.BIG_ENDIAN);
+        writer.writeString("NARC").writeShort((short) 0xFEFF).writeShort((short) 1);
+        writer.writeInt(0x10 + 0x1C + 8 + fnt.length + 8 + 8).writeShort((short) 0x10).writeShort((short) 3);
+        writer.writeString("FATB").writeInt(0x1C).writeInt(2);
+        writer.writeInt(0).writeInt(4).writeInt(4).writeInt(8);
+        writer.writeString("FNTB").writeInt(8 + fnt.length).write(fnt);
+        writer.writeString("FIMG").writeInt(16).write(b1).write(b2);
+
+        Narc bigEndian = new Narc(memBuf.reader().getBuffer());
+        assertThat(bigEndian.getByteOrder())
+                .isEqualTo(ByteOrder.BIG_ENDIAN);
+        assertThat(bigEndian.getVersion())
+                .isEqualTo(1);
+        assertThat(bigEndian.getFiles())
+                .containsExactly(b1, b2);
+
+        // only the beginning of NARCs like the ones in NSMB is big endian
+        Narc beginning = new Narc(narc.save());
+        assertThat(beginning.getEndiannessOfBeginning())
+                .isEqualTo(Endianness.EndiannessType.BIG);
+        assertThat(beginning.getByteOrder())
+                .isEqualTo(ByteOrder.LITTLE_ENDIAN);
+    }
 }
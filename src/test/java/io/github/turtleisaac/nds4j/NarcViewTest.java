@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.framework.Endianness;
+import io.github.turtleisaac.nds4j.framework.PayloadStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NarcViewTest
+{
+    private final ArrayList<byte[]> testList = new ArrayList<>(Arrays.stream(new byte[][]{{0, 0}, {1, 1}, {2, 2}}).collect(Collectors.toList()));
+    private final Narc narc = Narc.fromContentsAndNames(testList, new Fnt.Folder(), Endianness.EndiannessType.LITTLE);
+    private final AtomicInteger decodeCount = new AtomicInteger();
+    private final NarcView<int[]> view = new NarcView<>(narc, data -> {
+        decodeCount.incrementAndGet();
+        int[] ret = new int[data.length];
+        for (int i = 0; i < data.length; i++)
+            ret[i] = data[i];
+        return ret;
+    }, value -> {
+        byte[] ret = new byte[value.length];
+        for (int i = 0; i < value.length; i++)
+            ret[i] = (byte) value[i];
+        return ret;
+    }, 2);
+
+    @Test
+    void decodesOnce() {
+        int[] first = view.get(1);
+        assertThat(view.get(1))
+                .isSameAs(first);
+        assertThat(decodeCount.get())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void cacheIsBounded() {
+        view.get(0);
+        view.get(1);
+        view.get(2);
+        assertThat(view.getNumCached())
+                .isEqualTo(2);
+        view.get(0);
+        assertThat(decodeCount.get())
+                .isEqualTo(4);
+    }
+
+    @Test
+    void replacedSubfileIsDecodedAgain() {
+        view.get(0);
+        narc.setFile(0, new byte[] {5});
+        assertThat(view.get(0))
+                .containsExactly(5);
+    }
+
+    @Test
+    void flushWritesModifiedSubfiles() {
+        view.get(0)[1] = 7;
+        view.markModified(0);
+        view.set(2, new int[] {9});
+        assertThat(narc.getFile(0))
+                .containsExactly(0, 0);
+        view.flush();
+        assertThat(narc.getFile(0))
+                .containsExactly(0, 7);
+        assertThat(narc.getFile(2))
+                .containsExactly(9);
+        assertThat(decodeCount.get())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void storedSubfilesAreDecodedOnce() throws IOException {
+        try (PayloadStore store = PayloadStore.direct())
+        {
+            narc.setPayloadStore(store);
+            int[] first = view.get(1);
+            first[0] = 4;
+            assertThat(view.get(1))
+                    .isSameAs(first);
+            view.markModified(1);
+            view.flush();
+            assertThat(view.get(1))
+                    .isSameAs(first);
+            assertThat(narc.getFile(1))
+                    .containsExactly(4, 1);
+            assertThat(decodeCount.get())
+                    .isEqualTo(1);
+
+            narc.setFile(1, new byte[] {5});
+            assertThat(view.get(1))
+                    .containsExactly(5);
+            narc.setPayloadStore(null);
+        }
+    }
+
+    @Test
+    void movedSubfilesAreNotOverwritten() {
+        view.set(1, new int[] {42});
+        narc.removeFile(0);
+        assertThatThrownBy(view::flush)
+                .isInstanceOf(RuntimeException.class);
+        assertThat(narc.getFiles())
+                .containsExactly(new byte[] {1, 1}, new byte[] {2, 2});
+
+        // the modifications are discarded, so the view can be used again
+        view.flush();
+        assertThat(view.get(1))
+                .containsExactly(2, 2);
+    }
+
+    @Test
+    void insertedSubfilesAreNotOverwritten() {
+        view.get(2)[0] = 7;
+        view.markModified(2);
+        narc.getFiles().add(0, new byte[] {9});
+        assertThatThrownBy(() -> view.get(2))
+                .isInstanceOf(RuntimeException.class);
+        assertThat(view.get(2))
+                .containsExactly(1, 1);
+
+        // subfiles which were removed past the end of the list aren't written either
+        view.set(3, new int[] {3});
+        narc.removeFile(3);
+        assertThatThrownBy(() -> {
+            view.get(0);
+            view.get(1);
+        })
+                .isInstanceOf(RuntimeException.class);
+        assertThat(narc.getFiles())
+                .containsExactly(new byte[] {9}, new byte[] {0, 0}, new byte[] {1, 1});
+    }
+
+    @Test
+    void evictionWritesModifiedSubfiles() {
+        view.set(0, new int[] {3});
+        view.get(1);
+        view.get(2);
+        assertThat(narc.getFile(0))
+                .containsExactly(3);
+    }
+}
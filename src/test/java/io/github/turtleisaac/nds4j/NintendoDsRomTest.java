@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import io.github.turtleisaac.nds4j.framework.Endianness;
+import io.github.turtleisaac.nds4j.framework.PayloadStore;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NintendoDsRomTest
+{
+    /**
+     * Creates a small ROM with a file and a NARC in its filesystem
+     */
+    static NintendoDsRom createRom()
+    {
+        ByteBuffer header = ByteBuffer.allocate(0x8010).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x20, 0x4000).putInt(0x24, 0x2000000).putInt(0x28, 0x2000000).putInt(0x2C, 0x4000);
+        header.putInt(0x30, 0x8000).putInt(0x34, 0x2380000).putInt(0x38, 0x2380000).putInt(0x3C, 4);
+        NintendoDsRom rom = new NintendoDsRom(header.array());
+
+        rom.filenames.getFiles().add("a.bin");
+        rom.filenames.getFiles().add("b.narc");
+        rom.addFile(new byte[] {1, 2, 3});
+        rom.addFile(Narc.fromContentsAndNames(new ArrayList<>(Arrays.asList(new byte[] {5}, new byte[] {6, 7})), new Fnt.Folder(), Endianness.EndiannessType.LITTLE).save());
+        return rom;
+    }
+
+    @Test
+    void entriesOfStoredFiles() throws IOException {
+        NintendoDsRom rom = createRom();
+        try (PayloadStore store = PayloadStore.direct())
+        {
+            rom.setPayloadStore(store);
+            NintendoDsRom.FileEntry entry = rom.entries().findFirst().get();
+            assertThat(entry.getSize())
+                    .isEqualTo(3);
+
+            // the contents are only copied out of the store once they're needed, and then kept
+            assertThat(entry.getData())
+                    .containsExactly(1, 2, 3);
+            assertThat(entry.getData())
+                    .isSameAs(entry.getData());
+        }
+    }
+
+    @Test
+    void filesystemBatchKeepsFileOffsets() {
+        NintendoDsRom rom = new NintendoDsRom(createRom().save(false));
+        int offset = rom.entries().filter(entry -> "b.narc".equals(entry.getPath())).findFirst().get().getOffset();
+
+        rom.editFilesystem()
+                .remove("a.bin")
+                .add("c.bin", new byte[] {4})
+                .commit();
+        assertThat(rom.entries().map(Fnt.Entry::getPath))
+                .containsExactly("b.narc", "c.bin");
+        assertThat(rom.entries().mapToInt(NintendoDsRom.FileEntry::getOffset))
+                .containsExactly(offset, -1);
+        assertThat(new NintendoDsRom(rom.save(false)).getFileByName("c.bin"))
+                .containsExactly(4);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RomIndexTest
+{
+    private static final int NUM_FILES_OFFSET = 28; // after the magic, version, ROM size, modification time and CRC
+
+    private static File writeRom(Path dir) throws IOException
+    {
+        File file = dir.resolve("test.nds").toFile();
+        Files.write(file.toPath(), NintendoDsRomTest.createRom().save(false));
+        return file;
+    }
+
+    @Test
+    void roundTrip(@TempDir Path dir) throws IOException {
+        File file = writeRom(dir);
+        NintendoDsRom parsed = NintendoDsRom.fromFile(file, true);
+        assertThat(RomIndex.getSidecarFile(file))
+                .isFile();
+
+        RomIndex index = RomIndex.load(file);
+        assertThat(index)
+                .isNotNull();
+        assertThat(index.matches(file))
+                .isTrue();
+        assertThat(index.getFilenames())
+                .isEqualTo(parsed.filenames);
+
+        NintendoDsRom indexed = NintendoDsRom.fromFile(file, true);
+        assertThat(indexed.files)
+                .isInstanceOf(MappedFileList.class);
+        MappedFileList files = (MappedFileList) indexed.files;
+        int a = indexed.filenames.getIdOf("a.bin");
+        int b = indexed.filenames.getIdOf("b.narc");
+
+        // files are only read from the ROM file once they're needed
+        assertThat(indexed.entries().mapToInt(NintendoDsRom.FileEntry::getSize).sum())
+                .isEqualTo(parsed.entries().mapToInt(NintendoDsRom.FileEntry::getSize).sum());
+        assertThat(files.isRead(a) || files.isRead(b))
+                .isFalse();
+        assertThat(indexed.getFileByName("a.bin"))
+                .containsExactly(1, 2, 3)
+                .isSameAs(indexed.getFileByName("a.bin"));
+        assertThat(files.isRead(a))
+                .isTrue();
+        assertThat(files.isRead(b))
+                .isFalse();
+        assertThat(indexed.loadNarc("b.narc").getFile(1))
+                .containsExactly(6, 7);
+        assertThat(indexed.save(false))
+                .isEqualTo(parsed.save(false));
+    }
+
+    @Test
+    void staleIndexIsIgnored(@TempDir Path dir) throws IOException {
+        File file = writeRom(dir);
+        NintendoDsRom.fromFile(file, true);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(file.lastModified() - 10000));
+
+        assertThat(RomIndex.load(file))
+                .isNull();
+
+        // it is rebuilt the next time the ROM is read
+        assertThat(NintendoDsRom.fromFile(file, true).getFileByName("a.bin"))
+                .containsExactly(1, 2, 3);
+        assertThat(RomIndex.load(file))
+                .isNotNull();
+    }
+
+    @Test
+    void corruptIndexIsIgnored(@TempDir Path dir) throws IOException {
+        File file = writeRom(dir);
+        NintendoDsRom.fromFile(file, true);
+        Path sidecar = RomIndex.getSidecarFile(file).toPath();
+        byte[] valid = Files.readAllBytes(sidecar);
+
+        // a file count which couldn't possibly fit in the index
+        ByteBuffer corrupt = ByteBuffer.wrap(valid.clone()).order(ByteOrder.LITTLE_ENDIAN);
+        corrupt.putInt(NUM_FILES_OFFSET, Integer.MAX_VALUE);
+        Files.write(sidecar, corrupt.array());
+        assertThat(RomIndex.load(file))
+                .isNull();
+
+        corrupt.putInt(NUM_FILES_OFFSET, -1);
+        Files.write(sidecar, corrupt.array());
+        assertThat(RomIndex.load(file))
+                .isNull();
+
+        Files.write(sidecar, Arrays.copyOf(valid, valid.length / 2));
+        assertThat(RomIndex.load(file))
+                .isNull();
+        assertThat(NintendoDsRom.fromFile(file, true).getFileByName("a.bin"))
+                .containsExactly(1, 2, 3);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class BinaryWriterTest
+{
+    @Test
+    void bufferedWritesMatchMemBuf(@TempDir Path dir) throws IOException {
+        byte[] random = new byte[100];
+        new Random(0).nextBytes(random);
+
+        MemBuf expected = MemBuf.create();
+        expected.writer().writeInt(0x12345678).writeShort((short) 0xBEEF).write(random).writeByteNumTimes((byte) 7, 50);
+        int end = expected.writer().getPosition();
+        expected.writer().setPosition(2);
+        expected.writer().writeInt(-1);
+        expected.writer().setPosition(end);
+
+        Path file = dir.resolve("out.bin");
+        try (BinaryWriter writer = new BinaryWriter(file, 16, false))
+        {
+            writer.preallocate(1000);
+            writer.writeInt(0x12345678);
+            writer.writeShort((short) 0xBEEF);
+            writer.write(ByteBuffer.wrap(random));
+            writer.writeByteNumTimes(7, 50);
+            writer.setPosition(2);
+            writer.writeInt(-1);
+        }
+        assertThat(Files.readAllBytes(file))
+                .isEqualTo(expected.reader().getBuffer());
+    }
+
+    @Test
+    void atomicWriterOnlyReplacesFileOnCommit(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("rom.nds");
+        Files.write(file, new byte[] {1, 2, 3});
+
+        try (BinaryWriter writer = new BinaryWriter(file, 16, true))
+        {
+            writer.write(new byte[64]);
+        }
+        assertThat(Files.readAllBytes(file))
+                .containsExactly(1, 2, 3);
+
+        BinaryWriter.writeFileAtomically(file.toFile(), new byte[] {4, 5});
+        assertThat(Files.readAllBytes(file))
+                .containsExactly(4, 5);
+        try (java.util.stream.Stream<Path> files = Files.list(dir))
+        {
+            assertThat(files)
+                    .containsExactly(file);
+        }
+    }
+
+    @Test
+    void atomicWriterKeepsPermissions(@TempDir Path dir) throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+        Path file = dir.resolve("rom.nds");
+        Files.write(file, new byte[] {1, 2, 3});
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(file, permissions);
+        BinaryWriter.writeFileAtomically(file.toFile(), new byte[] {4, 5});
+        assertThat(Files.getPosixFilePermissions(file))
+                .isEqualTo(permissions);
+
+        // new files get the same permissions as any other new file
+        Path created = Files.createFile(dir.resolve("created.nds"));
+        Path written = dir.resolve("written.nds");
+        BinaryWriter.writeFileAtomically(written.toFile(), new byte[] {6});
+        assertThat(Files.getPosixFilePermissions(written))
+                .isEqualTo(Files.getPosixFilePermissions(created));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChannelReaderTest
+{
+    @Test
+    void readsAndSeeks(@TempDir Path dir) throws IOException {
+        byte[] data = new byte[1000];
+        new Random(0).nextBytes(data);
+        data[500] = 0x12;
+        data[501] = 0x34;
+        data[502] = 0x56;
+        data[503] = 0x78;
+        Path file = dir.resolve("data.bin");
+        Files.write(file, data);
+
+        assertThat(Buffer.readFile(file))
+                .isEqualTo(data);
+
+        for (ChannelReader reader : new ChannelReader[] {ChannelReader.open(file, 16), ChannelReader.map(file)})
+        {
+            try (ChannelReader r = reader)
+            {
+                r.setPosition(500);
+                assertThat(r.readInt())
+                        .isEqualTo(0x78563412);
+                assertThat(r.readBytes(300))
+                        .isEqualTo(Arrays.copyOfRange(data, 504, 804));
+
+                // moving backwards doesn't need the file to be reopened
+                r.setPosition(498);
+                r.skip(2);
+                assertThat(r.order(ByteOrder.BIG_ENDIAN).readInt())
+                        .isEqualTo(0x12345678);
+                assertThat(r.readTo(1000))
+                        .isEqualTo(Arrays.copyOfRange(data, 504, 1000));
+                assertThatThrownBy(r::readByte)
+                        .isInstanceOf(RuntimeException.class);
+            }
+        }
+    }
+}
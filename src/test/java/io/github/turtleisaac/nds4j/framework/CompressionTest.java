@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompressionTest
+{
+    private final byte[] repetitive = new byte[0x3000];
+    private final byte[] random = new byte[0x800];
+
+    {
+        for (int i = 0; i < repetitive.length; i++)
+            repetitive[i] = (byte) ((i / 7) % 5 + (i % 3 == 0 ? 0x40 : 0));
+        new Random(0).nextBytes(random);
+    }
+
+    @Test
+    void compressedDataRoundTrips() {
+        for (Compression.Codec codec : Compression.Codec.values())
+        {
+            for (byte[] data : new byte[][] {repetitive, random, new byte[0], new byte[] {3}})
+            {
+                byte[] compressed = Compression.compress(data, codec);
+                assertThat(Compression.decompress(compressed, codec))
+                        .as(codec.toString())
+                        .isEqualTo(data);
+            }
+        }
+    }
+
+    @Test
+    void compressedDataIsDetected() {
+        for (Compression.Codec codec : Compression.Codec.values())
+        {
+            assertThat(Compression.detect(Compression.compress(repetitive, codec)))
+                    .isEqualTo(codec);
+        }
+    }
+
+    @Test
+    void repetitiveDataGetsSmaller() {
+        assertThat(Compression.compress(repetitive, Compression.Codec.LZ10).length)
+                .isLessThan(repetitive.length / 4);
+        assertThat(Compression.compress(repetitive, Compression.Codec.LZ11).length)
+                .isLessThan(repetitive.length / 4);
+    }
+
+    @Test
+    void lz10NeverUsesDisplacementOne() {
+        byte[] runs = new byte[0x400];
+        for (int i = 0; i < runs.length; i++)
+            runs[i] = (byte) (i / 0x40);
+        byte[] compressed = Compression.compress(runs, Compression.Codec.LZ10);
+        assertThat(Compression.decompress(compressed, Compression.Codec.LZ10))
+                .isEqualTo(runs);
+
+        int pos = 4;
+        int outPos = 0;
+        while (outPos < runs.length)
+        {
+            int flags = compressed[pos++] & 0xFF;
+            for (int i = 0; i < 8 && outPos < runs.length; i++)
+            {
+                if ((flags & (0x80 >> i)) == 0)
+                {
+                    pos++;
+                    outPos++;
+                    continue;
+                }
+                int disp = ((compressed[pos] & 0xF) << 8 | (compressed[pos + 1] & 0xFF)) + 1;
+                assertThat(disp)
+                        .isGreaterThan(1);
+                outPos += ((compressed[pos] & 0xFF) >> 4) + 3;
+                pos += 2;
+            }
+        }
+    }
+
+    @Test
+    void uncompressedDataIsNotDetected() {
+        byte[] data = {0x10, 0x40, 0, 0, 1, 2, 3, 4};
+        assertThat(Compression.detect(data))
+                .isEqualTo(Compression.Codec.NONE);
+        assertThat(Compression.decompress(data))
+                .isSameAs(data);
+    }
+
+    @Test
+    void smallUncompressedDataIsNotDetected() {
+        for (Compression.Codec codec : Compression.Codec.values())
+        {
+            if (codec == Compression.Codec.NONE)
+                continue;
+
+            // a declared size of 0
+            byte[] empty = {(byte) codec.id, 0, 0, 0};
+            assertThat(Compression.detect(empty))
+                    .as(codec.toString())
+                    .isEqualTo(Compression.Codec.NONE);
+            byte[] longer = Arrays.copyOf(empty, 20);
+            assertThat(Compression.detect(longer))
+                    .as(codec.toString())
+                    .isEqualTo(Compression.Codec.NONE);
+        }
+
+        // more than padding left over after the compressed data
+        byte[] compressed = Compression.compress(new byte[] {3}, Compression.Codec.LZ10);
+        assertThat(Compression.detect(compressed))
+                .isEqualTo(Compression.Codec.LZ10);
+        assertThat(Compression.detect(Arrays.copyOf(compressed, compressed.length + 4)))
+                .isEqualTo(Compression.Codec.NONE);
+        byte[] notPadding = compressed.clone();
+        notPadding[notPadding.length - 1] = 1;
+        assertThat(Compression.detect(notPadding))
+                .isEqualTo(Compression.Codec.NONE);
+        assertThat(Compression.decompress(Arrays.copyOf(compressed, compressed.length + 4), Compression.Codec.LZ10))
+                .containsExactly(3);
+    }
+
+    @Test
+    void codeCompressedDataRoundTrips() {
+        for (int effort : new int[] {1, CodeCompression.DEFAULT_EFFORT, 4096})
+        {
+            byte[] compressed = CodeCompression.compress(repetitive, false, effort);
+            assertThat(compressed.length)
+                    .isLessThan(repetitive.length / 4);
+            assertThat(CodeCompression.decompress(compressed))
+                    .isEqualTo(repetitive);
+        }
+
+        // only the end of the data is compressed if the start doesn't compress well
+        byte[] mixed = new byte[random.length + repetitive.length];
+        System.arraycopy(random, 0, mixed, 0, random.length);
+        System.arraycopy(repetitive, 0, mixed, random.length, repetitive.length);
+        byte[] compressed = CodeCompression.compress(mixed);
+        assertThat(Arrays.copyOf(compressed, random.length))
+                .isEqualTo(random);
+        assertThat(CodeCompression.decompress(compressed))
+                .isEqualTo(mixed);
+
+        assertThat(CodeCompression.compress(random))
+                .isSameAs(random);
+    }
+
+    @Test
+    void arm9SecureAreaIsNotCompressed() {
+        byte[] arm9 = new byte[CodeCompression.ARM9_UNCOMPRESSED_SIZE + repetitive.length];
+        Arrays.fill(arm9, 0, CodeCompression.ARM9_UNCOMPRESSED_SIZE, (byte) 0x55);
+        System.arraycopy(repetitive, 0, arm9, CodeCompression.ARM9_UNCOMPRESSED_SIZE, repetitive.length);
+        byte[] compressed = CodeCompression.compress(arm9, true);
+        assertThat(Arrays.copyOf(compressed, CodeCompression.ARM9_UNCOMPRESSED_SIZE))
+                .isEqualTo(Arrays.copyOf(arm9, CodeCompression.ARM9_UNCOMPRESSED_SIZE));
+        assertThat(CodeCompression.decompress(compressed))
+                .isEqualTo(arm9);
+    }
+}
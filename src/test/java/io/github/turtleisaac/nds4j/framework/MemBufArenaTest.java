@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MemBufArenaTest
+{
+    @Test
+    void buffersAreReusedEmpty() {
+        MemBuf first;
+        try (MemBufArena arena = MemBufArena.open())
+        {
+            first = arena.allocate();
+            first.writer().writeInt(0x12345678).writeByteNumTimes((byte) 0xFF, 100);
+        }
+
+        try (MemBufArena arena = MemBufArena.open())
+        {
+            MemBuf reused = arena.allocate();
+            assertThat(reused)
+                    .isSameAs(first);
+            assertThat(reused.writer().getPosition())
+                    .isEqualTo(0);
+            reused.writer().skip(8);
+            assertThat(reused.reader().getBuffer())
+                    .containsOnly(0);
+
+            // nested arenas don't hand out buffers which are still in use
+            try (MemBufArena nested = MemBufArena.open())
+            {
+                assertThat(nested.allocate())
+                        .isNotSameAs(reused);
+            }
+
+            assertThat(arena.allocate(1000).writer().getPosition())
+                    .isEqualTo(0);
+        }
+    }
+
+    @Test
+    void closedArenaCantAllocate() {
+        MemBufArena arena = MemBufArena.open();
+        arena.close();
+        assertThatThrownBy(arena::allocate)
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MemBufTest
+{
+    private static byte[] fill(MemBuf memBuf)
+    {
+        byte[] random = new byte[300];
+        new Random(0).nextBytes(random);
+
+        MemBuf.MemBufWriter writer = memBuf.writer();
+        writer.writeInt(0x12345678);
+        writer.write(random);
+        writer.align(0x20, (byte) 0xFF);
+        writer.writeShort((short) 0xBEEF);
+        writer.writeByteNumTimes((byte) 7, 100);
+        int end = writer.getPosition();
+        writer.writeAt(random, 10, 2, 50);
+        writer.setPosition(end);
+        writer.writeString("nds4j");
+        return memBuf.reader().getBuffer();
+    }
+
+    @Test
+    void chunkedBufferMatchesFlatBuffer() {
+        byte[] flat = fill(MemBuf.create());
+        assertThat(fill(MemBuf.create(4)))
+                .isEqualTo(flat);
+        MemBuf chunked = MemBuf.createChunked(16);
+        assertThat(fill(chunked))
+                .isEqualTo(flat);
+
+        chunked.reader().setPosition(4);
+        assertThat(chunked.reader().readBytes(300))
+                .isEqualTo(Arrays.copyOfRange(flat, 4, 304));
+        chunked.flatten();
+        chunked.reader().setPosition(0);
+        assertThat(chunked.reader().getBuffer())
+                .isEqualTo(flat);
+    }
+
+    @Test
+    void chunkedBufferIsWrittenToChannels() throws IOException {
+        MemBuf chunked = MemBuf.createChunked(16);
+        byte[] expected = fill(chunked);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunked.reader().writeTo(Channels.newChannel(out));
+        assertThat(out.toByteArray())
+                .isEqualTo(expected);
+    }
+
+    @Test
+    void byteOrderCanBeSwitched() {
+        for (MemBuf memBuf : new MemBuf[] {MemBuf.create(), MemBuf.createChunked(2)}) {
+            memBuf.writer().writeInt(0x12345678);
+            memBuf.writer().order(ByteOrder.BIG_ENDIAN).writeInt(0x12345678).writeShort((short) 0xBEEF);
+            assertThat(memBuf.reader().getBuffer())
+                    .containsExactly(0x78, 0x56, 0x34, 0x12, 0x12, 0x34, 0x56, 0x78, 0xBE, 0xEF);
+            assertThat(memBuf.reader().order(ByteOrder.BIG_ENDIAN).readInt())
+                    .isEqualTo(0x78563412);
+            assertThat(memBuf.reader().order(ByteOrder.LITTLE_ENDIAN).readInt())
+                    .isEqualTo(0x78563412);
+            assertThat(memBuf.reader().order(ByteOrder.BIG_ENDIAN).readUInt16())
+                    .isEqualTo(0xBEEF);
+            memBuf.reader().setPosition(8);
+            assertThat(memBuf.reader().order(ByteOrder.LITTLE_ENDIAN).readShort())
+                    .isEqualTo((short) 0xEFBE);
+        }
+        assertThat(Endianness.swapEndianness((short) 0xBEEF))
+                .isEqualTo((short) 0xEFBE);
+        assertThat(Endianness.swapEndianness(0x12345678))
+                .isEqualTo(0x78563412);
+    }
+
+    @Test
+    void wrappedBuffersMatchFlatBuffer() {
+        byte[] flat = fill(MemBuf.create());
+        // casts keep these calls binary-compatible with Java 8's Buffer API
+        ByteBuffer empty = ByteBuffer.allocateDirect(4);
+        ((java.nio.Buffer) empty).limit(0);
+        assertThat(fill(MemBuf.wrap(empty)))
+                .isEqualTo(flat);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(flat.length + 2);
+        ((java.nio.Buffer) direct).position(2);
+        direct.put(flat);
+        ((java.nio.Buffer) direct).position(2);
+        MemBuf wrapped = MemBuf.wrap(direct);
+        assertThat(wrapped.reader().getBuffer())
+                .isEqualTo(flat);
+        wrapped.writer().setPosition(0);
+        wrapped.writer().writeInt(0x01020304);
+        assertThat(direct.get(2))
+                .isEqualTo((byte) 4);
+    }
+
+    @Test
+    void slicesShareStorage() {
+        byte[] data = {1, 2, 3, 4, 5, 6, 7, 8};
+        MemBuf wrapped = MemBuf.wrap(data);
+        wrapped.reader().skip(2);
+        ByteBuffer slice = wrapped.reader().readSlice(4);
+        assertThat(wrapped.reader().getPosition())
+                .isEqualTo(6);
+        assertThat(slice.isReadOnly())
+                .isTrue();
+        assertThat(slice.getInt(0))
+                .isEqualTo(0x06050403);
+        data[2] = 9;
+        assertThat(slice.get(0))
+                .isEqualTo((byte) 9);
+        assertThat(wrapped.reader().order(ByteOrder.BIG_ENDIAN).sliceTo(8).getShort())
+                .isEqualTo((short) 0x0708);
+
+        MemBuf chunked = MemBuf.createChunked(4);
+        chunked.writer().write(data);
+        chunked.reader().skip(2);
+        ByteBuffer spanning = chunked.reader().readSlice(4);
+        assertThat(spanning.getInt())
+                .isEqualTo(0x06050409);
+    }
+
+    @Test
+    void readersAreIndependent() {
+        MemBuf memBuf = MemBuf.createChunked(16);
+        for (int i = 0; i < 1000; i++)
+            memBuf.writer().writeInt(i);
+        memBuf.reader().setPosition(8);
+
+        MemBuf.MemBufReader first = memBuf.newReader();
+        MemBuf.MemBufReader second = memBuf.newReader().order(ByteOrder.BIG_ENDIAN);
+        first.skip(4);
+        assertThat(first.readInt())
+                .isEqualTo(1);
+        assertThat(second.readInt())
+                .isEqualTo(0);
+        assertThat(memBuf.reader().readInt())
+                .isEqualTo(2);
+        assertThat(second.getInt(12))
+                .isEqualTo(0x03000000);
+        assertThat(second.getPosition())
+                .isEqualTo(4);
+
+        assertThat(IntStream.range(0, 1000).parallel().allMatch(i -> memBuf.newReader().getInt(i * 4) == i))
+                .isTrue();
+    }
+
+    @Test
+    void bulkReadsMatchSingleReads() {
+        short[] shorts = {1, -2, 0x1234, (short) 0xBEEF, 5};
+        int[] ints = {0x12345678, -1, 0, 42};
+        for (MemBuf memBuf : new MemBuf[] {MemBuf.create(4), MemBuf.createChunked(4)}) {
+            for (ByteOrder order : new ByteOrder[] {ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN}) {
+                memBuf.writer().setPosition(0);
+                memBuf.writer().order(order).writeByte((byte) 9).writeShorts(shorts, 1, 4).writeInts(ints);
+                memBuf.reader().setPosition(0);
+                memBuf.reader().order(order).readByte();
+                assertThat(memBuf.reader().readShort())
+                        .isEqualTo(shorts[1]);
+                memBuf.reader().setPosition(1);
+
+                short[] readShorts = new short[5];
+                memBuf.reader().readShorts(readShorts, 1, 4);
+                assertThat(readShorts)
+                        .containsExactly(0, -2, 0x1234, (short) 0xBEEF, 5);
+                assertThat(memBuf.reader().readInts(4))
+                        .containsExactly(ints);
+                assertThat(memBuf.reader().getPosition())
+                        .isEqualTo(25);
+            }
+        }
+        assertThatThrownBy(() -> MemBuf.create().reader().readInts(new int[2], 1, 2))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2023 Turtleisaac.
+ *
+ * This file is part of Nds4j.
+ *
+ * Nds4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Nds4j is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Nds4j. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.turtleisaac.nds4j.framework;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PayloadStoreTest
+{
+    private static void storeAndRelease(PayloadStore store) {
+        Random random = new Random(0);
+        ArrayList<byte[]> contents = new ArrayList<>();
+        ArrayList<PayloadStore.Payload> payloads = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+        {
+            byte[] data = new byte[random.nextInt(600)];
+            random.nextBytes(data);
+            contents.add(data);
+            payloads.add(store.put(data));
+        }
+        for (int i = 0; i < contents.size(); i++)
+        {
+            assertThat(payloads.get(i).get())
+                    .isEqualTo(contents.get(i));
+            assertThat(payloads.get(i).contentEquals(contents.get(i)))
+                    .isTrue();
+        }
+
+        // released space is reused instead of allocating more
+        long reserved = store.getReservedBytes();
+        for (PayloadStore.Payload payload : payloads)
+            payload.release();
+        assertThat(store.getUsedBytes())
+                .isEqualTo(0);
+        for (byte[] data : contents)
+            store.put(data);
+        assertThat(store.getReservedBytes())
+                .isEqualTo(reserved);
+    }
+
+    @Test
+    void directStoreKeepsContents() throws IOException {
+        try (PayloadStore store = PayloadStore.direct(1024))
+        {
+            storeAndRelease(store);
+        }
+    }
+
+    @Test
+    void mappedStoreKeepsContentsAndDeletesItsFile(@TempDir Path dir) throws IOException {
+        try (PayloadStore store = PayloadStore.mapped(dir))
+        {
+            storeAndRelease(store);
+        }
+        assertThat(Files.list(dir).count())
+                .isEqualTo(0);
+    }
+
+    @Test
+    void payloadsCantBeReadAfterClosing() throws IOException {
+        PayloadStore store = PayloadStore.direct();
+        PayloadStore.Payload payload = store.put(new byte[] {1, 2, 3});
+        assertThat(payload.asReadOnlyBuffer().isReadOnly())
+                .isTrue();
+        store.close();
+        assertThatThrownBy(payload::get)
+                .isInstanceOf(RuntimeException.class);
+        assertThatThrownBy(() -> store.put(new byte[1]))
+                .isInstanceOf(RuntimeException.class);
+    }
+}